@@ -0,0 +1,89 @@
+package com.jia.bench;
+
+import com.jia.bench.Dataset.Distribution;
+import com.jia.csv.CSVSorter;
+import com.jia.csv.SortKey;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost per comparison of the record comparator chain, against comparing the normalized binary keys (SortKey) of the
+ * same records.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ComparatorBenchmark {
+
+    private static final int RECORDS = 10000;
+
+    /**
+     * Sort options, as on the command line.
+     */
+    @Param({"2a", "0a", "2a 0d", "3a 0a 2d"})
+    public String sortOpts;
+
+    @Param({"RANDOM", "DUPLICATES"})
+    public Distribution distribution;
+
+    private Comparable<Object>[][] records;
+    private byte[][] keys;
+    private Comparator<Comparable<Object>[]> chain;
+
+    @Setup
+    @SuppressWarnings("unchecked")
+    public void setup() {
+        String[] opts = sortOpts.split(" ");
+        int[] columns = new int[opts.length];
+        boolean[] descending = new boolean[opts.length];
+        for (int i = 0; i < opts.length; i++) {
+            columns[i] = Integer.parseInt(opts[i].substring(0, opts[i].length() - 1));
+            descending[i] = opts[i].endsWith("d");
+        }
+        chain = CSVSorter.recordComparator(columns, descending);
+
+        List<Comparable<Object>[]> list = Dataset.records(RECORDS, distribution);
+        records = list.toArray(new Comparable[RECORDS][]);
+        SortKey sortKey = new SortKey(columns, descending);
+        keys = new byte[RECORDS][];
+        for (int i = 0; i < RECORDS; i++)
+            keys[i] = sortKey.encode(records[i]);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(RECORDS - 1)
+    public int comparatorChain() {
+        int sum = 0;
+        for (int i = 1; i < RECORDS; i++)
+            sum += chain.compare(records[i - 1], records[i]);
+        return sum;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(RECORDS - 1)
+    public int normalizedKeys() {
+        int sum = 0;
+        for (int i = 1; i < RECORDS; i++)
+            sum += Arrays.compareUnsigned(keys[i - 1], keys[i]);
+        return sum;
+    }
+}
@@ -0,0 +1,114 @@
+package com.jia.bench;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.jia.csv.CSVSorter;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Generated CSV data in the format of the sample files: Name ("Last, First", unquoted), Address, Invoice Amount,
+ * Date of Sale.
+ *
+ * The distribution applies to the Invoice Amount column, the usual sort column of the benchmarks. The data is the
+ * same for a given size and distribution, so results can be compared across runs.
+ */
+public final class Dataset {
+
+    public enum Distribution {
+        SORTED, REVERSE, RANDOM, DUPLICATES
+    }
+
+    public static final String HEADER = "Name, Address, Invoice Amount, Date of Sale";
+
+    private static final int DISTINCT_DUPLICATES = 16;
+    private static final long SEED = 42;
+
+    private Dataset() {
+    }
+
+    /**
+     * The data lines, without header.
+     */
+    public static String[] lines(int rows, Distribution distribution) {
+        Random random = new Random(SEED);
+        String[] lines = new String[rows];
+        for (int i = 0; i < rows; i++)
+            lines[i] = line(i, amount(i, rows, distribution, random), random);
+        return lines;
+    }
+
+    /**
+     * The lines parsed as CSVSorter parses them.
+     */
+    public static List<Comparable<Object>[]> records(int rows, Distribution distribution) {
+        List<Comparable<Object>[]> records = new ArrayList<>(rows);
+        for (String line : lines(rows, distribution))
+            records.add(CSVSorter.parseValues(CSVSorter.splitValue(line)));
+        return records;
+    }
+
+    /**
+     * The data set as a CSV file with header. Generated once into the temp directory (or the directory of the
+     * csvsort.bench.dir system property) and reused by later runs and forks.
+     */
+    public static Path file(int rows, Distribution distribution) throws IOException {
+        Path dir = Paths.get(System.getProperty("csvsort.bench.dir", System.getProperty("java.io.tmpdir")));
+        Path path = dir.resolve("csvsort-" + rows + "-" + distribution.name().toLowerCase() + ".csv");
+        if (Files.exists(path))
+            return path;
+
+        // Write under a temp name so a killed run does not leave a truncated file behind
+        Path tmp = Files.createTempFile(dir, "csvsort-", ".tmp");
+        Random random = new Random(SEED);
+        try (BufferedWriter out = Files.newBufferedWriter(tmp, UTF_8)) {
+            out.write(HEADER);
+            out.newLine();
+            for (int i = 0; i < rows; i++) {
+                out.write(line(i, amount(i, rows, distribution, random), random));
+                out.newLine();
+            }
+        } catch (IOException | UncheckedIOException e) {
+            Files.deleteIfExists(tmp);
+            throw e;
+        }
+        Files.move(tmp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        return path;
+    }
+
+    private static long amount(int i, int rows, Distribution distribution, Random random) {
+        switch (distribution) {
+        case SORTED:
+            return i;
+        case REVERSE:
+            return rows - i;
+        case DUPLICATES:
+            return random.nextInt(DISTINCT_DUPLICATES) * 100;
+        default:
+            return random.nextInt(Integer.MAX_VALUE);
+        }
+    }
+
+    private static String line(int i, long amount, Random random) {
+        StringBuilder sb = new StringBuilder(64);
+        sb.append("Last").append(random.nextInt(10000)).append(", First").append(i % 1000);
+        sb.append(", ").append(random.nextInt(1000)).append(" Main St., ");
+        // Some amounts have cents, as in the sample data
+        if ((i & 3) == 0)
+            sb.append(amount).append('.').append(random.nextInt(90) + 10);
+        else
+            sb.append(amount);
+        sb.append(", ").append(random.nextInt(12) + 1).append('/').append(random.nextInt(28) + 1).append('/')
+                .append(2000 + random.nextInt(25));
+        return sb.toString();
+    }
+}
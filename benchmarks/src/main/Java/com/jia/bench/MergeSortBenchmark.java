@@ -0,0 +1,87 @@
+package com.jia.bench;
+
+import com.jia.bench.Dataset.Distribution;
+import com.jia.csv.CSVSorter;
+import com.jia.sort.MergeSort;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * MergeSort on parsed records, serial against threaded and top-down against adaptive, by the Invoice Amount column.
+ *
+ * Each invocation sorts a fresh copy of the records. The heap needs roughly 1GB per million rows, larger sizes can
+ * be run with -p rows=... and a bigger -Xmx passed through -jvmArgs.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Benchmark)
+public class MergeSortBenchmark {
+
+    @Param({"10000", "100000", "1000000"})
+    public int rows;
+
+    @Param({"SORTED", "REVERSE", "RANDOM", "DUPLICATES"})
+    public Distribution distribution;
+
+    /**
+     * Ranges at or below this length are sorted sequentially by the threaded sort.
+     */
+    @Param({"8192"})
+    public int cutoff;
+
+    /**
+     * Sort natural runs with NaturalMergeSort.
+     */
+    @Param({"false", "true"})
+    public boolean adaptive;
+
+    private final Comparator<Comparable<Object>[]> comparator = CSVSorter.recordComparator(new int[] {2},
+            new boolean[] {false});
+    private List<Comparable<Object>[]> records;
+    private List<Comparable<Object>[]> copy;
+    private MergeSort sorter;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        records = Dataset.records(rows, distribution);
+        sorter = new MergeSort();
+        sorter.setSequentialCutoff(cutoff);
+        sorter.setAdaptive(adaptive);
+    }
+
+    @Setup(Level.Invocation)
+    public void copy() {
+        copy = new ArrayList<>(records);
+    }
+
+    @Benchmark
+    public List<Comparable<Object>[]> serial() {
+        sorter.mergeSort(copy, comparator, CSVSorter.NOT_THREADED);
+        return copy;
+    }
+
+    @Benchmark
+    public List<Comparable<Object>[]> threaded() {
+        sorter.mergeSort(copy, comparator, CSVSorter.THREADED);
+        return copy;
+    }
+}
@@ -0,0 +1,75 @@
+package com.jia.bench;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.jia.bench.Dataset.Distribution;
+import com.jia.csv.CSVSorter;
+import com.jia.csv.CsvTokenizer;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Cost per line of the line parsers: the regex based splitValue()/parseValues() and the byte-level CsvTokenizer the
+ * read methods use.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ParseBenchmark {
+
+    private static final int LINES = 10000;
+
+    private String[] lines;
+    private ByteBuffer[] bytes;
+    private final CsvTokenizer tokenizer = new CsvTokenizer();
+
+    @Setup
+    public void setup() {
+        lines = Dataset.lines(LINES, Distribution.RANDOM);
+        bytes = new ByteBuffer[LINES];
+        for (int i = 0; i < LINES; i++)
+            bytes[i] = ByteBuffer.wrap(lines[i].getBytes(UTF_8));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LINES)
+    public void splitValue(Blackhole bh) {
+        for (String line : lines)
+            bh.consume(CSVSorter.splitValue(line));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LINES)
+    public void parseValues(Blackhole bh) {
+        for (String line : lines)
+            bh.consume(CSVSorter.parseValues(CSVSorter.splitValue(line)));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LINES)
+    public void tokenizer(Blackhole bh) {
+        for (ByteBuffer line : bytes) {
+            tokenizer.tokenize(line, 0, line.limit(), true);
+            tokenizer.mergeFields(0);
+            for (int i = 0; i < tokenizer.fieldCount(); i++)
+                bh.consume(tokenizer.getValue(i));
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package com.jia.bench;
+
+import com.jia.bench.Dataset.Distribution;
+import com.jia.csv.CSVSorter;
+import com.jia.csv.CsvWriter;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * End to end CSVSorter.sort(): read, parse, sort and write a generated file. The output is serialized as CSV into a
+ * null stream, so the cost of writing is included but not the disk.
+ *
+ * Files are generated once per size and distribution and kept in the temp directory. For 10^7 rows and up, use the
+ * EXTERNAL or COLUMNAR read methods, e.g. -p rows=100000000 -p readMethod=EXTERNAL.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Benchmark)
+public class SortBenchmark {
+
+    @Param({"10000", "100000", "1000000"})
+    public int rows;
+
+    @Param({"SORTED", "REVERSE", "RANDOM", "DUPLICATES"})
+    public Distribution distribution;
+
+    @Param({"SERIAL", "PARALLEL", "COLUMNAR", "MAPPED", "PIPELINED", "EXTERNAL"})
+    public String readMethod;
+
+    @Param({"false", "true"})
+    public boolean threaded;
+
+    /**
+     * Memory budget of the EXTERNAL read method.
+     */
+    @Param({"64m"})
+    public String memory;
+
+    private static final String[] SORT_OPTS = {"2a", "0a"};
+
+    private String path;
+    private CSVSorter sorter;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        path = Dataset.file(rows, distribution).toString();
+        sorter = new CSVSorter();
+        sorter.setMemoryBudget(CSVSorter.parseSize(memory));
+        sorter.setSink(new CsvWriter(OutputStream.nullOutputStream(), CsvWriter.DEFAULT_BUFFER_SIZE, false));
+    }
+
+    @Benchmark
+    public void sort() throws IOException {
+        sorter.sort(path, SORT_OPTS, readMethod(readMethod), threaded);
+    }
+
+    private static int readMethod(String name) {
+        switch (name) {
+        case "SERIAL":
+            return CSVSorter.SERIAL_READ;
+        case "PARALLEL":
+            return CSVSorter.PARALLEL_READ;
+        case "EXTERNAL":
+            return CSVSorter.EXTERNAL_READ;
+        case "COLUMNAR":
+            return CSVSorter.COLUMNAR_READ;
+        case "MAPPED":
+            return CSVSorter.MAPPED_READ;
+        case "PIPELINED":
+            return CSVSorter.PIPELINED_READ;
+        default:
+            throw new IllegalArgumentException("Unknown read method: " + name);
+        }
+    }
+}
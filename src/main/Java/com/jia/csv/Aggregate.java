@@ -0,0 +1,94 @@
+package com.jia.csv;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * One aggregate of a group of rows with equal sort keys, see GroupingSink.
+ *
+ * Aggregates are separated by commas, e.g. count,sum(Invoice Amount),max(1). The column is its number or its name
+ * in the header. Functions:
+ * - count: the rows of the group, takes no column.
+ * - sum(column): the exact decimal sum of the values that are numbers, "" if none are.
+ * - min(column), max(column): the smallest and largest non-empty value, in the sort order (SortKey).
+ * - first(column): the value of the group's first row.
+ */
+public final class Aggregate {
+
+    public enum Function {
+        COUNT, SUM, MIN, MAX, FIRST
+    }
+
+    final Function function;
+    final String column; // number or name, null for count
+
+    Aggregate(Function function, String column) {
+        this.function = function;
+        this.column = column;
+    }
+
+    /**
+     * Parse aggregates separated by commas.
+     *
+     * @throws IllegalArgumentException if an aggregate is malformed
+     */
+    public static List<Aggregate> parse(String spec) {
+        List<Aggregate> aggregates = new ArrayList<>();
+        for (String entry : spec.split(","))
+            if (!entry.isBlank())
+                aggregates.add(entry(entry.trim()));
+        if (aggregates.isEmpty())
+            throw new IllegalArgumentException("No aggregates: " + spec);
+        return aggregates;
+    }
+
+    // function or function(column)
+    private static Aggregate entry(String entry) {
+        String name = entry;
+        String column = null;
+        int open = entry.indexOf('(');
+        if (open >= 0) {
+            if (!entry.endsWith(")"))
+                throw new IllegalArgumentException("Aggregate is not function(column): " + entry);
+            name = entry.substring(0, open).trim();
+            column = entry.substring(open + 1, entry.length() - 1).trim();
+            if (column.isEmpty())
+                column = null;
+        }
+        Function function;
+        try {
+            function = Function.valueOf(name.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unknown aggregate " + entry, e);
+        }
+        if ((function == Function.COUNT) != (column == null))
+            throw new IllegalArgumentException(function == Function.COUNT ? "count takes no column: " + entry
+                    : "Aggregate needs a column: " + entry);
+        return new Aggregate(function, column);
+    }
+
+    public Function function() {
+        return function;
+    }
+
+    /**
+     * The column of a file with the given header, -1 for count.
+     *
+     * @throws IllegalArgumentException if the column is not in the header
+     */
+    int resolve(String[] names) {
+        if (column == null)
+            return -1;
+        int index = Schema.columnIndex(column, names);
+        if (index < 0)
+            throw new IllegalArgumentException("Aggregate column " + column + " is not in the header");
+        return index;
+    }
+
+    @Override
+    public String toString() {
+        String name = function.name().toLowerCase(Locale.ROOT);
+        return column != null ? name + "(" + column + ")" : name;
+    }
+}
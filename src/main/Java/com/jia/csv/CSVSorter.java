@@ -1,27 +1,64 @@
 package com.jia.csv;
 
+import com.jia.sort.ExternalMergeSort;
+import com.jia.sort.KWayMerge;
 import com.jia.sort.MergeSort;
+import com.jia.sort.NormalizedKeySort;
+import com.jia.sort.SortMetrics;
+import com.jia.sort.SortMetrics.Phase;
+import com.jia.sort.TopK;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
 
-import java.io.BufferedReader;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
-import java.io.FileReader;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Comparator;
+import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.regex.Matcher;
 import java.util.regex.Pattern;
-import java.util.stream.Collectors;
 import java.util.stream.IntStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
 /**
  * Read a CSV file. Optionally, sort by one or more columns, in ascending or descending order as requested.
  *  
  * Assumptions:
  * - Field names are in the first line and they are unique
+ * - Fields are separated by commas and may be quoted as in RFC 4180. Quoted fields are always strings.
  * - "Name" is the first column
- * - Values for the "Name" column are in the format of "String, String" (without the double quotes)
- * - Values for the "Address" column does NOT contain comma
+ * - Unquoted values for the "Name" column are in the format of "String, String" (without the double quotes). A record
+ *   with one more field than the header has its first two fields joined back into the name.
+ * - Values for the "Address" column does NOT contain comma, unless quoted
  * - Values for the "Invoice Amount" column can be integer or floating point numbers but NOT both
  * - Values for the "Date of Sale" column are in the format of "MM/DD/YYYY" (without the double quotes)
  * - No schema is required, therefore, we cannot assume the data type. If a schema was supplied, we shall be able to 
@@ -29,9 +66,39 @@ import java.util.stream.IntStream;
  * 
  * How to Run the program:
  * 
- * CSVSortReader [[column number][sort order] ...] csv_file_path
+ * CSVSortReader [--memory=size | --columnar | --mapped | --pipelined] [--threaded [--sample]] [--keys] [--adaptive] [--limit=n] [--output=file] [--raw] [--lazy] [--offheap] [--index] [--compress-runs] [--schema[=spec]] [--distinct | --group=aggregates] [--metrics[=file]] [[column number][sort order] ...] csv_file_path ...
  * Column number: starts at 0
  * Sort order: a-acending (default); d-descending
+ * Memory: external sort with the given in-memory budget, e.g. 256m. Suffixes k, m and g are supported.
+ * Columnar: load the file into typed column arrays (ColumnarTable) and sort row indexes instead of records.
+ * Mapped: memory map the file and parse record aligned chunks on all cores (MappedCsvReader).
+ * Pipelined: read, parse, sort and write at the same time, on threads connected by bounded queues.
+ * Threaded: use the threaded merge sort for the above.
+ * Sample: run the threaded sort as a parallel sample sort (SampleSort), split into buckets by value instead of
+ *         merged. Same result.
+ * Keys: sort by precomputed binary keys with a long prefix (SortKey) instead of the comparator chain.
+ * Adaptive: merge the runs already in order in the input (NaturalMergeSort), close to O(n) on nearly sorted files.
+ * Limit: only output the first n sorted rows. Streams the file through a bounded heap (TopK), O(n) memory. With
+ *        --distinct or --group the first n groups.
+ * Output: write the sorted CSV to a file instead of standard output (CsvWriter). Gzip compressed if it ends in .gz.
+ * Raw: write each sorted row's original bytes instead of its parsed values. Serial and columnar reads only.
+ * Lazy: only parse the sort columns, keep each row's bytes and write them unchanged (LazyRecord). Serial, parallel
+ *       and mapped reads only.
+ * Offheap: keep rows and their binary sort keys in direct memory (RowArena), a flat heap whatever the file size.
+ *          Serial read only.
+ * Index: keep the sorted order in csv_file_path.idx. The next sort of the file by the same columns only parses and
+ *        merges the rows appended since (SortIndex). Rows are written as they are in the file.
+ * Compress runs: deflate the external sort's temp files.
+ * Schema: declared column types (Schema), e.g. --schema='3:date(M/D/YYYY),2:decimal(2)'. --schema alone reads them
+ *         from csv_file_path.schema.
+ * Distinct: only output the first row of each group of rows with equal sort keys (GroupingSink). The external sort
+ *           drops the duplicates before they are spilled. Needs sort columns. A limit applies to the groups.
+ * Group: one row per group of equal sort keys, the keys then the aggregates (Aggregate), e.g.
+ *        --group='count,sum(Invoice Amount)'.
+ * Metrics: collect sort counters and phase times (SortMetrics), printed or written to the file as JSON.
+ * csv_file_path: one or more files with the same header, a directory or a glob such as 'exports/part-*.csv'. Several
+ *                files are sorted into one output by sortFiles(), of the read method options only --memory applies to
+ *                them.
  * 
  * Examples:
  * 
@@ -44,9 +111,27 @@ import java.util.stream.IntStream;
  * - sort.csv: Based on assigned.csv, but adding more rows to test larger size case of mergeSort. Also added cases 
  *             when the primary sorting column are identical to test secondary column sorting.
  *             
+ * Files larger than the heap can be sorted with EXTERNAL_READ (--memory=size on the command line). Records are
+ * buffered up to the memory budget, each buffer is sorted and spilled to disk as a run, then the runs are merged.
+ *
+ * Gzip compressed input is detected by its first bytes and inflated on a separate thread while it is parsed
+ * (PipelinedInputStream). Raw output and the sort index need offsets in the file, so they are not used for it, and
+ * it is read with PARALLEL_READ instead of MAPPED_READ.
+ *
+ * PIPELINED_READ overlaps the phases the other read methods run one after the other: the file is read ahead on its
+ * own thread while it is parsed, runs of parsed rows are sorted in the pool while the next ones are parsed, and
+ * the sorted runs are merged straight into a writer thread (PipelinedSink).
+ *
+ * Shards of one export, files with the same header, are sorted into one output by sortFiles(): each file is read,
+ * parsed and sorted on a thread of its own, then the sorted files are merged (KWayMerge). With EXTERNAL_READ they are
+ * read one after the other into one external sort instead.
+ *
+ * In memory, single threaded sorts of 1024 rows or more are radix sorted (RecordRadixSort, RadixSort): by each sort
+ * column from the last to the first, numbers by their double bits, strings by their chars. The columnar table does
+ * the same with its typed columns. The result is the same as the merge sort's.
+ *
  *  Future work:
- *  - Performance tuning for buffer size. If the whole things won't fit in memory, group them on disk then sort
- *    each group. Iterate until it fits in memory.
+ *  - Performance tuning for buffer size.
  * 
 */
 final public class CSVSorter {
@@ -56,74 +141,785 @@ final public class CSVSorter {
     private static final String SORT_OPTION = "[0-9]+[ad]";
     // private static final char ASENDING = 'a'; This is the default. We don't need to test for it.
     private static final char DESCENDING = 'd';
+    private static final String MEMORY_OPTION = "--memory=";
+    private static final String COLUMNAR_OPTION = "--columnar";
+    private static final String MAPPED_OPTION = "--mapped";
+    private static final String PIPELINED_OPTION = "--pipelined";
+    private static final String THREADED_OPTION = "--threaded";
+    private static final String SAMPLE_OPTION = "--sample";
+    private static final String KEYS_OPTION = "--keys";
+    private static final String LIMIT_OPTION = "--limit=";
+    private static final String OUTPUT_OPTION = "--output=";
+    private static final String RAW_OPTION = "--raw";
+    private static final String LAZY_OPTION = "--lazy";
+    private static final String INDEX_OPTION = "--index";
+    private static final String OFF_HEAP_OPTION = "--offheap";
+    private static final String COMPRESS_RUNS_OPTION = "--compress-runs";
+    private static final String GZIP_SUFFIX = ".gz";
+    private static final int GZIP_BUFFER_SIZE = 64 * 1024;
+    private static final int PIPELINE_RUN_ROWS = 64 * 1024;
+    private static final String SCHEMA_OPTION = "--schema";
+    private static final String DISTINCT_OPTION = "--distinct";
+    private static final String GROUP_OPTION = "--group=";
+    private static final String METRICS_OPTION = "--metrics";
+    private static final String ADAPTIVE_OPTION = "--adaptive";
+    private static final String SIZE = "([0-9]+)([kKmMgG]?)";
+
+    public static final String INDEX_SUFFIX = ".idx";
+    public static final long DEFAULT_MEMORY_BUDGET = 64L * 1024 * 1024;
 
     // precompile the above regex for repeated use
     private static final Pattern COMMA_PATTERN = Pattern.compile(COMMA_DELIMITER);
     private static final Pattern INTEGER_PATTERN = Pattern.compile(INTEGER);
     private static final Pattern DOUBLE_PATTERN = Pattern.compile(DOUBLE);
     private static final Pattern SORT_OPTION_PATTERN = Pattern.compile(SORT_OPTION);
+    private static final Pattern SIZE_PATTERN = Pattern.compile(SIZE);
+
+    private static final ThreadLocal<CsvTokenizer> TOKENIZER = ThreadLocal.withInitial(CsvTokenizer::new);
 
     public static final int SERIAL_READ = 0;
     public static final int PARALLEL_READ = 1;
+    public static final int EXTERNAL_READ = 2; // spill sorted runs to disk when over the memory budget
+    public static final int COLUMNAR_READ = 3; // typed column arrays, sort row indexes
+    public static final int MAPPED_READ = 4; // memory mapped file, chunks parsed in parallel
+    public static final int PIPELINED_READ = 5; // read, parse, sort and write overlap
     public static final boolean NOT_THREADED = false;
     public static final boolean THREADED = true;
 
+    private long memoryBudget = DEFAULT_MEMORY_BUDGET;
+    private boolean normalizedKeys;
+    private int limit; // 0 for no limit
+    private RecordSink sink; // null for CSV on standard output
+    private boolean rawOutput;
+    private boolean lazyParsing;
+    private boolean indexed;
+    private boolean offHeap;
+    private RowArena arena; // kept for the next off-heap sort
+    private SortMetrics metrics; // null for none
+    private boolean adaptive;
+    private boolean sampleSort;
+    private boolean radixSort = true;
+    private File tempDir;
+    private boolean compressRuns;
+    private Schema schema; // null to guess each value's type
+    private boolean distinct;
+    private List<Aggregate> aggregates = List.of();
+    private ForkJoinPool pool = ForkJoinPool.commonPool();
+    private volatile AtomicBoolean cancelled = new AtomicBoolean(); // of the running sort, a new one per sort
+
     private String[] names; // We don't need this yet. But keep it here for future extension (e.g., match names with values)
+    private Schema.Column[] columnTypes; // of names, null without a schema
+
+    /**
+     * Heap bytes the external sort may use for its in-memory buffer before spilling a sorted run to disk.
+     */
+    public void setMemoryBudget(long memoryBudget) {
+        if (memoryBudget <= 0)
+            throw new IllegalArgumentException("Memory budget must be positive: " + memoryBudget);
+        this.memoryBudget = memoryBudget;
+    }
+
+    /**
+     * Sort in-memory records by precomputed binary keys (see SortKey) instead of the comparator chain.
+     */
+    public void setNormalizedKeys(boolean normalizedKeys) {
+        this.normalizedKeys = normalizedKeys;
+    }
+
+    /**
+     * Only output the first limit rows of the sorted result, 0 for all. The rows are selected while reading, with
+     * O(limit) memory, whatever the read method. With setDistinct() or setAggregates() the first limit groups.
+     */
+    public void setLimit(int limit) {
+        if (limit < 0)
+            throw new IllegalArgumentException("Limit must not be negative: " + limit);
+        this.limit = limit;
+    }
+
+    /**
+     * Where the header and sorted records go. The sink is flushed, not closed, after each sort. null, the default,
+     * writes CSV to standard output.
+     */
+    public void setSink(RecordSink sink) {
+        this.sink = sink;
+    }
+
+    /**
+     * Write the original bytes of each row instead of serializing the parsed values, keeping the input's quoting
+     * and number formats. Needs a CsvWriter sink. Applies to SERIAL_READ and COLUMNAR_READ without a limit, the
+     * other read methods serialize the values.
+     */
+    public void setRawOutput(boolean rawOutput) {
+        this.rawOutput = rawOutput;
+    }
+
+    /**
+     * Keep each row as its original bytes and only parse the sort columns (LazyRecord). The rows are written
+     * verbatim to a CsvWriter sink, other sinks get the values parsed again. Applies to SERIAL_READ, PARALLEL_READ
+     * and MAPPED_READ without a limit.
+     */
+    public void setLazyParsing(boolean lazyParsing) {
+        this.lazyParsing = lazyParsing;
+    }
+
+    /**
+     * Sort SERIAL_READ rows off the heap (RowArena): each row's bytes and SortKey encoding are packed into direct
+     * memory, and only the sort columns are parsed. Rows are written as they were read to a CsvWriter sink, other
+     * sinks get the values parsed again. The direct memory is kept for the next sort by this sorter. Not used with
+     * a limit.
+     */
+    public void setOffHeap(boolean offHeap) {
+        this.offHeap = offHeap;
+    }
+
+    /**
+     * Keep the sorted order of each file in an index next to it, the file's path plus INDEX_SUFFIX. A sort with
+     * the same sort options then only parses the rows appended since the index was saved and merges them in,
+     * whatever the read method. An index for other sort options, or for a file that was changed other than by
+     * appending, is rebuilt. Rows are written as they are in the file, like setRawOutput(). Not used with a limit.
+     */
+    public void setIndexed(boolean indexed) {
+        this.indexed = indexed;
+    }
+
+    /**
+     * Sort in memory with the adaptive natural run merge sort (NaturalMergeSort), for nearly sorted input.
+     */
+    public void setAdaptive(boolean adaptive) {
+        this.adaptive = adaptive;
+    }
+
+    /**
+     * Threaded in-memory sorts split the records into buckets by value and sort those in parallel (SampleSort)
+     * instead of merge sorting them with fork/join. The result is the same.
+     */
+    public void setSampleSort(boolean sampleSort) {
+        this.sampleSort = sampleSort;
+    }
+
+    /**
+     * Radix sort records by their sort column values instead of comparing them (RecordRadixSort), when no other
+     * in-memory strategy is selected: not threaded, no normalized keys, not adaptive. On by default.
+     */
+    public void setRadixSort(boolean radixSort) {
+        this.radixSort = radixSort;
+    }
+
+    /**
+     * Collect sort counters and per phase times into metrics, across all following sorts. Read and parse times are
+     * taken per record, so they include some timer overhead. Where reading and parsing overlap (PARALLEL_READ,
+     * MAPPED_READ) the time is all counted as parse. null, the default, collects nothing.
+     */
+    public void setMetrics(SortMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Directory for the external sort's temp files. null for the system default.
+     */
+    public void setTempDir(File tempDir) {
+        this.tempDir = tempDir;
+    }
+
+    /**
+     * Deflate the external sort's run files, see ExternalMergeSort.setCompressRuns().
+     */
+    public void setCompressRuns(boolean compressRuns) {
+        this.compressRuns = compressRuns;
+    }
+
+    /**
+     * Declared column types, null (the default) to parse each value as an Integer, Double or String by its format.
+     * Columnar reads infer their own types, with a schema they read serially instead.
+     */
+    public void setSchema(Schema schema) {
+        this.schema = schema;
+    }
+
+    /**
+     * Only output the first row of each group of rows with equal sort keys, see GroupingSink. The external sort
+     * drops the others as it spills and merges its runs. A limit applies to the groups, so all rows are sorted.
+     * Sorts then need sort columns, with none every row would be one group.
+     */
+    public void setDistinct(boolean distinct) {
+        this.distinct = distinct;
+    }
+
+    /**
+     * Output one row per group of rows with equal sort keys: the sort columns followed by the aggregates, see
+     * GroupingSink. Overrides setDistinct(). null or empty, the default, for the sorted rows.
+     */
+    public void setAggregates(List<Aggregate> aggregates) {
+        this.aggregates = aggregates != null ? List.copyOf(aggregates) : List.of();
+    }
+
+    /**
+     * Pool for the threaded merge sorts, null for the common pool. Parallel streams (PARALLEL_READ, MAPPED_READ,
+     * normalized keys) run in the pool of the thread that calls sort(), see CsvSortEngine.
+     */
+    public void setPool(ForkJoinPool pool) {
+        this.pool = pool != null ? pool : ForkJoinPool.commonPool();
+    }
+
+    // For CsvSortEngine, which lends the sorter a pool for one job
+    ForkJoinPool pool() {
+        return pool;
+    }
+
+    /**
+     * Stop a sort running in another thread. It throws a CancellationException at the next record it parses or
+     * writes, or at the next comparison of its sort step. Only the running sort is cancelled, the next one starts
+     * afresh.
+     */
+    public void cancel() {
+        cancelled.set(true);
+    }
+
+    private void checkCancelled() {
+        if (cancelled.get())
+            throw new CancellationException("Sort cancelled");
+    }
+
+    // Checks for cancellation at each comparison, so a cancelled sort also stops while it sorts
+    private <T> Comparator<T> cancellable(Comparator<T> c) {
+        AtomicBoolean token = cancelled;
+        return (t0, t1) -> {
+            if (token.get())
+                throw new CancellationException("Sort cancelled");
+            return c.compare(t0, t1);
+        };
+    }
 
-    @SuppressWarnings("unchecked")
     public void sort(String filePath, String[] sortOpts, int readMethod, boolean threaded) throws IOException {
+        sort(filePath, sortOpts, readMethod, threaded, new AtomicBoolean());
+    }
+
+    /**
+     * sort(), cancelled by setting cancelled, as well as by cancel(). For CsvSortEngine, whose jobs can be cancelled
+     * before they start.
+     */
+    void sort(String filePath, String[] sortOpts, int readMethod, boolean threaded, AtomicBoolean cancelled)
+            throws IOException {
+        this.cancelled = cancelled;
+        long start = clock();
+        long phases = metrics != null ? metrics.totalNanos() : 0;
+        try {
+            boolean compressed = isGzip(filePath);
+            if (indexed && rowLimit() == 0 && !compressed)
+                sortIndexed(filePath, sortOpts);
+            else if (readMethod == PIPELINED_READ && rowLimit() == 0)
+                sortPipelined(filePath, sortOpts, compressed);
+            else if (readMethod == MAPPED_READ && rowLimit() == 0 && !compressed)
+                sortMapped(filePath, sortOpts, threaded);
+            else if (readMethod == COLUMNAR_READ && schema != null)
+                sortStream(filePath, sortOpts, SERIAL_READ, threaded, compressed);
+            else
+                sortStream(filePath, sortOpts, readMethod == MAPPED_READ ? PARALLEL_READ
+                        : readMethod == PIPELINED_READ ? SERIAL_READ : readMethod, threaded, compressed);
+        } finally {
+            // Whatever was not spent reading, parsing or writing was spent sorting
+            if (metrics != null)
+                metrics.addTime(Phase.SORT, System.nanoTime() - start - (metrics.totalNanos() - phases));
+        }
+    }
+
+    public void sortFiles(List<String> filePaths, String[] sortOpts) throws IOException {
+        sortFiles(filePaths, sortOpts, SERIAL_READ);
+    }
+
+    /**
+     * Sort several CSV files with the same header into one output, the same as sorting them concatenated in the
+     * given order: rows with equal keys keep their file order, then their order in the file. Each file can be gzip
+     * compressed.
+     *
+     * With EXTERNAL_READ the files are read one after the other into one external sort, within the memory budget.
+     * Otherwise they are read, parsed and sorted in parallel, on threads of their own rather than in the pool as the
+     * reads block, then merged as the output is written; all of them are held in memory.
+     *
+     * @throws IllegalArgumentException if a file's header is not the same as the first file's
+     */
+    public void sortFiles(List<String> filePaths, String[] sortOpts, int readMethod) throws IOException {
+        if (filePaths.isEmpty())
+            throw new IllegalArgumentException("No files to sort");
+        cancelled = new AtomicBoolean();
+        long start = clock();
+        long phases = metrics != null ? metrics.totalNanos() : 0;
+        RecordSink out = recordSink(sortOpts);
+        String filePath = filePaths.get(0);
+        ExecutorService readers = null;
+        try {
+            setHeader(readHeader(filePath));
+            out.header(names);
+            int[] columns = sortColumns(sortOpts);
+            boolean[] descending = sortDescending(sortOpts);
+
+            if (readMethod == EXTERNAL_READ) {
+                filePath = String.join(", ", filePaths);
+                ExternalMergeSort<Comparable<Object>[]> external = new ExternalMergeSort<>(
+                        cancellable(recordComparator(columns, descending)), new RecordCodec(),
+                        RecordCodec::estimateSize, memoryBudget, NOT_THREADED);
+                external.setTempDir(tempDir);
+                external.setMetrics(metrics);
+                external.setPool(pool);
+                external.setCompressRuns(compressRuns);
+                external.setDistinct(distinct && aggregates.isEmpty());
+                try (ShardRecords records = new ShardRecords(filePaths)) {
+                    int[] count = new int[1];
+                    external.sort(records, e -> {
+                        if (rowLimit() == 0 || count[0]++ < rowLimit())
+                            output(out, e);
+                    });
+                }
+                return;
+            }
+
+            readers = Executors.newFixedThreadPool(Math.min(filePaths.size(), pool.getParallelism()), shardThreads());
+            List<CompletableFuture<List<Comparable<Object>[]>>> shards = new ArrayList<>();
+            for (String path : filePaths)
+                shards.add(CompletableFuture.supplyAsync(unchecked(() -> readShard(path, columns, descending)),
+                        readers));
+            List<Iterator<Comparable<Object>[]>> sorted = new ArrayList<>();
+            for (int i = 0; i < shards.size(); i++) {
+                filePath = filePaths.get(i);
+                sorted.add(join(shards.get(i)).iterator());
+            }
+            filePath = String.join(", ", filePaths);
+
+            Iterator<Comparable<Object>[]> merged = new KWayMerge<>(sorted, recordComparator(columns, descending));
+            for (int count = 0; merged.hasNext() && (rowLimit() == 0 || count < rowLimit()); count++)
+                output(out, merged.next());
+        } catch (UncheckedIOException e) {
+            System.out.println("Problem encountered reading file " + filePath);
+            e.printStackTrace();
+            throw e.getCause();
+        } catch (FileNotFoundException e) {
+            System.out.println("File " + filePath + " can not be found.");
+            e.printStackTrace();
+            throw e;
+        } catch (IOException e) {
+            System.out.println("Problem encountered reading file " + filePath);
+            e.printStackTrace();
+            throw e;
+        } finally {
+            if (readers != null)
+                readers.shutdownNow();
+            long write = clock();
+            out.flush();
+            time(Phase.WRITE, write);
+            if (metrics != null)
+                metrics.addTime(Phase.SORT, System.nanoTime() - start - (metrics.totalNanos() - phases));
+        }
+    }
+
+    private static ThreadFactory shardThreads() {
+        AtomicInteger threads = new AtomicInteger();
+        return r -> {
+            Thread t = new Thread(r, "csvsort-shard-" + threads.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        };
+    }
+
+    private static String[] readHeader(String filePath) throws IOException {
+        try (CsvReader csv = new CsvReader(openInput(new File(filePath), isGzip(filePath)))) {
+            return csv.next() ? csv.tokenizer().getStrings() : new String[0];
+        }
+    }
+
+    /**
+     * The rows of one file of sortFiles(), sorted. Read and parse times are not recorded, they overlap with the
+     * other files'.
+     */
+    private List<Comparable<Object>[]> readShard(String filePath, int[] columns, boolean[] descending)
+            throws IOException {
+        try (CsvReader csv = openShard(filePath)) {
+            List<Comparable<Object>[]> records = new ArrayList<>();
+            while (csv.next())
+                records.add(parseRecord(csv.tokenizer()));
+            sortRecords(records, e -> e, columns, descending, NOT_THREADED);
+            return records;
+        }
+    }
+
+    // A file of sortFiles(), past its header
+    private CsvReader openShard(String filePath) throws IOException {
+        CsvReader csv = new CsvReader(openInput(new File(filePath), isGzip(filePath)));
+        String[] header = csv.next() ? csv.tokenizer().getStrings() : new String[0];
+        if (!Arrays.equals(header, names)) {
+            csv.close();
+            throw new IllegalArgumentException("The header of " + filePath + " " + Arrays.toString(header)
+                    + " is not the same as the first file's " + Arrays.toString(names));
+        }
+        return csv;
+    }
+
+    /**
+     * The records of the files of sortFiles(), one file after the other. Only one file is open at a time.
+     */
+    private final class ShardRecords implements Iterator<Comparable<Object>[]>, AutoCloseable {
+        private final Iterator<String> filePaths;
+        private CsvReader csv; // of the current file, null before the first
+        private Iterator<Comparable<Object>[]> records = Collections.emptyIterator();
+
+        ShardRecords(List<String> filePaths) {
+            this.filePaths = filePaths.iterator();
+        }
+
+        @Override
+        public boolean hasNext() {
+            try {
+                while (!records.hasNext() && filePaths.hasNext()) {
+                    close();
+                    csv = openShard(filePaths.next());
+                    records = records(csv);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return records.hasNext();
+        }
+
+        @Override
+        public Comparable<Object>[] next() {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            return records.next();
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (csv != null)
+                csv.close();
+            csv = null;
+        }
+    }
+
+    private interface IOSupplier<T> {
+        T get() throws IOException;
+    }
+
+    private static <T> Supplier<T> unchecked(IOSupplier<T> supplier) {
+        return () -> {
+            try {
+                return supplier.get();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        };
+    }
+
+    // The result of a task, with the exception it threw
+    private static <T> T join(CompletableFuture<T> task) throws IOException {
+        try {
+            return task.join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof UncheckedIOException)
+                throw ((UncheckedIOException) cause).getCause();
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            if (cause instanceof Error)
+                throw (Error) cause;
+            throw e;
+        }
+    }
+
+    private void sortStream(String filePath, String[] sortOpts, int readMethod, boolean threaded, boolean compressed)
+            throws IOException {
         File file = new File(filePath);
+        RecordSink out = recordSink(sortOpts);
 
-        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+        try (CsvReader csv = new CsvReader(openInput(file, compressed))) {
 
             // Read the header line
-            String nameLine = reader.readLine();
-            names = splitHeader(nameLine);
-            names = Arrays.stream(names).map(n -> parseString(n)).toArray(size -> new String[size]);
-
-            /* 
-             * Parse the sort options:
-             * [column number][sort order] ...
-             * Column number: starts at 0
-             * Sort order: a-acending (default); d-descending
-             */
-            Comparator<Comparable<Object>[]>[] comparators = new Comparator[sortOpts.length];
-            IntStream.range(0, sortOpts.length).forEach(index -> {
-                String opt = sortOpts[index];
-                Comparator<Comparable<Object>[]> c;
-                int columnNo = Integer.valueOf(opt.substring(0, opt.length() - 1));
-                if (columnNo > names.length - 1) {
-                    throw new IllegalArgumentException(
-                            "Column number " + columnNo + " exceeds the width of the CVS file 0-" + (names.length - 1));
-                }
-                if (opt.charAt(opt.length() - 1) == DESCENDING)
-                    c = createDesendingComparator(columnNo);
-                else
-                    c = createAscendingComparator(columnNo);
-                comparators[index] = c;
-            });
-            Comparator<Comparable<Object>[]> comparator = createComparator(comparators);
+            setHeader(csv.next() ? csv.tokenizer().getStrings() : new String[0]);
+
+            Comparator<Comparable<Object>[]> comparator = cancellable(parseSortOptions(sortOpts));
+
+            boolean packed = offHeap && rowLimit() == 0 && readMethod == SERIAL_READ;
+            boolean lazy = !packed && lazyParsing && rowLimit() == 0
+                    && (readMethod == SERIAL_READ || readMethod == PARALLEL_READ);
+            boolean raw = !compressed && !packed && !lazy && !grouped() && rawOutput && limit == 0
+                    && (readMethod == SERIAL_READ || readMethod == COLUMNAR_READ);
+            if (raw && names.length > 0) {
+                byte[] header = csv.recordBytes();
+                rawWriter(out).writeRaw(header, 0, header.length);
+            } else {
+                out.header(names);
+            }
 
             // read the value lines and sort
 
-            MergeSort sorter = new MergeSort();
+            if (rowLimit() > 0) {
+                // Any read method: stream the records through a bounded heap
+                TopK<Comparable<Object>[]> top = new TopK<>(rowLimit(), comparator);
+                records(csv).forEachRemaining(top::add);
+                top.result().forEach(e -> output(out, e));
 
-            if (readMethod == SERIAL_READ) {
-                List<Comparable<Object>[]> records = reader.lines().map(line -> splitValue(line))
-                        .map(line -> parseValues(line)).collect(Collectors.toList());
-                sorter.mergeSort(records, comparator, threaded);
-                records.stream().forEach(e -> System.out.println(Arrays.toString(e)));
+            } else if (packed) {
+                int[] columns = sortColumns(sortOpts);
+                SortKey key = new SortKey(keyColumns(columns), sortDescending(sortOpts));
+                if (arena == null)
+                    arena = new RowArena();
+                arena.clear();
+                while (true) {
+                    long read = clock();
+                    if (!csv.next())
+                        break;
+                    long parse = clock();
+                    time(Phase.READ, read);
+                    CsvTokenizer tokenizer = csv.tokenizer();
+                    arena.add(key.encode(keyValues(tokenizer, columns)), csv.recordBytes());
+                    time(Phase.PARSE, parse);
+                }
+                arena.sort(metrics, cancelled);
+                long write = clock();
+                for (int i = 0; i < arena.size(); i++) {
+                    checkCancelled();
+                    if (out instanceof CsvWriter)
+                        arena.write(i, (CsvWriter) out);
+                    else
+                        out.record(values(arena.row(i)));
+                }
+                time(Phase.WRITE, write);
+
+            } else if (lazy) {
+                int[] columns = sortColumns(sortOpts);
+                List<LazyRecord> records;
+                if (readMethod == SERIAL_READ) {
+                    records = new ArrayList<>();
+                    while (true) {
+                        long read = clock();
+                        if (!csv.next())
+                            break;
+                        long parse = clock();
+                        time(Phase.READ, read);
+                        records.add(parseLazy(csv.tokenizer(), columns));
+                        time(Phase.PARSE, parse);
+                    }
+                } else {
+                    long parse = clock();
+                    records = csv.parseRemaining(tokenizer -> parseLazy(tokenizer, columns),
+                            CsvReader.DEFAULT_BLOCK_SIZE);
+                    time(Phase.PARSE, parse); // read and parse overlap
+                }
+                sortRecords(records, e -> e.keys, keyColumns(columns), sortDescending(sortOpts), threaded);
+                write(out, records);
+
+            } else if (readMethod == SERIAL_READ && raw) {
+                try (RawRows rawRows = new RawRows(file.toPath())) {
+                    List<Comparable<Object>[]> records = new ArrayList<>();
+                    Iterator<Comparable<Object>[]> it = records(csv);
+                    while (it.hasNext()) {
+                        records.add(it.next());
+                        rawRows.add(csv.recordOffset(), csv.recordLength());
+                    }
+                    // Sort row indexes, the records stay in file order
+                    List<Integer> rows = new ArrayList<>(records.size());
+                    for (int row = 0; row < records.size(); row++)
+                        rows.add(row);
+                    sortRecords(rows, records::get, sortColumns(sortOpts), sortDescending(sortOpts), threaded);
+                    long write = clock();
+                    for (int row : rows) {
+                        checkCancelled();
+                        rawRows.write(row, rawWriter(out));
+                    }
+                    time(Phase.WRITE, write);
+                }
+
+            } else if (readMethod == SERIAL_READ) {
+                List<Comparable<Object>[]> records = new ArrayList<>();
+                records(csv).forEachRemaining(records::add);
+                sortRecords(records, e -> e, sortColumns(sortOpts), sortDescending(sortOpts), threaded);
+                records.stream().forEach(e -> output(out, e));
 
             } else if (readMethod == PARALLEL_READ) {
-                List<Comparable<Object>[]> sorted = reader.lines().parallel().map(line -> splitValue(line))
-                        .map(line -> parseValues(line)).collect(Collectors.toList());
-                sorter.mergeSort(sorted, comparator, threaded);
-                sorted.stream().forEach(e -> System.out.println(Arrays.toString(e)));
+                long parse = clock();
+                List<Comparable<Object>[]> sorted = csv.parseRemaining(tokenizer -> parseRecord(tokenizer),
+                        CsvReader.DEFAULT_BLOCK_SIZE);
+                time(Phase.PARSE, parse); // read and parse overlap
+                sortRecords(sorted, e -> e, sortColumns(sortOpts), sortDescending(sortOpts), threaded);
+                sorted.stream().forEach(e -> output(out, e));
+
+            } else if (readMethod == EXTERNAL_READ) {
+                ExternalMergeSort<Comparable<Object>[]> external = new ExternalMergeSort<>(comparator,
+                        new RecordCodec(), RecordCodec::estimateSize, memoryBudget, threaded);
+                external.setTempDir(tempDir);
+                external.setMetrics(metrics);
+                external.setPool(pool);
+                external.setCompressRuns(compressRuns);
+                external.setDistinct(distinct && aggregates.isEmpty());
+                external.sort(records(csv), e -> output(out, e));
+
+            } else if (readMethod == COLUMNAR_READ) {
+                ColumnarTable table = new ColumnarTable(names.length);
+                try (RawRows rawRows = raw ? new RawRows(file.toPath()) : null) {
+                    while (true) {
+                        long read = clock();
+                        if (!csv.next())
+                            break;
+                        checkCancelled();
+                        long parse = clock();
+                        time(Phase.READ, read);
+                        CsvTokenizer tokenizer = csv.tokenizer();
+                        mergeNameFields(tokenizer);
+                        table.addRow(tokenizer);
+                        if (raw)
+                            rawRows.add(csv.recordOffset(), csv.recordLength());
+                        time(Phase.PARSE, parse);
+                    }
+                    int[] rows = table.sortedRows(sortColumns(sortOpts), sortDescending(sortOpts), metrics);
+                    long write = clock();
+                    for (int row : rows) {
+                        checkCancelled();
+                        if (raw)
+                            rawRows.write(row, rawWriter(out));
+                        else
+                            out.record(table.row(row));
+                    }
+                    time(Phase.WRITE, write);
+                }
             } else {
                 String s = "Not support read method: " + readMethod;
                 System.out.println(s);
                 throw new IllegalArgumentException(s);
             }
+        } catch (UncheckedIOException e) {
+            System.out.println("Problem encountered reading file " + filePath);
+            e.printStackTrace();
+            throw e.getCause();
+        } catch (FileNotFoundException e) {
+            System.out.println("File " + filePath + " can not be found.");
+            e.printStackTrace();
+            throw e;
+        } catch (IOException e) {
+            System.out.println("Problem encountered reading file " + filePath);
+            e.printStackTrace();
+            throw e;
+        } finally {
+            long write = clock();
+            out.flush();
+            time(Phase.WRITE, write);
+        }
+
+    }
+
+    /**
+     * Whether the file starts with the gzip magic bytes. false if it can not be read, the sort reports that.
+     */
+    private static boolean isGzip(String filePath) {
+        try (InputStream in = new FileInputStream(filePath)) {
+            return in.read() == 0x1f && in.read() == 0x8b;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private static InputStream openInput(File file, boolean compressed) throws IOException {
+        InputStream in = new FileInputStream(file);
+        if (!compressed)
+            return in;
+        try {
+            return new PipelinedInputStream(new GZIPInputStream(in, GZIP_BUFFER_SIZE));
+        } catch (IOException e) {
+            in.close();
+            throw e;
+        }
+    }
+
+    private void sortMapped(String filePath, String[] sortOpts, boolean threaded) throws IOException {
+        RecordSink out = recordSink(sortOpts);
+        try (MappedCsvReader csv = new MappedCsvReader(Paths.get(filePath))) {
+            setHeader(csv.header());
+            int[] columns = sortColumns(sortOpts);
+            boolean[] descending = sortDescending(sortOpts);
+            out.header(names);
+
+            long parse = clock();
+            if (lazyParsing) {
+                List<LazyRecord> records = csv.parse(tokenizer -> parseLazy(tokenizer, columns));
+                time(Phase.PARSE, parse); // read and parse overlap
+                sortRecords(records, e -> e.keys, keyColumns(columns), descending, threaded);
+                write(out, records);
+            } else {
+                List<Comparable<Object>[]> records = csv.parse(tokenizer -> parseRecord(tokenizer));
+                time(Phase.PARSE, parse); // read and parse overlap
+                sortRecords(records, e -> e, columns, descending, threaded);
+                long write = clock();
+                for (Comparable<Object>[] e : records) {
+                    checkCancelled();
+                    out.record(e);
+                }
+                time(Phase.WRITE, write);
+            }
+        } catch (NoSuchFileException e) {
+            System.out.println("File " + filePath + " can not be found.");
+            e.printStackTrace();
+            throw e;
+        } catch (IOException e) {
+            System.out.println("Problem encountered reading file " + filePath);
+            e.printStackTrace();
+            throw e;
+        } finally {
+            long write = clock();
+            out.flush();
+            time(Phase.WRITE, write);
+        }
+    }
+
+    /**
+     * Sort with the phases overlapping. The file is read ahead of the parser (PipelinedInputStream), every
+     * PIPELINE_RUN_ROWS parsed rows are sorted as a run in the pool while the next ones are parsed, and the runs are
+     * merged (KWayMerge) as the output is written on its own thread (PipelinedSink). Runs are sorted single threaded,
+     * at most one per pool thread at a time: the parser waits for the oldest run beyond that. Ties go to the earlier
+     * run, so the result is the same as SERIAL_READ's.
+     *
+     * Metrics: READ and PARSE are timed on the parsing thread, WRITE while the runs are merged into the writer, and
+     * SORT, the rest, is the time spent waiting for runs to be sorted. Run sorts overlapping the parsing are not
+     * counted again.
+     */
+    private void sortPipelined(String filePath, String[] sortOpts, boolean compressed) throws IOException {
+        File file = new File(filePath);
+        RecordSink out = recordSink(sortOpts);
+        try (CsvReader csv = new CsvReader(compressed ? openInput(file, true)
+                : new PipelinedInputStream(new FileInputStream(file)));
+                PipelinedSink writer = new PipelinedSink(out, PipelinedSink.DEFAULT_BATCH_SIZE,
+                        PipelinedSink.DEFAULT_QUEUE_BATCHES, false)) {
+            setHeader(csv.next() ? csv.tokenizer().getStrings() : new String[0]);
+            writer.header(names);
+            int[] columns = sortColumns(sortOpts);
+            boolean[] descending = sortDescending(sortOpts);
+
+            List<CompletableFuture<List<Comparable<Object>[]>>> runs = new ArrayList<>();
+            int sorted = 0; // runs known to be sorted
+            Iterator<Comparable<Object>[]> it = records(csv);
+            while (it.hasNext()) {
+                checkCancelled();
+                List<Comparable<Object>[]> run = new ArrayList<>(PIPELINE_RUN_ROWS);
+                while (run.size() < PIPELINE_RUN_ROWS && it.hasNext())
+                    run.add(it.next());
+                if (runs.size() - sorted >= pool.getParallelism())
+                    join(runs.get(sorted++));
+                runs.add(CompletableFuture.supplyAsync(() -> {
+                    sortRecords(run, e -> e, columns, descending, NOT_THREADED);
+                    return run;
+                }, pool));
+            }
+
+            List<Iterator<Comparable<Object>[]>> sortedRuns = new ArrayList<>();
+            for (CompletableFuture<List<Comparable<Object>[]>> run : runs)
+                sortedRuns.add(join(run).iterator());
+            long write = clock();
+            Iterator<Comparable<Object>[]> merged = new KWayMerge<>(sortedRuns,
+                    cancellable(recordComparator(columns, descending)));
+            while (merged.hasNext())
+                output(writer, merged.next());
+            writer.flush(); // waits for the writer thread
+            time(Phase.WRITE, write);
+        } catch (UncheckedIOException e) {
+            System.out.println("Problem encountered reading file " + filePath);
+            e.printStackTrace();
+            throw e.getCause();
         } catch (FileNotFoundException e) {
             System.out.println("File " + filePath + " can not be found.");
             e.printStackTrace();
@@ -132,36 +928,409 @@ final public class CSVSorter {
             System.out.println("Problem encountered reading file " + filePath);
             e.printStackTrace();
             throw e;
+        } finally {
+            long write = clock();
+            out.flush();
+            time(Phase.WRITE, write);
+        }
+    }
+
+    private void sortIndexed(String filePath, String[] sortOpts) throws IOException {
+        Path path = Paths.get(filePath);
+        Path indexPath = Paths.get(filePath + INDEX_SUFFIX);
+        RecordSink out = recordSink(sortOpts);
+        try (FileChannel channel = FileChannel.open(path); RawRows rawRows = new RawRows(path)) {
+            byte[] header = null;
+            long dataStart;
+            try (CsvReader csv = new CsvReader(new FileInputStream(filePath))) {
+                setHeader(csv.next() ? csv.tokenizer().getStrings() : new String[0]);
+                if (names.length > 0)
+                    header = csv.recordBytes();
+                dataStart = csv.position();
+            }
+            int[] columns = sortColumns(sortOpts);
+            String spec = String.join(" ", sortOpts) + (schema != null ? " " + schema : "");
+            SortKey key = new SortKey(keyColumns(columns), sortDescending(sortOpts));
+
+            SortIndex index = SortIndex.read(indexPath, spec, channel);
+            if (index == null)
+                index = new SortIndex(spec, 0, 0, 0);
+
+            // Parse the rows after the index. A last line without a line break may still grow, it is sorted but
+            // not saved.
+            long start = Math.max(index.length, dataStart);
+            long covered = start;
+            SortIndex appended = new SortIndex(spec, 0, 0, 0);
+            SortIndex partial = new SortIndex(spec, 0, 0, 0);
+            long parse = clock();
+            FileInputStream in = new FileInputStream(filePath);
+            in.getChannel().position(start);
+            try (CsvReader csv = new CsvReader(in)) {
+                while (csv.next()) {
+                    long offset = start + csv.recordOffset();
+                    byte[] rowKey = key.encode(keyValues(csv.tokenizer(), columns));
+                    if (csv.position() > csv.recordOffset() + csv.recordLength()) {
+                        appended.add(offset, csv.recordLength(), rowKey);
+                        covered = start + csv.position();
+                    } else {
+                        partial.add(offset, csv.recordLength(), rowKey);
+                    }
+                }
+            }
+            time(Phase.PARSE, parse); // read and parse overlap
+
+            int[] rows = IntStream.range(0, appended.size()).toArray();
+            MergeSort.mergeSort(rows, (r0, r1) -> Arrays.compareUnsigned(appended.key(r0), appended.key(r1)),
+                    metrics);
+            SortIndex sorted = new SortIndex(spec, 0, 0, rows.length);
+            for (int row : rows)
+                sorted.add(appended.offset(row), appended.length(row), appended.key(row));
+            if (covered != index.length) {
+                index = index.merge(sorted, covered, SortIndex.checksum(channel, covered));
+                index.write(indexPath);
+            }
+            if (partial.size() > 0)
+                index = index.merge(partial, index.length, index.checksum);
+
+            long write = clock();
+            if (out instanceof CsvWriter && header != null)
+                ((CsvWriter) out).writeRaw(header, 0, header.length);
+            else
+                out.header(names);
+            for (int i = 0; i < index.size(); i++) {
+                checkCancelled();
+                if (out instanceof CsvWriter)
+                    rawRows.write(index.offset(i), index.length(i), (CsvWriter) out);
+                else
+                    out.record(values(rawRows.bytes(index.offset(i), index.length(i))));
+            }
+            time(Phase.WRITE, write);
+        } catch (FileNotFoundException | NoSuchFileException e) {
+            System.out.println("File " + filePath + " can not be found.");
+            e.printStackTrace();
+            throw e;
+        } catch (IOException e) {
+            System.out.println("Problem encountered reading file " + filePath);
+            e.printStackTrace();
+            throw e;
+        } finally {
+            long write = clock();
+            out.flush();
+            time(Phase.WRITE, write);
+        }
+    }
+
+    private boolean grouped() {
+        return distinct || !aggregates.isEmpty();
+    }
+
+    // The limit on the sorted rows, 0 when it applies to the groups instead
+    private int rowLimit() {
+        return grouped() ? 0 : limit;
+    }
+
+    // The sink of a sort, grouping the rows by the sort columns for distinct or aggregates
+    private RecordSink recordSink(String[] sortOpts) {
+        RecordSink out = sink != null ? sink : CsvWriter.stdout();
+        if (!grouped())
+            return out;
+        if (sortOpts.length == 0 && aggregates.isEmpty())
+            throw new IllegalArgumentException("Distinct needs sort columns");
+        int[] columns = Arrays.stream(sortOpts).mapToInt(opt -> Integer.parseInt(opt.substring(0, opt.length() - 1)))
+                .toArray();
+        return new GroupingSink(limit > 0 ? new LimitSink(out, limit) : out, columns, aggregates);
+    }
+
+    // Passes on the first limit records, drops the rest
+    private static final class LimitSink implements RecordSink {
+        private final RecordSink out;
+        private final int limit;
+        private int count;
+
+        LimitSink(RecordSink out, int limit) {
+            this.out = out;
+            this.limit = limit;
+        }
+
+        @Override
+        public void header(String[] names) throws IOException {
+            count = 0;
+            out.header(names);
+        }
+
+        @Override
+        public void record(Object[] values) throws IOException {
+            if (count < limit) {
+                count++;
+                out.record(values);
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+    }
+
+    private void output(RecordSink out, Object[] record) {
+        checkCancelled();
+        long write = clock();
+        try {
+            out.record(record);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        time(Phase.WRITE, write);
+    }
+
+    /**
+     * Write lazy records: their bytes as they were read to a CsvWriter, their values to any other sink.
+     */
+    private void write(RecordSink out, List<LazyRecord> records) throws IOException {
+        long write = clock();
+        if (out instanceof CsvWriter) {
+            CsvWriter writer = (CsvWriter) out;
+            for (LazyRecord e : records) {
+                checkCancelled();
+                writer.writeRaw(e.bytes, 0, e.bytes.length);
+            }
+        } else {
+            for (LazyRecord e : records) {
+                checkCancelled();
+                out.record(values(e.bytes));
+            }
+        }
+        time(Phase.WRITE, write);
+    }
+
+    // Timestamp for time(), only taken when metrics are collected
+    private long clock() {
+        return metrics != null ? System.nanoTime() : 0;
+    }
+
+    private void time(Phase phase, long start) {
+        if (metrics != null)
+            metrics.addTime(phase, System.nanoTime() - start);
+    }
+
+    private static CsvWriter rawWriter(RecordSink out) {
+        if (!(out instanceof CsvWriter))
+            throw new IllegalStateException("Raw output needs a CsvWriter sink");
+        return (CsvWriter) out;
+    }
+
+    /**
+     * The remaining records of csv, parsed as by parseRecord().
+     */
+    private Iterator<Comparable<Object>[]> records(CsvReader csv) {
+        return new Iterator<Comparable<Object>[]>() {
+            private Comparable<Object>[] next;
+
+            @Override
+            public boolean hasNext() {
+                if (next == null) {
+                    try {
+                        long read = clock();
+                        if (csv.next()) {
+                            long parse = clock();
+                            time(Phase.READ, read);
+                            next = parseRecord(csv.tokenizer());
+                            time(Phase.PARSE, parse);
+                        } else {
+                            time(Phase.READ, read);
+                        }
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }
+                return next != null;
+            }
+
+            @Override
+            public Comparable<Object>[] next() {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                Comparable<Object>[] record = next;
+                next = null;
+                return record;
+            }
+        };
+    }
+
+    /**
+     * Parse the current record of the tokenizer. Each value is an Integer, NumberText or String, as by
+     * CsvTokenizer.getValue(), or as the schema declares its column.
+     */
+    @SuppressWarnings("unchecked")
+    private Comparable<Object>[] parseRecord(CsvTokenizer tokenizer) {
+        checkCancelled();
+        mergeNameFields(tokenizer);
+        Comparable<?>[] record = new Comparable<?>[tokenizer.fieldCount()];
+        for (int i = 0; i < record.length; i++)
+            record[i] = (Comparable<?>) value(tokenizer, i);
+        return (Comparable<Object>[]) record;
+    }
+
+    /**
+     * The current record of the tokenizer as a LazyRecord. Only columns are parsed, as by parseRecord(), in the
+     * given order; a column the record does not have is "".
+     */
+    private LazyRecord parseLazy(CsvTokenizer tokenizer, int[] columns) {
+        return new LazyRecord(tokenizer.recordBytes(), keyValues(tokenizer, columns));
+    }
+
+    /**
+     * The values of columns in the current record of the tokenizer, parsed as by parseRecord().
+     */
+    @SuppressWarnings("unchecked")
+    private Comparable<Object>[] keyValues(CsvTokenizer tokenizer, int[] columns) {
+        checkCancelled();
+        mergeNameFields(tokenizer);
+        Comparable<?>[] keys = new Comparable<?>[columns.length];
+        for (int i = 0; i < keys.length; i++)
+            keys[i] = columns[i] < tokenizer.fieldCount() ? (Comparable<?>) value(tokenizer, columns[i]) : "";
+        return (Comparable<Object>[]) keys;
+    }
+
+    /**
+     * All values of a row, parsed from its bytes as by parseRecord().
+     */
+    private Comparable<Object>[] values(byte[] row) {
+        CsvTokenizer tokenizer = TOKENIZER.get();
+        tokenizer.tokenize(ByteBuffer.wrap(row), 0, row.length, true);
+        return parseRecord(tokenizer);
+    }
+
+    private void setHeader(String[] header) {
+        names = header;
+        columnTypes = schema != null ? schema.resolve(header) : null;
+    }
+
+    private Object value(CsvTokenizer tokenizer, int field) {
+        Schema.Column type = columnTypes != null && field < columnTypes.length ? columnTypes[field] : null;
+        return type != null ? type.value(tokenizer, field) : tokenizer.getValue(field);
+    }
+
+    /**
+     * A record with one field more than the header has an unquoted "Last, First" name in the first two fields.
+     */
+    private void mergeNameFields(CsvTokenizer tokenizer) {
+        if (tokenizer.fieldCount() == names.length + 1)
+            tokenizer.mergeFields(0);
+    }
+
+    /* 
+     * Parse the sort options:
+     * [column number][sort order] ...
+     * Column number: starts at 0
+     * Sort order: a-acending (default); d-descending
+     */
+    private Comparator<Comparable<Object>[]> parseSortOptions(String[] sortOpts) {
+        return recordComparator(sortColumns(sortOpts), sortDescending(sortOpts));
+    }
+
+    /**
+     * The comparator chain for records as parsed by parseValues(): by columns in priority order, each ascending or
+     * descending.
+     */
+    @SuppressWarnings("unchecked")
+    public static Comparator<Comparable<Object>[]> recordComparator(int[] columns, boolean[] descending) {
+        Comparator<Comparable<Object>[]>[] comparators = new Comparator[columns.length];
+        IntStream.range(0, columns.length).forEach(index -> {
+            Comparator<Comparable<Object>[]> c;
+            if (descending[index])
+                c = createDesendingComparator(columns[index]);
+            else
+                c = createAscendingComparator(columns[index]);
+            comparators[index] = c;
+        });
+        return createComparator(comparators);
+    }
+
+    private int sortColumn(String opt) {
+        int columnNo = Integer.valueOf(opt.substring(0, opt.length() - 1));
+        if (columnNo > names.length - 1) {
+            throw new IllegalArgumentException(
+                    "Column number " + columnNo + " exceeds the width of the CVS file 0-" + (names.length - 1));
         }
+        return columnNo;
+    }
+
+    private static boolean isDescending(String opt) {
+        return opt.charAt(opt.length() - 1) == DESCENDING;
+    }
 
+    private int[] sortColumns(String[] sortOpts) {
+        return Arrays.stream(sortOpts).mapToInt(opt -> sortColumn(opt)).toArray();
+    }
+
+    private static boolean[] sortDescending(String[] sortOpts) {
+        boolean[] descending = new boolean[sortOpts.length];
+        IntStream.range(0, sortOpts.length).forEach(i -> descending[i] = isDescending(sortOpts[i]));
+        return descending;
+    }
+
+    // Lazy records hold their sort column values in sort order
+    private static int[] keyColumns(int[] columns) {
+        return IntStream.range(0, columns.length).toArray();
+    }
+
+    /**
+     * Sort records in memory by the values each one has at columns: radix sort by default, by normalized keys if
+     * enabled, merge sort otherwise.
+     */
+    private <T> void sortRecords(List<T> records, Function<? super T, Comparable<Object>[]> values, int[] columns,
+            boolean[] descending, boolean threaded) {
+        MergeSort sorter = new MergeSort(pool);
+        sorter.setMetrics(metrics);
+        sorter.setAdaptive(adaptive);
+        sorter.setSampleSort(sampleSort);
+        if (columns.length == 0)
+            return;
+        if (radixSort && !threaded && !normalizedKeys && !adaptive
+                && records.size() >= RecordRadixSort.THRESHOLD) {
+            checkCancelled();
+            RecordRadixSort.sort(records, values, columns, descending);
+        } else if (normalizedKeys) {
+            SortKey key = new SortKey(columns, descending);
+            NormalizedKeySort.sort(records, e -> {
+                checkCancelled();
+                return key.encode(values.apply(e));
+            }, sorter, threaded);
+        } else {
+            sorter.mergeSort(records, cancellable(Comparator.comparing(values, recordComparator(columns, descending))),
+                    threaded);
+        }
     }
 
     private static <T> Comparator<T> createComparator(Comparator<? super T>[] delegates) {
         return (t0, t1) -> {
             for (Comparator<? super T> delegate : delegates) {
-                try {
-                    int n = delegate.compare(t0, t1);
-                    if (n != 0) {
-                        return n;
-                    }
-                } catch (Exception e) {
-                    e.printStackTrace();
+                int n = delegate.compare(t0, t1);
+                if (n != 0) {
+                    return n;
                 }
             }
             return 0;
         };
     }
 
-    private static <T extends Comparable<? super T>> Comparator<T[]> createAscendingComparator(int index) {
-        return createArrayAtIndexComparator(Comparator.naturalOrder(), index);
+    // Values are ordered by SortKey.compareValues(): empty, then numbers, then strings
+    private static <T> Comparator<T[]> createAscendingComparator(int index) {
+        return createArrayAtIndexComparator(SortKey::compareValues, index);
     }
 
-    private static <T extends Comparable<? super T>> Comparator<T[]> createDesendingComparator(int index) {
-        return createArrayAtIndexComparator(Comparator.reverseOrder(), index);
+    private static <T> Comparator<T[]> createDesendingComparator(int index) {
+        return createArrayAtIndexComparator((v0, v1) -> SortKey.compareValues(v1, v0), index);
     }
 
-    private static <T> Comparator<T[]> createArrayAtIndexComparator(Comparator<? super T> delegate, int index) {
-        return (array0, array1) -> delegate.compare(array0[index], array1[index]);
+    private static <T> Comparator<T[]> createArrayAtIndexComparator(Comparator<Object> delegate, int index) {
+        return (array0, array1) -> delegate.compare(SortKey.valueAt(array0, index), SortKey.valueAt(array1, index));
     }
 
     public static String[] splitHeader(String line) {
@@ -203,9 +1372,15 @@ final public class CSVSorter {
         return parseString(s);
     }
 
+    // Integers too large for an int are parsed as doubles or strings, as the DOUBLE format allows
     public static Integer parseInteger(String s) {
-        if (INTEGER_PATTERN.matcher(s).matches())
-            return Integer.valueOf(Integer.parseInt(s));
+        if (INTEGER_PATTERN.matcher(s).matches()) {
+            try {
+                return Integer.valueOf(Integer.parseInt(s));
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
         return null;
     }
 
@@ -232,29 +1407,180 @@ final public class CSVSorter {
          */
         String[] sortOpts = null;
         String filepath = null;
-        int length = args.length;
-        if (length > 1) {
-            int sortOptsLength = length - 1;
-            sortOpts = new String[sortOptsLength];
-            sortOpts = Arrays.copyOfRange(args, 0, sortOptsLength);
-            if (!Arrays.stream(sortOpts).allMatch(o -> validate(o))) {
+        Long memoryBudget = null;
+        int readMethod = -1; // -1: compare serial and parallel
+        boolean threaded = NOT_THREADED;
+        boolean normalizedKeys = false;
+        boolean adaptive = false;
+        boolean sampleSort = false;
+        int limit = 0;
+        String output = null;
+        boolean rawOutput = false;
+        boolean lazyParsing = false;
+        boolean indexed = false;
+        boolean offHeap = false;
+        boolean compressRuns = false;
+        boolean distinct = false;
+        String groupSpec = null;
+        String schemaSpec = null;
+        boolean schemaFile = false;
+        SortMetrics metrics = null;
+        String metricsPath = null; // null for standard output
+        String label = null;
+
+        // Leading --name[=value] options
+        int first = 0;
+        for (; first < args.length && args[first].startsWith("--"); first++) {
+            String arg = args[first];
+            if (arg.startsWith(MEMORY_OPTION) && parseSize(arg.substring(MEMORY_OPTION.length())) != null) {
+                memoryBudget = parseSize(arg.substring(MEMORY_OPTION.length()));
+                readMethod = EXTERNAL_READ;
+                label = "External sort, memory budget " + memoryBudget + " bytes";
+            } else if (arg.equals(COLUMNAR_OPTION)) {
+                readMethod = COLUMNAR_READ;
+                label = "Columnar read, row index sort";
+            } else if (arg.equals(MAPPED_OPTION)) {
+                readMethod = MAPPED_READ;
+                label = "Memory mapped parallel read";
+            } else if (arg.equals(PIPELINED_OPTION)) {
+                readMethod = PIPELINED_READ;
+                label = "Pipelined read, parse, sort and write";
+            } else if (arg.equals(THREADED_OPTION)) {
+                threaded = THREADED;
+            } else if (arg.equals(SAMPLE_OPTION)) {
+                sampleSort = true;
+            } else if (arg.equals(KEYS_OPTION)) {
+                normalizedKeys = true;
+            } else if (arg.equals(ADAPTIVE_OPTION)) {
+                adaptive = true;
+            } else if (arg.startsWith(LIMIT_OPTION) && arg.substring(LIMIT_OPTION.length()).matches(INTEGER)) {
+                limit = Integer.parseInt(arg.substring(LIMIT_OPTION.length()));
+            } else if (arg.startsWith(OUTPUT_OPTION) && arg.length() > OUTPUT_OPTION.length()) {
+                output = arg.substring(OUTPUT_OPTION.length());
+            } else if (arg.equals(RAW_OPTION)) {
+                rawOutput = true;
+            } else if (arg.equals(LAZY_OPTION)) {
+                lazyParsing = true;
+            } else if (arg.equals(INDEX_OPTION)) {
+                indexed = true;
+            } else if (arg.equals(OFF_HEAP_OPTION)) {
+                offHeap = true;
+            } else if (arg.equals(COMPRESS_RUNS_OPTION)) {
+                compressRuns = true;
+            } else if (arg.equals(SCHEMA_OPTION)) {
+                schemaFile = true;
+            } else if (arg.startsWith(SCHEMA_OPTION + "=") && arg.length() > SCHEMA_OPTION.length() + 1) {
+                schemaSpec = arg.substring(SCHEMA_OPTION.length() + 1);
+            } else if (arg.equals(DISTINCT_OPTION)) {
+                distinct = true;
+            } else if (arg.startsWith(GROUP_OPTION) && arg.length() > GROUP_OPTION.length()) {
+                groupSpec = arg.substring(GROUP_OPTION.length());
+            } else if (arg.equals(METRICS_OPTION)) {
+                metrics = new SortMetrics();
+            } else if (arg.startsWith(METRICS_OPTION + "=") && arg.length() > METRICS_OPTION.length() + 1) {
+                metrics = new SortMetrics();
+                metricsPath = arg.substring(METRICS_OPTION.length() + 1);
+            } else {
                 printUsage();
                 return;
             }
-            System.out.println("sortOpts: " + Arrays.toString(sortOpts));
+        }
 
-            filepath = args[length - 1];
-            System.out.println("filepath: " + filepath);
-        } else if (length == 1) { // no sorting
-            sortOpts = new String[0];
-            filepath = args[0];
-        } else {
+        // Sort options, then one or more files
+        int files = first;
+        while (files < args.length - 1 && validate(args[files]))
+            files++;
+        if (files == args.length) {
             printUsage();
             return;
         }
+        sortOpts = Arrays.copyOfRange(args, first, files);
+        if (distinct && groupSpec == null && sortOpts.length == 0) {
+            System.out.println("--distinct needs sort columns");
+            return;
+        }
+        if (sortOpts.length > 0)
+            System.out.println("sortOpts: " + Arrays.toString(sortOpts));
+        List<String> filepaths = new ArrayList<>();
+        try {
+            for (int i = files; i < args.length; i++)
+                filepaths.addAll(expandPath(args[i]));
+        } catch (IOException e) {
+            System.out.println("Error listing files");
+            e.printStackTrace();
+            return;
+        }
+        if (filepaths.isEmpty()) {
+            System.out.println("No files match " + String.join(" ", Arrays.copyOfRange(args, files, args.length)));
+            return;
+        }
+        filepath = filepaths.get(0);
+        if (filepaths.size() > 1)
+            System.out.println("filepaths: " + filepaths.size() + " files");
+        else if (sortOpts.length > 0)
+            System.out.println("filepath: " + filepath);
 
         CSVSorter sorter = new CSVSorter();
 
+        if (memoryBudget != null)
+            sorter.setMemoryBudget(memoryBudget);
+        sorter.setNormalizedKeys(normalizedKeys);
+        sorter.setAdaptive(adaptive);
+        sorter.setSampleSort(sampleSort);
+        sorter.setLimit(limit);
+        sorter.setRawOutput(rawOutput);
+        sorter.setLazyParsing(lazyParsing);
+        sorter.setIndexed(indexed);
+        sorter.setOffHeap(offHeap);
+        sorter.setCompressRuns(compressRuns);
+        sorter.setMetrics(metrics);
+        try {
+            if (schemaSpec != null)
+                sorter.setSchema(Schema.parse(schemaSpec));
+            else if (schemaFile)
+                sorter.setSchema(Schema.read(Paths.get(filepath + Schema.SUFFIX)));
+        } catch (IllegalArgumentException | IOException e) {
+            System.out.println("Bad schema: " + e.getMessage());
+            return;
+        }
+        sorter.setDistinct(distinct);
+        try {
+            if (groupSpec != null)
+                sorter.setAggregates(Aggregate.parse(groupSpec));
+        } catch (IllegalArgumentException e) {
+            System.out.println("Bad aggregates: " + e.getMessage());
+            return;
+        }
+
+        if (filepaths.size() > 1)
+            label = "Multi-file sort, " + filepaths.size() + " files";
+        // Any option runs the one sort it asks for; without options the serial and parallel sorts are compared
+        if (first > 0 || filepaths.size() > 1) {
+            if (readMethod == -1 && filepaths.size() == 1) {
+                readMethod = SERIAL_READ;
+                label = "Serial read, " + (threaded ? "multi-threaded" : "single thread") + " sort";
+            }
+            try (CsvWriter writer = output != null ? new CsvWriter(openOutput(output)) : CsvWriter.stdout()) {
+                sorter.setSink(writer);
+                System.out.println("\n=================" + label);
+                long start = System.currentTimeMillis();
+                if (filepaths.size() > 1)
+                    sorter.sortFiles(filepaths, sortOpts, readMethod);
+                else
+                    sorter.sort(filepath, sortOpts, readMethod, threaded);
+                long end = System.currentTimeMillis();
+
+                System.out.println("\nPerformance measurements:");
+                System.out.println(label + ": execusion time used: " + (end - start) + " (ms)");
+                if (metrics != null)
+                    writeMetrics(metrics, metricsPath);
+            } catch (IOException e) {
+                System.out.println("Error reading");
+                e.printStackTrace();
+            }
+            return;
+        }
+
         try {
             System.out.println("\n=================Serial read, single thread sort");
             long serialStart = System.currentTimeMillis();
@@ -275,16 +1601,84 @@ final public class CSVSorter {
         } catch (IOException e) {
             System.out.println("Error reading");
             e.printStackTrace();
-        } finally {
-            MergeSort.ThreadedMergeSort.shutdownAndAwaitTermination();
         }
     }
 
+    /**
+     * The files a csv_file_path argument stands for: the files in a directory, the files matching a glob in its last
+     * part, in name order, or the path itself. The sort index and schema files next to the CSV files are left out.
+     */
+    public static List<String> expandPath(String path) throws IOException {
+        Path p = Paths.get(path);
+        String glob = null;
+        if (!Files.isDirectory(p)) {
+            if (p.getFileName() == null || !p.getFileName().toString().matches(".*[*?\\[{].*"))
+                return List.of(path);
+            glob = p.getFileName().toString();
+            p = p.getParent() != null ? p.getParent() : Paths.get("");
+        }
+        List<String> files = new ArrayList<>();
+        try (DirectoryStream<Path> dir = glob != null ? Files.newDirectoryStream(p.toAbsolutePath(), glob)
+                : Files.newDirectoryStream(p)) {
+            for (Path file : dir) {
+                String name = file.getFileName().toString();
+                if (Files.isRegularFile(file) && !name.endsWith(INDEX_SUFFIX) && !name.endsWith(Schema.SUFFIX))
+                    files.add(glob != null ? p.resolve(file.getFileName()).toString() : file.toString());
+            }
+        }
+        files.sort(null);
+        return files;
+    }
+
+    private static OutputStream openOutput(String path) throws IOException {
+        OutputStream out = new FileOutputStream(path);
+        return path.endsWith(GZIP_SUFFIX) ? new GZIPOutputStream(out, GZIP_BUFFER_SIZE) : out;
+    }
+
+    private static void writeMetrics(SortMetrics metrics, String path) throws IOException {
+        if (path == null) {
+            System.out.println("Metrics: " + metrics.toJson());
+            return;
+        }
+        Files.write(Paths.get(path), (metrics.toJson() + "\n").getBytes(UTF_8));
+    }
+
     private static boolean validate(String sortOpt) {
         return SORT_OPTION_PATTERN.matcher(sortOpt).matches();
     }
 
+    /**
+     * Parse a size such as 512k, 64m or 2g into bytes. Returns null if the size is malformed or does not fit in a long.
+     */
+    public static Long parseSize(String size) {
+        Matcher m = SIZE_PATTERN.matcher(size);
+        if (!m.matches())
+            return null;
+        long unit;
+        switch (m.group(2).toLowerCase()) {
+        case "k":
+            unit = 1L << 10;
+            break;
+        case "m":
+            unit = 1L << 20;
+            break;
+        case "g":
+            unit = 1L << 30;
+            break;
+        default:
+            unit = 1;
+            break;
+        }
+        long bytes;
+        try {
+            bytes = Math.multiplyExact(Long.parseLong(m.group(1)), unit);
+        } catch (NumberFormatException | ArithmeticException e) {
+            return null;
+        }
+        return bytes > 0 ? bytes : null;
+    }
+
     private static void printUsage() {
-        System.out.println("Usage: CSVSortReader [[column number][order] ...] csv_file_path");
+        System.out.println("Usage: CSVSortReader [--memory=size | --columnar | --mapped | --pipelined] [--threaded [--sample]] [--keys] [--adaptive] [--limit=n] [--output=file] [--raw] [--lazy] [--offheap] [--index] [--compress-runs] [--schema[=spec]] [--distinct | --group=aggregates] [--metrics[=file]] [[column number][order] ...] csv_file_path ...");
     }
 }
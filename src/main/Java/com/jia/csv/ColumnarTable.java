@@ -0,0 +1,532 @@
+package com.jia.csv;
+
+import com.jia.sort.IntComparator;
+import com.jia.sort.MergeSort;
+import com.jia.sort.RadixSort;
+import com.jia.sort.SortMetrics;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * In-memory CSV table stored column by column.
+ *
+ * Each column has a single type, inferred from its values as they are added: INT, widened to LONG, then DOUBLE,
+ * then STRING when a value no longer fits. Numbers live in int[], long[] or double[] arrays. Integers of more than
+ * 13 digits are strings, as in CSVSorter.parseValue(). STRING columns are dictionary encoded: the column stores one
+ * int code per row, and finish() ranks the distinct values in the order of SortKey.compareValues(), numbers before
+ * strings, so comparing two cells is comparing two ints. Empty cells are null and sort before any value.
+ *
+ * Sorting does not move any data. It sorts an int[] of row indexes: with a radix sort by each sort column, from the
+ * last to the first, or with a merge sort for small tables. Every column type has radix keys: numbers map to
+ * sortable longs, strings to their rank.
+ *
+ * Numbers keep their text where their value would not write it back, as the row-based sort does with NumberText:
+ * decimals, integers with leading zeros, and integers widened to DOUBLE that a double can not hold exactly. When a
+ * numeric column is widened to STRING, the values already added move to the dictionary with their text.
+ */
+public class ColumnarTable {
+
+    public enum ColumnType {
+        INT, LONG, DOUBLE, STRING
+    }
+
+    private static final int INITIAL_CAPACITY = 1024;
+    private static final int MAX_DOUBLE_INTEGER_DIGITS = 13; // same as CSVSorter's DOUBLE format
+
+    // Smaller tables are merge sorted
+    static final int RADIX_THRESHOLD = 1024;
+
+    private final Column[] columns;
+    private int size;
+    private int capacity = INITIAL_CAPACITY;
+    private boolean finished;
+
+    public ColumnarTable(int width) {
+        columns = new Column[width];
+        for (int i = 0; i < width; i++)
+            columns[i] = new Column();
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int width() {
+        return columns.length;
+    }
+
+    public ColumnType type(int column) {
+        return columns[column].type;
+    }
+
+    /**
+     * Add one row. Cells are trimmed and surrounding double quotes are removed. Missing trailing cells are null,
+     * extra cells are ignored.
+     */
+    public void addRow(String[] cells) {
+        if (finished)
+            throw new IllegalStateException("Table is finished");
+        if (size == capacity) {
+            capacity <<= 1;
+            for (Column column : columns)
+                column.grow(capacity);
+        }
+        for (int i = 0; i < columns.length; i++)
+            columns[i].add(size, i < cells.length ? cells[i] : null);
+        size++;
+    }
+
+    /**
+     * Add the current record of the tokenizer. Numbers are parsed straight from the tokenizer's bytes.
+     */
+    public void addRow(CsvTokenizer tokenizer) {
+        if (finished)
+            throw new IllegalStateException("Table is finished");
+        if (size == capacity) {
+            capacity <<= 1;
+            for (Column column : columns)
+                column.grow(capacity);
+        }
+        int fields = tokenizer.fieldCount();
+        for (int i = 0; i < columns.length; i++) {
+            if (i < fields)
+                columns[i].add(size, tokenizer, i);
+            else
+                columns[i].nulls.set(size);
+        }
+        size++;
+    }
+
+    /**
+     * Done adding rows. Ranks the string dictionaries so they can be compared as ints.
+     */
+    public void finish() {
+        if (finished)
+            return;
+        for (Column column : columns)
+            column.finish();
+        finished = true;
+    }
+
+    /**
+     * The value at row and column as an Integer, Long, Double or String, or null if the cell is empty. Numbers are
+     * their value only, row() keeps the text of those that would not write it back (NumberText).
+     */
+    public Object get(int row, int column) {
+        return columns[column].get(row);
+    }
+
+    /**
+     * All values of a row, as the row-based sort parses them: Integer, Long, NumberText or String. Empty cells are ""
+     * as in CSVSorter.parseValue().
+     */
+    public Object[] row(int row) {
+        Object[] values = new Object[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            Object value = columns[i].value(row);
+            values[i] = value == null ? "" : value;
+        }
+        return values;
+    }
+
+    /**
+     * Row comparator for the given sort columns, in priority order.
+     */
+    public IntComparator comparator(int[] sortColumns, boolean[] descending) {
+        finish();
+        Column[] keys = new Column[sortColumns.length];
+        for (int i = 0; i < sortColumns.length; i++)
+            keys[i] = columns[sortColumns[i]];
+        boolean[] desc = descending.clone();
+        return (r0, r1) -> {
+            for (int i = 0; i < keys.length; i++) {
+                int n = keys[i].compare(r0, r1);
+                if (n != 0)
+                    return desc[i] ? -n : n;
+            }
+            return 0;
+        };
+    }
+
+    /**
+     * Row indexes in sorted order. The sort is stable.
+     */
+    public int[] sortedRows(int[] sortColumns, boolean[] descending) {
+        return sortedRows(sortColumns, descending, null);
+    }
+
+    /**
+     * Same as sortedRows(int[], boolean[]), collecting the merge sort's counters into metrics if it is not null. The
+     * radix sort makes no comparisons.
+     */
+    public int[] sortedRows(int[] sortColumns, boolean[] descending, SortMetrics metrics) {
+        int[] rows = new int[size];
+        for (int i = 0; i < size; i++)
+            rows[i] = i;
+        if (sortColumns.length == 0)
+            return rows;
+        if (size < RADIX_THRESHOLD) {
+            MergeSort.mergeSort(rows, comparator(sortColumns, descending), metrics);
+        } else {
+            finish();
+            for (int i = sortColumns.length - 1; i >= 0; i--)
+                columns[sortColumns[i]].radixSort(rows, descending[i]);
+        }
+        return rows;
+    }
+
+    /**
+     * One column. Only the array for the current type is allocated.
+     */
+    private final class Column {
+        ColumnType type = ColumnType.INT;
+        final BitSet nulls = new BitSet();
+        int[] ints = new int[capacity];
+        long[] longs;
+        double[] doubles;
+        String[] texts; // of the numbers whose value would not write back as their text, null until one is added
+
+        // STRING: code per row, dictionary of distinct values (numbers and strings), their rank after finish()
+        int[] codes;
+        List<Object> values;
+        Map<Object, Integer> dictionary;
+        int[] ranks;
+
+        void grow(int newCapacity) {
+            if (texts != null)
+                texts = Arrays.copyOf(texts, newCapacity);
+            switch (type) {
+            case INT:
+                ints = Arrays.copyOf(ints, newCapacity);
+                break;
+            case LONG:
+                longs = Arrays.copyOf(longs, newCapacity);
+                break;
+            case DOUBLE:
+                doubles = Arrays.copyOf(doubles, newCapacity);
+                break;
+            case STRING:
+                codes = Arrays.copyOf(codes, newCapacity);
+                break;
+            }
+        }
+
+        void add(int row, String cell) {
+            String s = cell == null ? "" : cell.trim();
+            boolean quoted = !s.isEmpty() && s.charAt(0) == '"';
+            if (!s.isEmpty())
+                s = CSVSorter.parseString(s);
+            if (s.isEmpty()) {
+                nulls.set(row);
+                return;
+            }
+
+            // As CSVSorter.parseValue(): quoted numbers are strings
+            switch (quoted ? ColumnType.STRING : classify(s)) {
+            case INT:
+                long l = Long.parseLong(s);
+                if (l > Integer.MAX_VALUE && s.length() > MAX_DOUBLE_INTEGER_DIGITS)
+                    addString(row, s);
+                else
+                    addLong(row, l, s.length() > 1 && s.charAt(0) == '0' ? s : null);
+                break;
+            case DOUBLE:
+                addDouble(row, Double.parseDouble(s), s);
+                break;
+            default:
+                addString(row, s);
+            }
+        }
+
+        void add(int row, CsvTokenizer tokenizer, int field) {
+            ColumnType needed = tokenizer.classify(field);
+            if (needed == null) {
+                nulls.set(row);
+                return;
+            }
+
+            switch (needed) {
+            case INT:
+                // Integers past an int with over 13 digits are strings, as in CSVSorter.parseValue()
+                long l = tokenizer.parseLong(field);
+                if (l > Integer.MAX_VALUE && tokenizer.fieldLength(field) > MAX_DOUBLE_INTEGER_DIGITS)
+                    addString(row, tokenizer.getString(field));
+                else
+                    addLong(row, l, tokenizer.hasLeadingZero(field) ? tokenizer.getString(field) : null);
+                break;
+            case DOUBLE:
+                addDouble(row, tokenizer.parseDouble(field), tokenizer.getString(field));
+                break;
+            default:
+                addString(row, tokenizer.getString(field));
+            }
+        }
+
+        // Numbers in a STRING column use the same text as the numbers converted by widen(). text is null when the
+        // value writes it back.
+        void addLong(int row, long l, String text) {
+            if (type == ColumnType.INT) {
+                if (l <= Integer.MAX_VALUE) {
+                    ints[row] = (int) l;
+                    setText(row, text);
+                    return;
+                }
+                widen(ColumnType.LONG, row);
+            }
+            switch (type) {
+            case LONG:
+                longs[row] = l;
+                break;
+            case DOUBLE:
+                doubles[row] = l;
+                if (text == null && (long) doubles[row] != l)
+                    text = String.valueOf(l);
+                break;
+            default:
+                codes[row] = encode(text != null ? new NumberText(l, text)
+                        : l <= Integer.MAX_VALUE ? (Object) (int) l : (Object) l);
+                return;
+            }
+            setText(row, text);
+        }
+
+        void addDouble(int row, double d, String text) {
+            if (type.compareTo(ColumnType.DOUBLE) < 0)
+                widen(ColumnType.DOUBLE, row);
+            if (type == ColumnType.DOUBLE) {
+                doubles[row] = d;
+                setText(row, text);
+            } else {
+                codes[row] = encode(new NumberText(d, text));
+            }
+        }
+
+        void setText(int row, String text) {
+            if (text == null)
+                return;
+            if (texts == null)
+                texts = new String[capacity];
+            texts[row] = text;
+        }
+
+        void addString(int row, String s) {
+            // A quoted empty field is empty too
+            if (s.isEmpty()) {
+                nulls.set(row);
+                return;
+            }
+            if (type != ColumnType.STRING)
+                widen(ColumnType.STRING, row);
+            codes[row] = encode(s);
+        }
+
+        /**
+         * Convert the first rows values to the wider type.
+         */
+        void widen(ColumnType to, int rows) {
+            int length = ints != null ? ints.length : longs != null ? longs.length : doubles.length;
+            switch (to) {
+            case LONG:
+                longs = new long[length];
+                for (int i = 0; i < rows; i++)
+                    longs[i] = ints[i];
+                break;
+            case DOUBLE:
+                doubles = new double[length];
+                for (int i = 0; i < rows; i++) {
+                    doubles[i] = type == ColumnType.INT ? ints[i] : longs[i];
+                    if (type == ColumnType.LONG && (long) doubles[i] != longs[i])
+                        setText(i, String.valueOf(longs[i]));
+                }
+                break;
+            case STRING:
+                codes = new int[length];
+                values = new ArrayList<>();
+                dictionary = new HashMap<>();
+                for (int i = 0; i < rows; i++)
+                    if (!nulls.get(i))
+                        codes[i] = encode(value(i));
+                texts = null;
+                break;
+            default:
+                throw new IllegalStateException("Cannot widen to " + to);
+            }
+            ints = null;
+            if (to != ColumnType.LONG)
+                longs = null;
+            if (to == ColumnType.STRING)
+                doubles = null;
+            type = to;
+        }
+
+        int encode(Object value) {
+            Integer code = dictionary.get(value);
+            if (code == null) {
+                code = values.size();
+                values.add(value);
+                dictionary.put(value, code);
+            }
+            return code;
+        }
+
+        /**
+         * Rank the dictionary values in sorted order. Values that compare equal, such as 1.5 and 1.50, have the same
+         * rank.
+         */
+        void finish() {
+            if (type != ColumnType.STRING)
+                return;
+            int[] order = new int[values.size()];
+            for (int i = 0; i < order.length; i++)
+                order[i] = i;
+            ranks = new int[order.length];
+            if (values.stream().allMatch(v -> v instanceof String)) {
+                // Distinct strings, all ranks differ
+                RadixSort.sort(order, values.toArray(new String[0]), false);
+                for (int i = 0; i < order.length; i++)
+                    ranks[order[i]] = i;
+            } else {
+                MergeSort.mergeSort(order, (c0, c1) -> SortKey.compareValues(values.get(c0), values.get(c1)));
+                int rank = 0;
+                for (int i = 0; i < order.length; i++) {
+                    if (i > 0 && SortKey.compareValues(values.get(order[i - 1]), values.get(order[i])) != 0)
+                        rank++;
+                    ranks[order[i]] = rank;
+                }
+            }
+            dictionary = null;
+        }
+
+        /**
+         * Stable sort of rows by this column, in the order of compare(). Nulls are moved first (last if descending),
+         * the other rows are radix sorted by a long key.
+         */
+        void radixSort(int[] rows, boolean descending) {
+            int n = rows.length;
+            int nullCount = 0;
+            for (int row : rows)
+                if (nulls.get(row))
+                    nullCount++;
+
+            int[] values = new int[n - nullCount];
+            long[] keys = new long[values.length];
+            int[] nullRows = new int[nullCount];
+            int v = 0;
+            int k = 0;
+            for (int row : rows) {
+                if (nulls.get(row)) {
+                    nullRows[k++] = row;
+                } else {
+                    long key = key(row);
+                    keys[v] = descending ? ~key : key;
+                    values[v++] = row;
+                }
+            }
+            RadixSort.sort(values, keys);
+
+            if (descending) {
+                System.arraycopy(values, 0, rows, 0, values.length);
+                System.arraycopy(nullRows, 0, rows, values.length, nullCount);
+            } else {
+                System.arraycopy(nullRows, 0, rows, 0, nullCount);
+                System.arraycopy(values, 0, rows, nullCount, values.length);
+            }
+        }
+
+        // Unsigned order of the keys is the order of compare(). Needs finish() for strings.
+        long key(int row) {
+            switch (type) {
+            case INT:
+                return RadixSort.sortableInt(ints[row]);
+            case LONG:
+                return RadixSort.sortableLong(longs[row]);
+            case DOUBLE:
+                return RadixSort.sortableDouble(doubles[row]);
+            default:
+                return ranks[codes[row]];
+            }
+        }
+
+        Object get(int row) {
+            if (nulls.get(row))
+                return null;
+            switch (type) {
+            case INT:
+                return ints[row];
+            case LONG:
+                return longs[row];
+            case DOUBLE:
+                return doubles[row];
+            default:
+                return String.valueOf(values.get(codes[row]));
+            }
+        }
+
+        /**
+         * The value at row as the row-based sort parses it, null if the cell is empty.
+         */
+        Object value(int row) {
+            if (nulls.get(row))
+                return null;
+            String text = texts != null ? texts[row] : null;
+            switch (type) {
+            case INT:
+                return text != null ? new NumberText(ints[row], text) : (Object) ints[row];
+            case LONG:
+                return text != null ? new NumberText(longs[row], text) : (Object) longs[row];
+            case DOUBLE:
+                if (text != null)
+                    return new NumberText(doubles[row], text);
+                long l = (long) doubles[row]; // an integer, decimals always have their text
+                return l <= Integer.MAX_VALUE ? (Object) (int) l : (Object) l;
+            default:
+                return values.get(codes[row]);
+            }
+        }
+
+        int compare(int r0, int r1) {
+            boolean null0 = nulls.get(r0);
+            boolean null1 = nulls.get(r1);
+            if (null0 || null1)
+                return null0 == null1 ? 0 : null0 ? -1 : 1;
+            switch (type) {
+            case INT:
+                return Integer.compare(ints[r0], ints[r1]);
+            case LONG:
+                return Long.compare(longs[r0], longs[r1]);
+            case DOUBLE:
+                return Double.compare(doubles[r0], doubles[r1]);
+            default:
+                return Integer.compare(ranks[codes[r0]], ranks[codes[r1]]);
+            }
+        }
+    }
+
+    /**
+     * The narrowest type that can hold s. Matches the integer ([0-9]+) and double ([0-9]{1,13}([.][0-9]*)?) formats
+     * recognized by CSVSorter.parseValue().
+     */
+    static ColumnType classify(String s) {
+        int length = s.length();
+        int i = 0;
+        while (i < length && isDigit(s.charAt(i)))
+            i++;
+        if (i == length)
+            return i <= 18 ? ColumnType.INT : ColumnType.STRING; // longer may overflow a long
+        if (i == 0 || i > 13 || s.charAt(i) != '.')
+            return ColumnType.STRING;
+        for (i++; i < length; i++)
+            if (!isDigit(s.charAt(i)))
+                return ColumnType.STRING;
+        return ColumnType.DOUBLE;
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+}
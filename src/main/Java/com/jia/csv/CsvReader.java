@@ -0,0 +1,193 @@
+package com.jia.csv;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Reads CSV records from a stream into a reusable byte buffer and tokenizes them in place with a CsvTokenizer.
+ * The buffer grows when a single record does not fit. Blank lines are skipped.
+ */
+public class CsvReader implements Closeable {
+    public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+    public static final int DEFAULT_BLOCK_SIZE = 1024 * 1024;
+
+    private final InputStream in;
+    private final CsvTokenizer tokenizer = new CsvTokenizer();
+    private byte[] data;
+    private ByteBuffer buffer;
+    private int pos;
+    private int limit;
+    private boolean eof;
+    private long consumed; // bytes dropped from the front of the buffer
+    private long recordOffset;
+    private int recordLength;
+
+    public CsvReader(InputStream in) {
+        this(in, DEFAULT_BUFFER_SIZE);
+    }
+
+    public CsvReader(InputStream in, int bufferSize) {
+        this.in = in;
+        this.data = new byte[Math.max(bufferSize, 16)];
+        this.buffer = ByteBuffer.wrap(data);
+    }
+
+    /**
+     * Advance to the next record. Returns false at the end of the input.
+     */
+    public boolean next() throws IOException {
+        while (true) {
+            int start = pos;
+            int end = tokenizer.tokenize(buffer, pos, limit, eof);
+            if (end >= 0) {
+                pos = end;
+                while (end > start && (data[end - 1] == CsvTokenizer.LF || data[end - 1] == CsvTokenizer.CR))
+                    end--;
+                recordOffset = consumed + start;
+                recordLength = end - start;
+                if (tokenizer.isBlankRecord())
+                    continue;
+                return true;
+            }
+            if (eof)
+                return false;
+            fill();
+        }
+    }
+
+    /**
+     * The current record's fields. Valid until the next call to next().
+     */
+    public CsvTokenizer tokenizer() {
+        return tokenizer;
+    }
+
+    /**
+     * Offset of the current record in the input.
+     */
+    public long recordOffset() {
+        return recordOffset;
+    }
+
+    /**
+     * Length in bytes of the current record, without its line break.
+     */
+    public int recordLength() {
+        return recordLength;
+    }
+
+    /**
+     * Offset in the input after the current record and its line break. The same as the record's end if the input
+     * ends without a line break.
+     */
+    public long position() {
+        return consumed + pos;
+    }
+
+    /**
+     * A copy of the current record's bytes, without its line break.
+     */
+    public byte[] recordBytes() {
+        int start = (int) (recordOffset - consumed);
+        return Arrays.copyOfRange(data, start, start + recordLength);
+    }
+
+    /**
+     * The input after the current record, for handing the rest of the stream to another reader.
+     */
+    public InputStream remainder() {
+        InputStream buffered = new ByteArrayInputStream(Arrays.copyOfRange(data, pos, limit));
+        pos = limit;
+        return eof ? buffered : new SequenceInputStream(buffered, in);
+    }
+
+    /**
+     * Parse the records after the current one on several threads, in input order. The rest of the input is read in
+     * blocks of about blockSize bytes that end at a record boundary, found with the tokenizer's quote rules
+     * (CsvTokenizer.nextState()), so a quoted line break never splits a record. The blocks are then tokenized in a
+     * parallel stream, each with its own tokenizer. Blank lines are skipped.
+     */
+    public <T> List<T> parseRemaining(Function<CsvTokenizer, T> parser, int blockSize) throws IOException {
+        InputStream rest = remainder();
+        List<byte[]> blocks = new ArrayList<>();
+        byte[] block = new byte[Math.max(blockSize, 16)];
+        int length = 0; // of block, the last record may be incomplete
+        int scanned = 0; // bytes of block passed through the state machine
+        int state = CsvTokenizer.FIELD_START;
+        while (true) {
+            if (length == block.length)
+                block = Arrays.copyOf(block, block.length << 1); // a record longer than blockSize
+            int n = rest.read(block, length, block.length - length);
+            if (n < 0)
+                break;
+            length += n;
+            if (length < block.length)
+                continue;
+            int boundary = -1;
+            for (; scanned < length; scanned++) {
+                byte c = block[scanned];
+                if (c == CsvTokenizer.LF && state != CsvTokenizer.QUOTED)
+                    boundary = scanned + 1;
+                state = CsvTokenizer.nextState(state, c);
+            }
+            if (boundary < 0)
+                continue;
+            blocks.add(Arrays.copyOf(block, boundary));
+            byte[] next = new byte[Math.max(blockSize, length - boundary + 16)];
+            System.arraycopy(block, boundary, next, 0, length - boundary);
+            block = next;
+            length -= boundary;
+            scanned -= boundary;
+        }
+        if (length > 0)
+            blocks.add(Arrays.copyOf(block, length));
+        List<List<T>> parsed = blocks.parallelStream().map(b -> parseBlock(b, parser)).collect(Collectors.toList());
+        List<T> records = new ArrayList<>(parsed.stream().mapToInt(List::size).sum());
+        parsed.forEach(records::addAll);
+        return records;
+    }
+
+    private static <T> List<T> parseBlock(byte[] block, Function<CsvTokenizer, T> parser) {
+        List<T> records = new ArrayList<>();
+        CsvTokenizer tokenizer = new CsvTokenizer();
+        ByteBuffer buf = ByteBuffer.wrap(block);
+        int pos = 0;
+        while ((pos = tokenizer.tokenize(buf, pos, block.length, true)) >= 0) {
+            if (!tokenizer.isBlankRecord())
+                records.add(parser.apply(tokenizer));
+        }
+        return records;
+    }
+
+    private void fill() throws IOException {
+        // Keep the incomplete record, grow if it already fills the buffer
+        if (pos > 0) {
+            consumed += pos;
+            System.arraycopy(data, pos, data, 0, limit - pos);
+            limit -= pos;
+            pos = 0;
+        } else if (limit == data.length) {
+            data = Arrays.copyOf(data, data.length << 1);
+            buffer = ByteBuffer.wrap(data);
+        }
+        int n = in.read(data, limit, data.length - limit);
+        if (n < 0)
+            eof = true;
+        else
+            limit += n;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
@@ -0,0 +1,167 @@
+package com.jia.csv;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs sort jobs concurrently in a long-lived service, each job a CSVSorter.sort() call.
+ *
+ * - At most maxConcurrentJobs jobs run at a time. A running job has a ForkJoinPool of jobParallelism workers to
+ *   itself, for its threaded merge sort and its parallel streams, so one large job can not take every core. The
+ *   pools are created once and reused, their idle workers exit on their own.
+ * - submit() blocks while maxConcurrentJobs + maxQueuedJobs jobs are running or waiting.
+ * - Cancelling a job's future stops it at the next record it parses or writes or the next comparison it makes
+ *   (CSVSorter.cancel()). Each job has its own cancellation, the sorter can run the next job. A job still waiting
+ *   does not start.
+ *
+ * The sorter of a job is configured by the caller (sink, memory budget, ...) and must not be used by another job at
+ * the same time. The job sets the sorter's pool to one of the engine's and puts the previous one back when it ends.
+ * The engine's own threads are daemon threads.
+ */
+public final class CsvSortEngine implements AutoCloseable {
+    private static final AtomicInteger ENGINES = new AtomicInteger();
+
+    private final Executor executor;
+    private final boolean ownsExecutor;
+    private final BlockingQueue<ForkJoinPool> pools;
+    private final Semaphore admitted;
+    private final int maxAdmitted;
+    private volatile boolean closed;
+
+    /**
+     * An engine with its own maxConcurrentJobs job threads.
+     */
+    public CsvSortEngine(int maxConcurrentJobs, int jobParallelism, int maxQueuedJobs) {
+        this(Executors.newFixedThreadPool(Math.max(maxConcurrentJobs, 1), jobThreads()), true, maxConcurrentJobs,
+                jobParallelism, maxQueuedJobs);
+    }
+
+    /**
+     * An engine running its jobs with executor, for example one virtual thread per job. The executor is not shut
+     * down by close(). Jobs beyond maxConcurrentJobs wait on the executor's thread for a pool.
+     */
+    public CsvSortEngine(Executor executor, int maxConcurrentJobs, int jobParallelism, int maxQueuedJobs) {
+        this(executor, false, maxConcurrentJobs, jobParallelism, maxQueuedJobs);
+    }
+
+    private CsvSortEngine(Executor executor, boolean ownsExecutor, int maxConcurrentJobs, int jobParallelism,
+            int maxQueuedJobs) {
+        if (maxConcurrentJobs < 1)
+            throw new IllegalArgumentException("Concurrent jobs must be at least 1: " + maxConcurrentJobs);
+        if (jobParallelism < 1)
+            throw new IllegalArgumentException("Job parallelism must be at least 1: " + jobParallelism);
+        if (maxQueuedJobs < 0)
+            throw new IllegalArgumentException("Queued jobs must not be negative: " + maxQueuedJobs);
+        this.executor = executor;
+        this.ownsExecutor = ownsExecutor;
+        this.pools = new ArrayBlockingQueue<>(maxConcurrentJobs);
+        for (int i = 0; i < maxConcurrentJobs; i++)
+            pools.add(new ForkJoinPool(jobParallelism));
+        this.maxAdmitted = maxConcurrentJobs + maxQueuedJobs;
+        this.admitted = new Semaphore(maxAdmitted, true);
+    }
+
+    private static ThreadFactory jobThreads() {
+        int engine = ENGINES.incrementAndGet();
+        AtomicInteger threads = new AtomicInteger();
+        return r -> {
+            Thread t = new Thread(r, "csvsort-" + engine + "-job-" + threads.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        };
+    }
+
+    /**
+     * Run sorter.sort(filePath, sortOpts, readMethod, threaded) as a job. Blocks while the engine is full.
+     *
+     * @return completes when the sorted output has been written to the sorter's sink, or with the sort's exception
+     * @throws IllegalStateException if the engine is closed
+     */
+    public CompletableFuture<Void> submit(CSVSorter sorter, String filePath, String[] sortOpts, int readMethod,
+            boolean threaded) throws InterruptedException {
+        admitted.acquire();
+        if (closed) {
+            admitted.release();
+            throw new IllegalStateException("Sort engine is closed");
+        }
+        CompletableFuture<Void> result = new CompletableFuture<>();
+        AtomicBoolean cancelled = new AtomicBoolean();
+        result.whenComplete((v, e) -> {
+            if (result.isCancelled())
+                cancelled.set(true);
+        });
+        try {
+            executor.execute(() -> run(result, cancelled, sorter, filePath, sortOpts, readMethod, threaded));
+        } catch (RejectedExecutionException e) {
+            admitted.release();
+            throw e;
+        }
+        return result;
+    }
+
+    private void run(CompletableFuture<Void> result, AtomicBoolean cancelled, CSVSorter sorter, String filePath,
+            String[] sortOpts, int readMethod, boolean threaded) {
+        try {
+            if (result.isDone())
+                return; // cancelled while waiting
+            ForkJoinPool pool = pools.take();
+            ForkJoinPool previous = sorter.pool();
+            try {
+                // Running inside the pool also keeps the sort's parallel streams there
+                sorter.setPool(pool);
+                pool.submit(() -> {
+                    try {
+                        sorter.sort(filePath, sortOpts, readMethod, threaded, cancelled);
+                        result.complete(null);
+                    } catch (Throwable e) {
+                        result.completeExceptionally(e);
+                    }
+                }).join();
+            } finally {
+                // The engine's pool is shut down by close(), the sorter may outlive it
+                sorter.setPool(previous);
+                pools.add(pool);
+            }
+        } catch (Throwable e) {
+            result.completeExceptionally(e);
+        } finally {
+            admitted.release();
+        }
+    }
+
+    /**
+     * Jobs running or waiting to run.
+     */
+    public int activeJobs() {
+        return maxAdmitted - admitted.availablePermits();
+    }
+
+    /**
+     * Stop accepting jobs, wait for the submitted ones to finish, then shut down the engine's threads.
+     */
+    @Override
+    public void close() {
+        if (closed)
+            return;
+        closed = true;
+        admitted.acquireUninterruptibly(maxAdmitted);
+        try {
+            pools.forEach(ForkJoinPool::shutdown);
+            if (ownsExecutor)
+                ((ExecutorService) executor).shutdown();
+        } finally {
+            // Wake up submit() calls that were blocked, they see the engine closed
+            admitted.release(maxAdmitted);
+        }
+    }
+}
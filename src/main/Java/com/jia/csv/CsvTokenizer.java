@@ -0,0 +1,384 @@
+package com.jia.csv;
+
+import com.jia.csv.ColumnarTable.ColumnType;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Single pass CSV tokenizer working directly on bytes (RFC 4180).
+ *
+ * tokenize() scans one record and only records where each field starts and ends, nothing is allocated. Fields may
+ * be quoted, in which case they can contain commas, line breaks and doubled quotes (""). Blanks around a field are
+ * not part of it. Lines end in LF or CRLF.
+ *
+ * The field accessors then convert a field on demand. Numbers are parsed in place from the bytes, only
+ * getString() and getValue() on a STRING field create a String.
+ *
+ * Delimiters are all ASCII, so UTF-8 input is handled correctly. A tokenizer is not thread safe, use one per
+ * thread.
+ */
+public final class CsvTokenizer {
+    static final byte COMMA = ',';
+    static final byte QUOTE = '"';
+    static final byte CR = '\r';
+    static final byte LF = '\n';
+
+    private static final int MAX_INTEGER_DIGITS = 18; // always fits a long
+    private static final int MAX_DOUBLE_INTEGER_DIGITS = 13; // same as CSVSorter's DOUBLE format
+    private static final long MAX_EXACT_MANTISSA = 1L << 53;
+    private static final double[] POWERS_OF_TEN = new double[23]; // all exactly representable
+    static {
+        POWERS_OF_TEN[0] = 1;
+        for (int i = 1; i < POWERS_OF_TEN.length; i++)
+            POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+    }
+
+    private ByteBuffer buf;
+    private int count;
+    private int[] starts = new int[16];
+    private int[] ends = new int[16];
+    private boolean[] quoted = new boolean[16];
+    private boolean[] escaped = new boolean[16];
+    private int recordStart;
+    private int recordEnd; // after the line break
+
+    /**
+     * Tokenize the record starting at pos.
+     *
+     * @param endOfInput whether limit is the end of the input. If not, a record that reaches limit is incomplete.
+     * @return the position after the record and its line break, or -1 if there is no complete record before limit
+     */
+    public int tokenize(ByteBuffer buf, int pos, int limit, boolean endOfInput) {
+        int end = scan(buf, pos, limit, endOfInput);
+        recordStart = pos;
+        recordEnd = end;
+        return end;
+    }
+
+    private int scan(ByteBuffer buf, int pos, int limit, boolean endOfInput) {
+        this.buf = buf;
+        count = 0;
+        if (pos >= limit)
+            return -1;
+
+        int p = pos;
+        while (true) {
+            while (p < limit && isBlank(buf.get(p)))
+                p++;
+
+            if (p < limit && buf.get(p) == QUOTE) {
+                int start = ++p;
+                boolean esc = false;
+                while (true) {
+                    if (p >= limit) {
+                        if (!endOfInput)
+                            return -1;
+                        break; // unterminated quote, take the rest of the input
+                    }
+                    if (buf.get(p) == QUOTE) {
+                        if (p + 1 >= limit && !endOfInput)
+                            return -1; // can't tell "" from a closing quote yet
+                        if (p + 1 < limit && buf.get(p + 1) == QUOTE) {
+                            esc = true;
+                            p += 2;
+                            continue;
+                        }
+                        break;
+                    }
+                    p++;
+                }
+                addField(start, Math.min(p, limit), true, esc);
+                p++;
+                // Anything between the closing quote and the delimiter is ignored
+                while (p < limit && !isDelimiter(buf.get(p)))
+                    p++;
+            } else {
+                int start = p;
+                while (p < limit && !isDelimiter(buf.get(p)))
+                    p++;
+                int end = p;
+                while (end > start && isBlank(buf.get(end - 1)))
+                    end--;
+                addField(start, end, false, false);
+            }
+
+            if (p >= limit)
+                return endOfInput ? limit : -1;
+
+            byte c = buf.get(p++);
+            if (c == COMMA)
+                continue;
+            if (c == CR) {
+                if (p < limit && buf.get(p) == LF)
+                    p++;
+                else if (p >= limit && !endOfInput)
+                    return -1; // LF may follow in the next read
+            }
+            return p;
+        }
+    }
+
+    /**
+     * Position after the end of the record starting at pos, or -1 if it does not end before limit. Only tracks
+     * quotes, so it is cheaper than tokenize() for finding record boundaries.
+     */
+    public static int recordEnd(ByteBuffer buf, int pos, int limit) {
+        int state = FIELD_START;
+        for (int p = pos; p < limit; p++) {
+            byte c = buf.get(p);
+            if (c == LF && state != QUOTED)
+                return p + 1;
+            state = nextState(state, c);
+        }
+        return -1;
+    }
+
+    // Where a byte is in a record, as scan() reads it. Only a QUOTED line break is not the end of the record.
+    static final int FIELD_START = 0; // after a delimiter and blanks, a quote opens a quoted field
+    static final int UNQUOTED = 1; // in an unquoted field or after a quoted one, quotes are data
+    static final int QUOTED = 2; // in a quoted field
+    static final int QUOTE_IN_QUOTED = 3; // after a quote in a quoted field: it closes it, unless another follows
+    static final int STATES = 4;
+
+    /**
+     * The state after byte c, in state. The same rules as scan(): a quote only opens a field at its start, and ""
+     * is a quote in a quoted field.
+     */
+    static int nextState(int state, byte c) {
+        if (state == QUOTED)
+            return c == QUOTE ? QUOTE_IN_QUOTED : QUOTED;
+        if (state == QUOTE_IN_QUOTED && c == QUOTE)
+            return QUOTED;
+        if (isDelimiter(c))
+            return FIELD_START;
+        if (state == FIELD_START)
+            return c == QUOTE ? QUOTED : isBlank(c) ? FIELD_START : UNQUOTED;
+        return UNQUOTED;
+    }
+
+    private void addField(int start, int end, boolean isQuoted, boolean isEscaped) {
+        if (count == starts.length) {
+            int capacity = count << 1;
+            starts = Arrays.copyOf(starts, capacity);
+            ends = Arrays.copyOf(ends, capacity);
+            quoted = Arrays.copyOf(quoted, capacity);
+            escaped = Arrays.copyOf(escaped, capacity);
+        }
+        starts[count] = start;
+        ends[count] = end;
+        quoted[count] = isQuoted;
+        escaped[count] = isEscaped;
+        count++;
+    }
+
+    private static boolean isBlank(byte c) {
+        return c == ' ' || c == '\t';
+    }
+
+    private static boolean isDelimiter(byte c) {
+        return c == COMMA || c == LF || c == CR;
+    }
+
+    private static boolean isDigit(byte c) {
+        return c >= '0' && c <= '9';
+    }
+
+    public int fieldCount() {
+        return count;
+    }
+
+    /**
+     * Whether the record is an empty line.
+     */
+    public boolean isBlankRecord() {
+        return count == 1 && isEmpty(0);
+    }
+
+    public boolean isEmpty(int field) {
+        return !quoted[field] && starts[field] == ends[field];
+    }
+
+    public boolean isQuoted(int field) {
+        return quoted[field];
+    }
+
+    // The bytes of a field, without quotes and blanks, for the Schema parsers
+    int start(int field) {
+        return starts[field];
+    }
+
+    int end(int field) {
+        return ends[field];
+    }
+
+    byte byteAt(int pos) {
+        return buf.get(pos);
+    }
+
+    /**
+     * Join field and the one after it, including the comma between them. Supports the unquoted "Last, First" name
+     * format of the sample data. Quoted fields are not joined.
+     */
+    public void mergeFields(int field) {
+        if (field + 1 >= count || quoted[field] || quoted[field + 1])
+            return;
+        ends[field] = ends[field + 1];
+        int moved = count - field - 2;
+        System.arraycopy(starts, field + 2, starts, field + 1, moved);
+        System.arraycopy(ends, field + 2, ends, field + 1, moved);
+        System.arraycopy(quoted, field + 2, quoted, field + 1, moved);
+        System.arraycopy(escaped, field + 2, escaped, field + 1, moved);
+        count--;
+    }
+
+    /**
+     * A copy of the current record's bytes, without its line break.
+     */
+    public byte[] recordBytes() {
+        int end = recordEnd;
+        while (end > recordStart && (buf.get(end - 1) == LF || buf.get(end - 1) == CR))
+            end--;
+        byte[] bytes = new byte[end - recordStart];
+        buf.get(recordStart, bytes);
+        return bytes;
+    }
+
+    public String getString(int field) {
+        int start = starts[field];
+        int length = ends[field] - start;
+        String s;
+        if (buf.hasArray()) {
+            s = new String(buf.array(), buf.arrayOffset() + start, length, StandardCharsets.UTF_8);
+        } else {
+            byte[] bytes = new byte[length];
+            buf.get(start, bytes);
+            s = new String(bytes, StandardCharsets.UTF_8);
+        }
+        return escaped[field] ? s.replace("\"\"", "\"") : s;
+    }
+
+    public String[] getStrings() {
+        String[] strings = new String[count];
+        for (int i = 0; i < count; i++)
+            strings[i] = getString(i);
+        return strings;
+    }
+
+    /**
+     * The narrowest type of the field, null if it is empty. Quoted fields are always STRING.
+     *
+     * INT is a plain run of digits [0-9]+ (it may still need a long), DOUBLE is [0-9]{1,13}([.][0-9]*)?, the same
+     * formats CSVSorter.parseValue() recognizes.
+     */
+    public ColumnType classify(int field) {
+        if (quoted[field])
+            return ColumnType.STRING;
+        int start = starts[field];
+        int end = ends[field];
+        if (start == end)
+            return null;
+        int p = start;
+        while (p < end && isDigit(buf.get(p)))
+            p++;
+        int digits = p - start;
+        if (p == end)
+            return digits <= MAX_INTEGER_DIGITS ? ColumnType.INT : ColumnType.STRING;
+        if (digits == 0 || digits > MAX_DOUBLE_INTEGER_DIGITS || buf.get(p) != '.')
+            return ColumnType.STRING;
+        for (p++; p < end; p++)
+            if (!isDigit(buf.get(p)))
+                return ColumnType.STRING;
+        return ColumnType.DOUBLE;
+    }
+
+    /**
+     * A copy of the bytes of a field classified as INT or DOUBLE, the text of a NumberText.
+     */
+    byte[] fieldBytes(int field) {
+        byte[] bytes = new byte[fieldLength(field)];
+        buf.get(starts[field], bytes);
+        return bytes;
+    }
+
+    /**
+     * Length in bytes of a field classified as INT or DOUBLE.
+     */
+    int fieldLength(int field) {
+        return ends[field] - starts[field];
+    }
+
+    /**
+     * Whether a field classified as INT starts with a 0 that its value would not write back, as in 007.
+     */
+    boolean hasLeadingZero(int field) {
+        return buf.get(starts[field]) == '0' && fieldLength(field) > 1;
+    }
+
+    /**
+     * Parse a field classified as INT.
+     */
+    public long parseLong(int field) {
+        long value = 0;
+        for (int p = starts[field], end = ends[field]; p < end; p++)
+            value = value * 10 + (buf.get(p) - '0');
+        return value;
+    }
+
+    /**
+     * Parse a field classified as INT or DOUBLE.
+     *
+     * With at most 15 significant digits, both the digits as an integer and the power of ten are exact doubles, so a
+     * single division gives the correctly rounded result. Longer numbers fall back to Double.parseDouble().
+     */
+    public double parseDouble(int field) {
+        int start = starts[field];
+        int end = ends[field];
+        long mantissa = 0;
+        int fractionDigits = -1;
+        int digits = 0;
+        for (int p = start; p < end; p++) {
+            byte c = buf.get(p);
+            if (c == '.') {
+                fractionDigits = 0;
+                continue;
+            }
+            if (++digits > MAX_INTEGER_DIGITS)
+                return Double.parseDouble(getString(field));
+            mantissa = mantissa * 10 + (c - '0');
+            if (fractionDigits >= 0)
+                fractionDigits++;
+        }
+        if (fractionDigits <= 0)
+            return mantissa;
+        if (mantissa >= MAX_EXACT_MANTISSA || fractionDigits >= POWERS_OF_TEN.length)
+            return Double.parseDouble(getString(field));
+        return mantissa / POWERS_OF_TEN[fractionDigits];
+    }
+
+    /**
+     * The field as CSVSorter.parseValue() would parse it, keeping the text of the numbers their value would not
+     * write back the same: Integer, NumberText for decimals and integers with leading zeros, or String ("" when
+     * empty). Integers too large for an int, which parseValue() can not handle, are a NumberText when they fit the
+     * DOUBLE format and kept as String otherwise.
+     */
+    public Object getValue(int field) {
+        ColumnType type = classify(field);
+        if (type == null)
+            return "";
+        switch (type) {
+        case INT:
+            long l = parseLong(field);
+            if (l <= Integer.MAX_VALUE && !hasLeadingZero(field))
+                return Integer.valueOf((int) l);
+            if (l <= Integer.MAX_VALUE || fieldLength(field) <= MAX_DOUBLE_INTEGER_DIGITS)
+                return new NumberText(l, fieldBytes(field));
+            return getString(field);
+        case DOUBLE:
+            return new NumberText(parseDouble(field), fieldBytes(field));
+        default:
+            return getString(field);
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package com.jia.csv;
+
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes CSV through one large reusable byte buffer.
+ *
+ * Fields are quoted as in RFC 4180 only when needed: when they contain a comma, a quote or a line break, or start
+ * or end with a blank the tokenizer would trim. Integers are written digit by digit without creating a String,
+ * numbers parsed with their text (NumberText) as a copy of its bytes.
+ * writeRaw() copies the original bytes of a record, so its quoting is kept exactly.
+ */
+public class CsvWriter implements RecordSink {
+    public static final int DEFAULT_BUFFER_SIZE = 1024 * 1024;
+
+    private final OutputStream out;
+    private final boolean closeStream;
+    private final byte[] buf;
+    private int pos;
+    private final byte[] digits = new byte[20];
+
+    public CsvWriter(OutputStream out) {
+        this(out, DEFAULT_BUFFER_SIZE, true);
+    }
+
+    /**
+     * @param closeStream whether close() also closes out
+     */
+    public CsvWriter(OutputStream out, int bufferSize, boolean closeStream) {
+        this.out = out;
+        this.buf = new byte[Math.max(bufferSize, 64)];
+        this.closeStream = closeStream;
+    }
+
+    /**
+     * Writer to standard output. Goes straight to the file descriptor instead of the synchronized System.out.
+     */
+    public static CsvWriter stdout() {
+        return new CsvWriter(new FileOutputStream(FileDescriptor.out), DEFAULT_BUFFER_SIZE, false);
+    }
+
+    @Override
+    public void header(String[] names) throws IOException {
+        record(names);
+    }
+
+    @Override
+    public void record(Object[] values) throws IOException {
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0)
+                write(CsvTokenizer.COMMA);
+            Object value = values[i];
+            if (value instanceof Integer || value instanceof Long)
+                writeLong(((Number) value).longValue());
+            else if (value instanceof NumberText)
+                write(((NumberText) value).bytes()); // digits and a point, never quoted
+            else if (value != null)
+                writeField(value.toString());
+        }
+        write(CsvTokenizer.LF);
+    }
+
+    /**
+     * Write a record's original bytes, without line break, and end the line.
+     */
+    public void writeRaw(byte[] bytes, int offset, int length) throws IOException {
+        write(bytes, offset, length);
+        write(CsvTokenizer.LF);
+    }
+
+    private void write(byte[] bytes) throws IOException {
+        write(bytes, 0, bytes.length);
+    }
+
+    private void write(byte[] bytes, int offset, int length) throws IOException {
+        while (length > 0) {
+            if (pos == buf.length)
+                flushBuffer();
+            int n = Math.min(length, buf.length - pos);
+            System.arraycopy(bytes, offset, buf, pos, n);
+            pos += n;
+            offset += n;
+            length -= n;
+        }
+    }
+
+    private void writeField(String s) throws IOException {
+        boolean quote = needsQuotes(s);
+        if (quote)
+            write(CsvTokenizer.QUOTE);
+        for (int i = 0, length = s.length(); i < length; i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                if (c == '"')
+                    write(CsvTokenizer.QUOTE);
+                write((byte) c);
+            } else {
+                // Rare: encode the rest of the field, surrogate pairs included
+                byte[] bytes = s.substring(i).replace("\"", "\"\"").getBytes(StandardCharsets.UTF_8);
+                for (byte b : bytes)
+                    write(b);
+                break;
+            }
+        }
+        if (quote)
+            write(CsvTokenizer.QUOTE);
+    }
+
+    private static boolean needsQuotes(String s) {
+        int length = s.length();
+        if (length == 0)
+            return false;
+        if (isBlank(s.charAt(0)) || isBlank(s.charAt(length - 1)))
+            return true;
+        for (int i = 0; i < length; i++) {
+            char c = s.charAt(i);
+            if (c == ',' || c == '"' || c == '\n' || c == '\r')
+                return true;
+        }
+        return false;
+    }
+
+    private static boolean isBlank(char c) {
+        return c == ' ' || c == '\t';
+    }
+
+    private void writeLong(long value) throws IOException {
+        if (value == Long.MIN_VALUE) {
+            writeField(Long.toString(value));
+            return;
+        }
+        if (value < 0) {
+            write((byte) '-');
+            value = -value;
+        }
+        int n = 0;
+        do {
+            digits[n++] = (byte) ('0' + value % 10);
+            value /= 10;
+        } while (value != 0);
+        while (n > 0)
+            write(digits[--n]);
+    }
+
+    private void write(byte b) throws IOException {
+        if (pos == buf.length)
+            flushBuffer();
+        buf[pos++] = b;
+    }
+
+    private void flushBuffer() throws IOException {
+        out.write(buf, 0, pos);
+        pos = 0;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        flushBuffer();
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        flush();
+        if (closeStream)
+            out.close();
+    }
+}
@@ -0,0 +1,164 @@
+package com.jia.csv;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Groups sorted records by their key columns and passes one row per group to another sink, in one pass: the
+ * records with equal keys are consecutive in sorted output, so only the current group is held.
+ *
+ * Without aggregates each group's first record is passed on unchanged (distinct). With aggregates a group's row is
+ * its key values followed by the aggregates, and is passed on when the next group starts or at flush(). The header
+ * is then the key column names followed by the aggregates, e.g. Name,count,sum(Invoice Amount).
+ *
+ * Keys are equal as the sort compares them (SortKey.compareValues()), so values a schema collates as equal, such as
+ * doe and Doe with string(ci), are one group, shown with its first row's value.
+ */
+public class GroupingSink implements RecordSink {
+    private final RecordSink out;
+    private final int[] keyColumns;
+    private final Aggregate[] aggregates;
+    private final int[] columns; // of the aggregates, -1 for count
+    private final Object[] results; // of the current group per aggregate, null for none yet
+    private Object[] keys; // of the current group, null before the first record
+    private long count; // records of the current group
+
+    /**
+     * @param keyColumns the sort columns, in sort order
+     * @param aggregates of each group, none to only keep each group's first record
+     */
+    public GroupingSink(RecordSink out, int[] keyColumns, List<Aggregate> aggregates) {
+        this.out = out;
+        this.keyColumns = keyColumns.clone();
+        this.aggregates = aggregates.toArray(new Aggregate[0]);
+        this.columns = new int[this.aggregates.length];
+        this.results = new Object[this.aggregates.length];
+    }
+
+    /**
+     * @throws IllegalArgumentException if an aggregate's column is not in the header
+     */
+    @Override
+    public void header(String[] names) throws IOException {
+        keys = null;
+        if (aggregates.length == 0) {
+            out.header(names);
+            return;
+        }
+        String[] header = new String[keyColumns.length + aggregates.length];
+        for (int i = 0; i < keyColumns.length; i++)
+            header[i] = keyColumns[i] < names.length ? names[keyColumns[i]] : "";
+        for (int i = 0; i < aggregates.length; i++) {
+            Aggregate a = aggregates[i];
+            columns[i] = a.resolve(names);
+            String function = a.function.name().toLowerCase(Locale.ROOT);
+            header[keyColumns.length + i] = columns[i] < 0 ? function : function + "(" + names[columns[i]] + ")";
+        }
+        out.header(header);
+    }
+
+    @Override
+    public void record(Object[] values) throws IOException {
+        if (keys == null || !sameKeys(values)) {
+            endGroup();
+            keys = new Object[keyColumns.length];
+            for (int i = 0; i < keyColumns.length; i++)
+                keys[i] = SortKey.valueAt(values, keyColumns[i]);
+            count = 0;
+            if (aggregates.length == 0)
+                out.record(values);
+        }
+        count++;
+        for (int i = 0; i < aggregates.length; i++)
+            add(i, values);
+    }
+
+    private boolean sameKeys(Object[] values) {
+        for (int i = 0; i < keyColumns.length; i++)
+            if (SortKey.compareValues(keys[i], SortKey.valueAt(values, keyColumns[i])) != 0)
+                return false;
+        return true;
+    }
+
+    private void add(int i, Object[] values) {
+        if (columns[i] < 0)
+            return;
+        Object value = SortKey.valueAt(values, columns[i]);
+        Object result = results[i];
+        switch (aggregates[i].function) {
+        case SUM:
+            BigDecimal number = decimal(value);
+            if (number != null)
+                results[i] = result == null ? number : ((BigDecimal) result).add(number);
+            break;
+        case MIN:
+            if (!"".equals(value) && (result == null || SortKey.compareValues(value, result) < 0))
+                results[i] = value;
+            break;
+        case MAX:
+            if (!"".equals(value) && (result == null || SortKey.compareValues(value, result) > 0))
+                results[i] = value;
+            break;
+        case FIRST:
+            if (count == 1)
+                results[i] = value;
+            break;
+        default:
+            break;
+        }
+    }
+
+    /**
+     * The exact value of a number, from its text unless it was parsed as an Integer or Long, null if it is not one.
+     */
+    private static BigDecimal decimal(Object value) {
+        if (value instanceof Integer || value instanceof Long)
+            return BigDecimal.valueOf(((Number) value).longValue());
+        if (value instanceof Double)
+            return BigDecimal.valueOf((Double) value);
+        String text = value.toString();
+        if (text.isEmpty())
+            return null;
+        try {
+            return new BigDecimal(text);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    // Pass on the row of the current group, if it has aggregates
+    private void endGroup() throws IOException {
+        if (keys == null || aggregates.length == 0)
+            return;
+        Object[] row = new Object[keys.length + aggregates.length];
+        System.arraycopy(keys, 0, row, 0, keys.length);
+        for (int i = 0; i < aggregates.length; i++) {
+            Object result = results[i];
+            if (aggregates[i].function == Aggregate.Function.COUNT)
+                result = count;
+            else if (result instanceof BigDecimal)
+                result = ((BigDecimal) result).toPlainString();
+            row[keys.length + i] = result != null ? result : "";
+            results[i] = null;
+        }
+        out.record(row);
+    }
+
+    /**
+     * End the current group, the next record starts a new one, and flush the sink.
+     */
+    @Override
+    public void flush() throws IOException {
+        endGroup();
+        keys = null;
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        flush();
+        out.close();
+    }
+}
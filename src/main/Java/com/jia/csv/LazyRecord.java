@@ -0,0 +1,18 @@
+package com.jia.csv;
+
+/**
+ * A row kept as its original bytes, with only the sort column values parsed.
+ *
+ * The other fields are never type converted: output copies the bytes through verbatim, and a sink that needs
+ * values tokenizes them again (CSVSorter.values()). A row takes its length in bytes plus the key values, instead
+ * of one boxed value or String per field.
+ */
+final class LazyRecord {
+    final byte[] bytes; // without the line break
+    final Comparable<Object>[] keys; // values of the sort columns, in sort order
+
+    LazyRecord(byte[] bytes, Comparable<Object>[] keys) {
+        this.bytes = bytes;
+        this.keys = keys;
+    }
+}
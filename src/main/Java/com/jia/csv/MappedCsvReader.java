@@ -0,0 +1,226 @@
+package com.jia.csv;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Reads a CSV file through memory mapped regions and parses it in parallel.
+ *
+ * The file after the header is cut into chunks that end on record boundaries:
+ * 1. The bytes are split into fixed size raw chunks. Each raw chunk is scanned in parallel with the tokenizer's
+ *    quote rules (CsvTokenizer.nextState()) from each state it could start in, giving the state it ends in for each.
+ * 2. From the start of the data, a record start, these give the state each raw chunk really starts in: whether it
+ *    starts inside a quoted field, or inside an unquoted field where a quote is only data. Knowing that, each chunk
+ *    boundary is moved to just after the first line break that is not inside quotes.
+ * 3. Each chunk is mapped and tokenized on its own thread into its own list. The lists are joined in file order.
+ *
+ * No String is created unless the record parser asks the tokenizer for one.
+ */
+public class MappedCsvReader implements Closeable {
+    public static final int MIN_CHUNK_SIZE = 1024 * 1024;
+    public static final int MAX_CHUNK_SIZE = 256 * 1024 * 1024;
+
+    private final FileChannel channel;
+    private final long size;
+    private final CsvTokenizer headerTokenizer = new CsvTokenizer();
+    private long dataStart;
+    private boolean hasHeader;
+    private int chunkSize;
+
+    public MappedCsvReader(Path path) throws IOException {
+        this.channel = FileChannel.open(path, StandardOpenOption.READ);
+        this.size = channel.size();
+        readHeader();
+        int parallelism = ForkJoinPool.getCommonPoolParallelism() + 1;
+        long target = (size - dataStart) / (parallelism * 4L);
+        this.chunkSize = (int) Math.max(MIN_CHUNK_SIZE, Math.min(MAX_CHUNK_SIZE, target));
+    }
+
+    /**
+     * For testing with small files.
+     */
+    public void setChunkSize(int chunkSize) {
+        this.chunkSize = Math.max(chunkSize, 1);
+    }
+
+    /**
+     * The first record's fields, or an empty array for an empty file.
+     */
+    public String[] header() {
+        return hasHeader ? headerTokenizer.getStrings() : new String[0];
+    }
+
+    /**
+     * Parse all records after the header with parser, in file order. parser is called concurrently, each time with
+     * the tokenizer of one chunk positioned on a record. Blank lines are skipped.
+     */
+    public <T> List<T> parse(Function<CsvTokenizer, T> parser) throws IOException {
+        long[] boundaries = chunkBoundaries();
+        try {
+            List<List<T>> chunks = IntStream.range(0, boundaries.length - 1).parallel()
+                    .mapToObj(i -> parseChunk(boundaries[i], boundaries[i + 1], parser))
+                    .collect(Collectors.toList());
+            List<T> records = new ArrayList<>(chunks.stream().mapToInt(List::size).sum());
+            chunks.forEach(records::addAll);
+            return records;
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    private void readHeader() throws IOException {
+        long length = Math.min(size, MIN_CHUNK_SIZE);
+        while (true) {
+            MappedByteBuffer buf = channel.map(MapMode.READ_ONLY, 0, length);
+            int end = headerTokenizer.tokenize(buf, 0, (int) length, length == size);
+            if (end >= 0) {
+                hasHeader = true;
+                dataStart = end;
+                return;
+            }
+            if (length == size) { // empty file
+                dataStart = size;
+                return;
+            }
+            length = Math.min(size, length << 1);
+            if (length > Integer.MAX_VALUE)
+                throw new IOException("Header record too long");
+        }
+    }
+
+    /**
+     * Record aligned chunk boundaries, from the start of the data to the end of the file.
+     */
+    private long[] chunkBoundaries() throws IOException {
+        long dataSize = size - dataStart;
+        int rawChunks = (int) Math.max(1, (dataSize + chunkSize - 1) / chunkSize);
+
+        // 1. The end state of each raw chunk for each start state
+        int[][] endStates;
+        try {
+            endStates = IntStream.range(0, rawChunks - 1).parallel()
+                    .mapToObj(i -> endStates(rawStart(i), rawEnd(i))).toArray(int[][]::new);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+
+        // 2. Move each raw start to the next record boundary
+        int[] states = new int[rawChunks];
+        states[0] = CsvTokenizer.FIELD_START;
+        for (int i = 1; i < rawChunks; i++)
+            states[i] = endStates[i - 1][states[i - 1]];
+
+        long[] boundaries = new long[rawChunks + 1];
+        boundaries[0] = dataStart;
+        boundaries[rawChunks] = size;
+        try {
+            IntStream.range(1, rawChunks).parallel()
+                    .forEach(i -> boundaries[i] = nextRecordStart(rawStart(i), states[i]));
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        return boundaries;
+    }
+
+    private long rawStart(int chunk) {
+        return dataStart + (long) chunk * chunkSize;
+    }
+
+    private long rawEnd(int chunk) {
+        return Math.min(size, rawStart(chunk) + chunkSize);
+    }
+
+    /**
+     * The state at end, for each state at start: states[s] for start state s. The states are scanned side by side
+     * until they meet, usually at the first line break outside quotes, then as one.
+     */
+    private int[] endStates(long start, long end) {
+        MappedByteBuffer buf = map(start, end);
+        int[] states = new int[CsvTokenizer.STATES];
+        for (int s = 0; s < states.length; s++)
+            states[s] = s;
+        int i = 0;
+        int length = (int) (end - start);
+        for (; i < length && !allEqual(states); i++) {
+            byte c = buf.get(i);
+            for (int s = 0; s < states.length; s++)
+                states[s] = CsvTokenizer.nextState(states[s], c);
+        }
+        if (i < length) {
+            int state = states[0];
+            for (; i < length; i++)
+                state = CsvTokenizer.nextState(state, buf.get(i));
+            Arrays.fill(states, state);
+        }
+        return states;
+    }
+
+    private static boolean allEqual(int[] states) {
+        for (int state : states)
+            if (state != states[0])
+                return false;
+        return true;
+    }
+
+    /**
+     * Position after the first line break at or after from that is outside quotes, or the end of the file.
+     *
+     * @param state the tokenizer state at from, see CsvTokenizer.nextState()
+     */
+    private long nextRecordStart(long from, int state) {
+        for (long start = from; start < size; start += chunkSize) {
+            long end = Math.min(size, start + chunkSize);
+            MappedByteBuffer buf = map(start, end);
+            for (int i = 0, length = (int) (end - start); i < length; i++) {
+                byte c = buf.get(i);
+                if (c == CsvTokenizer.LF && state != CsvTokenizer.QUOTED)
+                    return start + i + 1;
+                state = CsvTokenizer.nextState(state, c);
+            }
+        }
+        return size;
+    }
+
+    private <T> List<T> parseChunk(long start, long end, Function<CsvTokenizer, T> parser) {
+        List<T> records = new ArrayList<>();
+        if (start >= end)
+            return records;
+        if (end - start > Integer.MAX_VALUE)
+            throw new UncheckedIOException(new IOException("Record too long at offset " + start));
+        MappedByteBuffer buf = map(start, end);
+        CsvTokenizer tokenizer = new CsvTokenizer();
+        int limit = (int) (end - start);
+        int pos = 0;
+        while ((pos = tokenizer.tokenize(buf, pos, limit, true)) >= 0) {
+            if (!tokenizer.isBlankRecord())
+                records.add(parser.apply(tokenizer));
+        }
+        return records;
+    }
+
+    private MappedByteBuffer map(long start, long end) {
+        try {
+            return channel.map(MapMode.READ_ONLY, start, end - start);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
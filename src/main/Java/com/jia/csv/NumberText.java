@@ -0,0 +1,76 @@
+package com.jia.csv;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * A number parsed from a field together with the field's text, for the numbers toString() would not write back as
+ * they were: decimals such as 1.50, 0.0001 or 12345678.5, integers with leading zeros such as 007 and integers too
+ * large for an Integer. It sorts as its double value among the other numbers and is written as its text.
+ *
+ * The text is kept as the field's bytes, all ASCII, which CsvWriter copies to the output. A String is only created
+ * by text() and toString().
+ */
+public final class NumberText extends Number implements Comparable<NumberText> {
+    private static final long serialVersionUID = 1L;
+
+    private final double value;
+    private final byte[] text;
+
+    NumberText(double value, byte[] text) {
+        this.value = value;
+        this.text = text;
+    }
+
+    NumberText(double value, String text) {
+        this(value, text.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    public String text() {
+        return new String(text, StandardCharsets.US_ASCII);
+    }
+
+    byte[] bytes() {
+        return text;
+    }
+
+    @Override
+    public int intValue() {
+        return (int) value;
+    }
+
+    @Override
+    public long longValue() {
+        return (long) value;
+    }
+
+    @Override
+    public float floatValue() {
+        return (float) value;
+    }
+
+    @Override
+    public double doubleValue() {
+        return value;
+    }
+
+    @Override
+    public int compareTo(NumberText o) {
+        return Double.compare(value, o.value);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof NumberText && Arrays.equals(text, ((NumberText) o).text);
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(text);
+    }
+
+    @Override
+    public String toString() {
+        return text();
+    }
+}
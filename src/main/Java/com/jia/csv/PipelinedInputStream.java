@@ -0,0 +1,133 @@
+package com.jia.csv;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Reads a source stream on its own thread, ahead of the consumer, through a bounded queue of blocks. With a
+ * GZIPInputStream as source, inflating the next blocks overlaps with parsing the current one. When the queue is
+ * full the reader waits, so at most queueBlocks blocks are buffered.
+ *
+ * Read errors of the source are thrown to the consumer once it has read everything before them. Blocks are reused
+ * once consumed.
+ */
+public final class PipelinedInputStream extends InputStream {
+    public static final int DEFAULT_BLOCK_SIZE = 64 * 1024;
+    public static final int DEFAULT_QUEUE_BLOCKS = 16;
+    private static final byte[] END = new byte[0];
+
+    private final InputStream source;
+    private final int blockSize;
+    private final BlockingQueue<byte[]> blocks;
+    private final BlockingQueue<byte[]> free;
+    private final Thread reader;
+    private volatile IOException failure;
+    private volatile boolean closed;
+    private byte[] block;
+    private int pos;
+
+    public PipelinedInputStream(InputStream source) {
+        this(source, DEFAULT_BLOCK_SIZE, DEFAULT_QUEUE_BLOCKS);
+    }
+
+    public PipelinedInputStream(InputStream source, int blockSize, int queueBlocks) {
+        if (blockSize < 1 || queueBlocks < 1)
+            throw new IllegalArgumentException("Block size and queue length must be positive");
+        this.source = source;
+        this.blockSize = blockSize;
+        this.blocks = new ArrayBlockingQueue<>(queueBlocks);
+        this.free = new ArrayBlockingQueue<>(queueBlocks + 1);
+        this.reader = new Thread(this::fill, "csvsort-pipelined-read");
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    // Runs on the reader thread, which also closes the source. Each block is full except the last one.
+    private void fill() {
+        try (InputStream in = source) {
+            boolean end = false;
+            while (!end && !closed) {
+                byte[] b = free.poll();
+                if (b == null)
+                    b = new byte[blockSize];
+                int n = 0;
+                try {
+                    while (n < blockSize) {
+                        int read = in.read(b, n, blockSize - n);
+                        if (read < 0)
+                            break;
+                        n += read;
+                    }
+                } catch (IOException e) {
+                    failure = e; // after the bytes read before it
+                }
+                end = n < blockSize;
+                if (n > 0)
+                    blocks.put(end ? Arrays.copyOf(b, n) : b);
+            }
+            blocks.put(END);
+        } catch (InterruptedException | IOException e) {
+            // closed, or failed to close the source
+        }
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!nextBlock())
+            return -1;
+        return block[pos++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0)
+            return 0;
+        if (!nextBlock())
+            return -1;
+        int n = Math.min(len, block.length - pos);
+        System.arraycopy(block, pos, b, off, n);
+        pos += n;
+        return n;
+    }
+
+    @Override
+    public int available() {
+        return block != null ? block.length - pos : 0;
+    }
+
+    // Make sure there is something left in block, false at the end
+    private boolean nextBlock() throws IOException {
+        if (block != null && pos < block.length)
+            return true;
+        if (block == END)
+            return false;
+        if (block != null && block.length == blockSize)
+            free.offer(block);
+        try {
+            block = blocks.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for input");
+        }
+        pos = 0;
+        if (block == END) {
+            if (failure != null)
+                throw failure;
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Stop reading ahead. The reader thread closes the source when it is done with its current block.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        reader.interrupt();
+    }
+}
@@ -0,0 +1,152 @@
+package com.jia.csv;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Passes records to a target sink on its own thread, behind the producer, through a bounded queue of batches. With
+ * a CsvWriter as target, formatting and writing the output overlaps with merging the next records. When the queue
+ * is full the producer waits, so at most queueBatches batches are buffered.
+ *
+ * The header is passed once the queue is empty, on the calling thread. Errors of the target are thrown at the next
+ * call to flush() or close(), or at record() once known; the records after an error are dropped.
+ */
+public final class PipelinedSink implements RecordSink {
+    public static final int DEFAULT_BATCH_SIZE = 4096;
+    public static final int DEFAULT_QUEUE_BATCHES = 16;
+    private static final Object[][] SYNC = new Object[0][];
+    private static final Object[][] END = new Object[0][];
+
+    private final RecordSink target;
+    private final boolean closeTarget;
+    private final int batchSize;
+    private final BlockingQueue<Object[][]> batches;
+    private final Semaphore synced = new Semaphore(0);
+    private final Thread writer;
+    private volatile Exception failure;
+    private Object[][] batch;
+    private int size;
+
+    public PipelinedSink(RecordSink target) {
+        this(target, DEFAULT_BATCH_SIZE, DEFAULT_QUEUE_BATCHES, true);
+    }
+
+    /**
+     * @param closeTarget whether close() also closes target
+     */
+    public PipelinedSink(RecordSink target, int batchSize, int queueBatches, boolean closeTarget) {
+        if (batchSize < 1 || queueBatches < 1)
+            throw new IllegalArgumentException("Batch size and queue length must be positive");
+        this.target = target;
+        this.closeTarget = closeTarget;
+        this.batchSize = batchSize;
+        this.batches = new ArrayBlockingQueue<>(queueBatches);
+        this.batch = new Object[batchSize][];
+        this.writer = new Thread(this::drain, "csvsort-pipelined-write");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    // Runs on the writer thread until END
+    private void drain() {
+        try {
+            while (true) {
+                Object[][] b = batches.take();
+                if (b == END)
+                    return;
+                if (b == SYNC) {
+                    synced.release();
+                    continue;
+                }
+                for (int i = 0; i < b.length && b[i] != null && failure == null; i++) {
+                    try {
+                        target.record(b[i]);
+                    } catch (IOException | RuntimeException e) {
+                        failure = e;
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            // closed
+        }
+    }
+
+    @Override
+    public void header(String[] names) throws IOException {
+        sync();
+        target.header(names);
+    }
+
+    @Override
+    public void record(Object[] values) throws IOException {
+        batch[size++] = values;
+        if (size == batchSize) {
+            send();
+            checkFailure();
+        }
+    }
+
+    // Queue the current batch, a full one or the records so far
+    private void send() throws IOException {
+        if (size == 0)
+            return;
+        Object[][] b = batch;
+        batch = new Object[batchSize][];
+        size = 0;
+        put(b);
+    }
+
+    // Wait for the writer to pass on everything queued so far
+    private void sync() throws IOException {
+        send();
+        put(SYNC);
+        try {
+            synced.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for output");
+        }
+        checkFailure();
+    }
+
+    private void put(Object[][] b) throws IOException {
+        try {
+            batches.put(b);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for output");
+        }
+    }
+
+    private void checkFailure() throws IOException {
+        Exception e = failure;
+        if (e instanceof IOException)
+            throw (IOException) e;
+        if (e != null)
+            throw (RuntimeException) e;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        sync();
+        target.flush();
+    }
+
+    /**
+     * Flush, stop the writer thread and close the target if closeTarget.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            batches.clear();
+            put(END);
+            if (closeTarget)
+                target.close();
+        }
+    }
+}
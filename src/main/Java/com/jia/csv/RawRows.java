@@ -0,0 +1,97 @@
+package com.jia.csv;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Where each row's original bytes are in the input file, so sorted rows can be written by row index as they were
+ * read, without serializing the parsed values again.
+ *
+ * The file is memory mapped in 1GB segments, each overlapping the next by 1MB, so reading a row in sorted order is
+ * a copy instead of a system call. Longer rows that cross a segment end are read from the channel.
+ */
+final class RawRows implements Closeable {
+    private static final long SEGMENT_SIZE = 1L << 30;
+    private static final long SEGMENT_OVERLAP = 1L << 20;
+
+    private final FileChannel channel;
+    private final MappedByteBuffer[] segments;
+    private long[] offsets = new long[1024];
+    private int[] lengths = new int[1024];
+    private int size;
+    private ByteBuffer buffer = ByteBuffer.allocate(4096);
+
+    RawRows(Path path) throws IOException {
+        this.channel = FileChannel.open(path, StandardOpenOption.READ);
+        long size = channel.size();
+        segments = new MappedByteBuffer[(int) ((size + SEGMENT_SIZE - 1) / SEGMENT_SIZE)];
+        for (int i = 0; i < segments.length; i++) {
+            long start = i * SEGMENT_SIZE;
+            segments[i] = channel.map(MapMode.READ_ONLY, start, Math.min(size - start, SEGMENT_SIZE + SEGMENT_OVERLAP));
+        }
+    }
+
+    int size() {
+        return size;
+    }
+
+    void add(long offset, int length) {
+        if (size == offsets.length) {
+            offsets = Arrays.copyOf(offsets, size << 1);
+            lengths = Arrays.copyOf(lengths, size << 1);
+        }
+        offsets[size] = offset;
+        lengths[size] = length;
+        size++;
+    }
+
+    void write(int row, CsvWriter out) throws IOException {
+        write(offsets[row], lengths[row], out);
+    }
+
+    /**
+     * Write the row at offset in the file, whether added or not.
+     */
+    void write(long offset, int length, CsvWriter out) throws IOException {
+        out.writeRaw(read(offset, length).array(), 0, length);
+    }
+
+    /**
+     * A copy of the row at offset in the file.
+     */
+    byte[] bytes(long offset, int length) throws IOException {
+        return Arrays.copyOf(read(offset, length).array(), length);
+    }
+
+    private ByteBuffer read(long offset, int length) throws IOException {
+        if (buffer.capacity() < length)
+            buffer = ByteBuffer.allocate(Math.max(length, buffer.capacity() << 1));
+        buffer.clear().limit(length);
+        int segment = (int) (offset / SEGMENT_SIZE);
+        if (segment < segments.length) {
+            int position = (int) (offset - segment * SEGMENT_SIZE);
+            if (position + length <= segments[segment].limit()) {
+                segments[segment].get(position, buffer.array(), 0, length);
+                return buffer;
+            }
+        }
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, offset + buffer.position()) < 0)
+                throw new EOFException("File changed while sorting");
+        }
+        return buffer;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,134 @@
+package com.jia.csv;
+
+import com.jia.sort.ExternalMergeSort;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Serializes parsed records (arrays of Integer, Double, NumberText, String and TypedValue values) to and from the
+ * run files of an external sort. Each value is written with a one byte type tag so it is read back as the same type.
+ */
+final class RecordCodec implements ExternalMergeSort.Codec<Comparable<Object>[]> {
+    private static final byte INTEGER_TAG = 'I';
+    private static final byte DOUBLE_TAG = 'D';
+    private static final byte NUMBER_TEXT_TAG = 'T';
+    private static final byte STRING_TAG = 'S';
+    private static final byte TYPED_NUMBER_TAG = 'N';
+    private static final byte COLLATED_TAG = 'C';
+
+    // Rough heap footprint of the objects making up a record on a 64-bit JVM with compressed oops
+    private static final int ARRAY_OVERHEAD = 16;
+    private static final int REFERENCE_SIZE = 4;
+    private static final int INTEGER_SIZE = 16;
+    private static final int DOUBLE_SIZE = 24;
+    private static final int NUMBER_TEXT_SIZE = 24;
+    private static final int STRING_OVERHEAD = 40;
+    private static final int TYPED_VALUE_SIZE = 32;
+
+    @Override
+    public void write(DataOutputStream out, Comparable<Object>[] record) throws IOException {
+        out.writeInt(record.length);
+        for (Object value : record) {
+            if (value instanceof Integer) {
+                out.writeByte(INTEGER_TAG);
+                out.writeInt((Integer) value);
+            } else if (value instanceof Double) {
+                out.writeByte(DOUBLE_TAG);
+                out.writeDouble((Double) value);
+            } else if (value instanceof NumberText) {
+                out.writeByte(NUMBER_TEXT_TAG);
+                out.writeDouble(((NumberText) value).doubleValue());
+                writeBytes(out, ((NumberText) value).bytes());
+            } else if (value instanceof TypedValue) {
+                TypedValue typed = (TypedValue) value;
+                if (typed.isNumber()) {
+                    out.writeByte(TYPED_NUMBER_TAG);
+                    out.writeLong(typed.number());
+                } else {
+                    out.writeByte(COLLATED_TAG);
+                    writeString(out, typed.collationKey());
+                }
+                writeString(out, typed.text());
+            } else {
+                out.writeByte(STRING_TAG);
+                writeString(out, String.valueOf(value));
+            }
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public Comparable<Object>[] read(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        Comparable<?>[] record = new Comparable<?>[length];
+        for (int i = 0; i < length; i++) {
+            byte tag = in.readByte();
+            switch (tag) {
+            case INTEGER_TAG:
+                record[i] = in.readInt();
+                break;
+            case DOUBLE_TAG:
+                record[i] = in.readDouble();
+                break;
+            case NUMBER_TEXT_TAG:
+                double d = in.readDouble();
+                record[i] = new NumberText(d, readBytes(in));
+                break;
+            case STRING_TAG:
+                record[i] = readString(in);
+                break;
+            case TYPED_NUMBER_TAG:
+                long number = in.readLong();
+                record[i] = new TypedValue(number, readString(in));
+                break;
+            case COLLATED_TAG:
+                String key = readString(in);
+                record[i] = new TypedValue(key, readString(in));
+                break;
+            default:
+                throw new IOException("Corrupt run file: unknown value tag " + tag);
+            }
+        }
+        return (Comparable<Object>[]) record;
+    }
+
+    // writeUTF() is limited to 64K, so write the length and bytes ourselves
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        writeBytes(out, s.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        return new String(readBytes(in), StandardCharsets.UTF_8);
+    }
+
+    private static byte[] readBytes(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return bytes;
+    }
+
+    static long estimateSize(Comparable<Object>[] record) {
+        long size = ARRAY_OVERHEAD + (long) REFERENCE_SIZE * record.length;
+        for (Object value : record) {
+            if (value instanceof Integer)
+                size += INTEGER_SIZE;
+            else if (value instanceof Double)
+                size += DOUBLE_SIZE;
+            else if (value instanceof NumberText)
+                size += NUMBER_TEXT_SIZE + ARRAY_OVERHEAD + ((NumberText) value).bytes().length;
+            else if (value instanceof String)
+                size += STRING_OVERHEAD + ((String) value).length();
+            else if (value instanceof TypedValue)
+                size += TYPED_VALUE_SIZE + 2 * STRING_OVERHEAD + ((TypedValue) value).text().length();
+        }
+        return size;
+    }
+}
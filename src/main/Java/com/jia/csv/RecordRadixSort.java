@@ -0,0 +1,117 @@
+package com.jia.csv;
+
+import com.jia.sort.RadixSort;
+
+import java.util.List;
+import java.util.ListIterator;
+import java.util.function.Function;
+
+/**
+ * Radix sort of parsed records, in the same order as the comparator chain and with the same stable result.
+ *
+ * The records are sorted by each sort column, from the last to the first. For one column the records are split,
+ * keeping their order, into the three kinds of SortKey.compareValues(): empty, numbers and strings. The numbers are
+ * LSD radix sorted by their double bits (typed numbers by their long key), the strings MSD radix sorted (collated
+ * strings by their key), then the groups are put back together in order (reversed if descending). A column holding
+ * only one kind of value just gets the one sort.
+ */
+final class RecordRadixSort {
+
+    // Smaller lists are merge sorted
+    static final int THRESHOLD = 1024;
+
+    private RecordRadixSort() {
+    }
+
+    static <T> void sort(List<T> records, int[] columns, boolean[] descending) {
+        sort(records, record -> (Object[]) record, columns, descending);
+    }
+
+    /**
+     * Sort records by the values values() gives for each, where columns index those values.
+     */
+    static <T> void sort(List<T> records, Function<? super T, ? extends Object[]> values, int[] columns,
+            boolean[] descending) {
+        Object[] copy = records.toArray();
+        Object[] keys = new Object[copy.length];
+        for (int i = 0; i < copy.length; i++) {
+            @SuppressWarnings("unchecked")
+            T record = (T) copy[i];
+            keys[i] = values.apply(record);
+        }
+        int[] rows = sortedRows(keys, columns, descending);
+
+        ListIterator<T> it = records.listIterator();
+        for (int row : rows) {
+            it.next();
+            @SuppressWarnings("unchecked")
+            T record = (T) copy[row];
+            it.set(record);
+        }
+    }
+
+    /**
+     * Indexes of records in sorted order.
+     */
+    static int[] sortedRows(Object[] records, int[] columns, boolean[] descending) {
+        int[] rows = new int[records.length];
+        for (int i = 0; i < rows.length; i++)
+            rows[i] = i;
+        for (int i = columns.length - 1; i >= 0; i--)
+            sortColumn(records, rows, columns[i], descending[i]);
+        return rows;
+    }
+
+    private static void sortColumn(Object[] records, int[] rows, int column, boolean descending) {
+        int n = rows.length;
+        int empties = 0;
+        int numbers = 0;
+        for (int row : rows) {
+            Object value = SortKey.valueAt((Object[]) records[row], column);
+            if (isNumber(value))
+                numbers++;
+            else if (value == null || value instanceof String && ((String) value).isEmpty())
+                empties++;
+        }
+        int strings = n - empties - numbers;
+
+        int[] emptyRows = new int[empties];
+        int[] numberRows = new int[numbers];
+        long[] numberKeys = new long[numbers];
+        int[] stringRows = new int[strings];
+        String[] stringKeys = new String[strings];
+        int e = 0;
+        int d = 0;
+        int s = 0;
+        for (int row : rows) {
+            Object value = SortKey.valueAt((Object[]) records[row], column);
+            if (isNumber(value)) {
+                long key = value instanceof TypedValue ? ((TypedValue) value).number() ^ Long.MIN_VALUE
+                        : RadixSort.sortableDouble(((Number) value).doubleValue());
+                numberKeys[d] = descending ? ~key : key;
+                numberRows[d++] = row;
+            } else if (value == null || value instanceof String && ((String) value).isEmpty()) {
+                emptyRows[e++] = row;
+            } else {
+                stringKeys[s] = SortKey.sortString(value);
+                stringRows[s++] = row;
+            }
+        }
+        RadixSort.sort(numberRows, numberKeys);
+        RadixSort.sort(stringRows, stringKeys, descending);
+
+        if (descending) {
+            System.arraycopy(stringRows, 0, rows, 0, strings);
+            System.arraycopy(numberRows, 0, rows, strings, numbers);
+            System.arraycopy(emptyRows, 0, rows, strings + numbers, empties);
+        } else {
+            System.arraycopy(emptyRows, 0, rows, 0, empties);
+            System.arraycopy(numberRows, 0, rows, empties, numbers);
+            System.arraycopy(stringRows, 0, rows, empties + numbers, strings);
+        }
+    }
+
+    private static boolean isNumber(Object value) {
+        return value instanceof Number || value instanceof TypedValue && ((TypedValue) value).isNumber();
+    }
+}
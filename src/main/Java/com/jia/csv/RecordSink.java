@@ -0,0 +1,20 @@
+package com.jia.csv;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Receives the header and then the sorted records of a sort.
+ */
+public interface RecordSink extends Closeable {
+
+    void header(String[] names) throws IOException;
+
+    /**
+     * One record, values as parsed: Integer, NumberText (a number that keeps its text) or String, TypedValue for the
+     * columns of a schema, and Long or Double from columnar reads and aggregates.
+     */
+    void record(Object[] values) throws IOException;
+
+    void flush() throws IOException;
+}
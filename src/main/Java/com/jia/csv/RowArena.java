@@ -0,0 +1,198 @@
+package com.jia.csv;
+
+import com.jia.sort.NormalizedKeySort;
+import com.jia.sort.SortMetrics;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Rows and their sort keys packed into direct (off-heap) memory, sorted without creating a heap object per row.
+ *
+ * Each row is appended to a 64MB chunk as key length, row length, SortKey encoding and the row's bytes. The index,
+ * also off-heap, has two longs per row: the first 8 key bytes as an unsigned prefix, and where the row is (chunk
+ * number and offset). sort() merge sorts the index entries, comparing the prefixes and only reading the rest of
+ * the keys when they are equal. The rows themselves never move.
+ *
+ * So the heap holds a few objects per chunk whatever the number of rows. Direct memory is limited by
+ * -XX:MaxDirectMemorySize, the heap size by default. It is only freed when the buffers are garbage collected, so
+ * clear() and reuse an arena rather than creating one per sort.
+ */
+final class RowArena {
+    static final int CHUNK_SIZE = 64 * 1024 * 1024;
+    private static final int HEADER = 8; // key length, row length
+    private static final int INSERTION_SORT_CUTOFF = 7;
+
+    private final List<ByteBuffer> chunks = new ArrayList<>();
+    private int chunk = -1; // the chunk being filled
+    private LongBuffer index = allocateIndex(1024);
+    private LongBuffer aux;
+    private int size;
+    private byte[] scratch = new byte[256];
+    private long comparisons;
+    private AtomicBoolean cancelled; // of the running sort()
+
+    private static LongBuffer allocateIndex(int rows) {
+        return ByteBuffer.allocateDirect(rows * 16).order(ByteOrder.nativeOrder()).asLongBuffer();
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Remove all rows, keeping the memory for the next ones.
+     */
+    void clear() {
+        for (ByteBuffer c : chunks)
+            c.clear();
+        chunk = chunks.isEmpty() ? -1 : 0;
+        size = 0;
+    }
+
+    void add(byte[] key, byte[] row) {
+        int length = HEADER + key.length + row.length;
+        while (chunk < 0 || chunks.get(chunk).remaining() < length) {
+            chunk++;
+            if (chunk == chunks.size())
+                chunks.add(ByteBuffer.allocateDirect(Math.max(CHUNK_SIZE, length)));
+            else if (chunks.get(chunk).capacity() < length)
+                chunks.set(chunk, ByteBuffer.allocateDirect(length));
+        }
+        ByteBuffer data = chunks.get(chunk);
+        long pointer = (long) chunk << 32 | data.position();
+        data.putInt(key.length).putInt(row.length).put(key).put(row);
+
+        if (2 * size == index.capacity()) {
+            if (size > Integer.MAX_VALUE / 32)
+                throw new IllegalStateException("Too many rows for the off-heap index: " + size);
+            LongBuffer grown = allocateIndex(size << 1);
+            grown.put(index.clear());
+            index = grown;
+        }
+        index.put(2 * size, NormalizedKeySort.prefix(key));
+        index.put(2 * size + 1, pointer);
+        size++;
+    }
+
+    /**
+     * Sort the rows by key. Stable: rows with equal keys stay in the order they were added. Checks cancelled at each
+     * comparison and throws CancellationException once it is set.
+     */
+    void sort(SortMetrics metrics, AtomicBoolean cancelled) {
+        this.cancelled = cancelled;
+        if (aux == null || aux.capacity() < index.capacity())
+            aux = allocateIndex(index.capacity() / 2);
+        for (int i = 0; i < 2 * size; i++)
+            aux.put(i, index.get(i));
+        comparisons = 0;
+        mergeSort(aux, index, 0, size, metrics);
+        if (metrics != null)
+            metrics.addComparisons(comparisons);
+    }
+
+    /**
+     * Sort dest[low, high) using src, which holds the same entries, as the other buffer. As in MergeSort.
+     */
+    private void mergeSort(LongBuffer src, LongBuffer dest, int low, int high, SortMetrics metrics) {
+        int length = high - low;
+        if (length < INSERTION_SORT_CUTOFF) {
+            int swaps = 0;
+            for (int i = low; i < high; i++)
+                for (int j = i; j > low && compare(dest, j - 1, dest, j) > 0; j--) {
+                    swap(dest, j, j - 1);
+                    swaps++;
+                }
+            if (metrics != null)
+                metrics.addMoves(2 * swaps);
+            return;
+        }
+
+        int mid = (low + high) >>> 1;
+        mergeSort(dest, src, low, mid, metrics);
+        mergeSort(dest, src, mid, high, metrics);
+
+        boolean presorted = compare(src, mid - 1, src, mid) <= 0;
+        if (metrics != null) {
+            metrics.presorted(presorted);
+            metrics.addMoves(length);
+        }
+        if (presorted) {
+            for (int i = 2 * low; i < 2 * high; i++)
+                dest.put(i, src.get(i));
+            return;
+        }
+
+        for (int i = low, p = low, q = mid; i < high; i++) {
+            int from = q >= high || p < mid && compare(src, p, src, q) <= 0 ? p++ : q++;
+            dest.put(2 * i, src.get(2 * from));
+            dest.put(2 * i + 1, src.get(2 * from + 1));
+        }
+    }
+
+    private static void swap(LongBuffer b, int i, int j) {
+        long prefix = b.get(2 * i);
+        long pointer = b.get(2 * i + 1);
+        b.put(2 * i, b.get(2 * j));
+        b.put(2 * i + 1, b.get(2 * j + 1));
+        b.put(2 * j, prefix);
+        b.put(2 * j + 1, pointer);
+    }
+
+    private int compare(LongBuffer a, int i, LongBuffer b, int j) {
+        if (cancelled.get())
+            throw new CancellationException("Sort cancelled");
+        comparisons++;
+        int n = Long.compareUnsigned(a.get(2 * i), b.get(2 * j));
+        if (n != 0)
+            return n;
+        long p0 = a.get(2 * i + 1);
+        long p1 = b.get(2 * j + 1);
+        ByteBuffer c0 = chunks.get((int) (p0 >>> 32));
+        ByteBuffer c1 = chunks.get((int) (p1 >>> 32));
+        int o0 = (int) p0;
+        int o1 = (int) p1;
+        int l0 = c0.getInt(o0);
+        int l1 = c1.getInt(o1);
+        // The prefixes cover the first 8 bytes
+        for (int k = 8, length = Math.min(l0, l1); k < length; k++) {
+            n = Integer.compare(c0.get(o0 + HEADER + k) & 0xFF, c1.get(o1 + HEADER + k) & 0xFF);
+            if (n != 0)
+                return n;
+        }
+        return Integer.compare(l0, l1);
+    }
+
+    /**
+     * Copy of the bytes of the i-th row in sorted order.
+     */
+    byte[] row(int i) {
+        int length = read(i);
+        byte[] row = new byte[length];
+        System.arraycopy(scratch, 0, row, 0, length);
+        return row;
+    }
+
+    void write(int i, CsvWriter out) throws IOException {
+        int length = read(i);
+        out.writeRaw(scratch, 0, length);
+    }
+
+    // Read the i-th row into scratch, returns its length
+    private int read(int i) {
+        long pointer = index.get(2 * i + 1);
+        ByteBuffer data = chunks.get((int) (pointer >>> 32));
+        int offset = (int) pointer;
+        int length = data.getInt(offset + 4);
+        if (scratch.length < length)
+            scratch = new byte[Math.max(length, scratch.length << 1)];
+        data.get(offset + HEADER + data.getInt(offset), scratch, 0, length);
+        return length;
+    }
+}
@@ -0,0 +1,397 @@
+package com.jia.csv;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.Collator;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Declared types of some columns, instead of guessing each value's type (CsvTokenizer.getValue()).
+ *
+ * A schema is a list of column:type entries, separated by commas inline (--schema=...) or one per line in a file,
+ * where # starts a comment. The column is its number or its name in the header. Types:
+ * - date(pattern): a date such as 3/19/2021 for date(M/D/YYYY), sorted by its epoch day. The pattern has M or MM
+ *   for the month, D or DD for the day, YYYY or YY (2000-2099) for the year, other characters are literals. M and
+ *   D take one or two digits, MM and DD two. date alone is date(YYYY-MM-DD).
+ * - decimal(scale): an optional sign, digits and a fraction, sorted as the integer value * 10^scale, which must
+ *   fit a long. Digits after the scale are ignored. decimal alone is decimal(6).
+ * - long: an optional sign and up to 19 digits.
+ * - string: the text, never a number. string(ci) sorts ignoring case, string(language tag) such as string(de) by
+ *   that locale's Collator.
+ *
+ * Keys are parsed in place from the tokenizer's bytes. The TypedValue also keeps the field's text, as a String, for
+ * the output. Empty fields are "" as usual, fields a type can not parse are kept as strings, so they sort after the
+ * valid ones.
+ */
+public final class Schema {
+    public static final String SUFFIX = ".schema";
+
+    public enum Type {
+        DATE, DECIMAL, LONG, STRING
+    }
+
+    private static final int DEFAULT_SCALE = 6;
+    private static final String DEFAULT_DATE_PATTERN = "YYYY-MM-DD";
+    private static final String CASE_INSENSITIVE = "ci";
+    private static final long INVALID = Long.MIN_VALUE; // never a valid key
+    private static final long DAYS_0000_TO_1970 = 719528;
+    private static final long[] POWERS_OF_TEN = new long[19];
+    static {
+        POWERS_OF_TEN[0] = 1;
+        for (int i = 1; i < POWERS_OF_TEN.length; i++)
+            POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+    }
+
+    // Date pattern fields, other pattern chars are literals
+    private static final char MONTH = 'M';
+    private static final char DAY = 'D';
+    private static final char YEAR = 'Y';
+
+    /**
+     * The type of one column.
+     */
+    public static final class Column {
+        final String column; // number or name
+        final Type type;
+        final String argument; // null if none
+        private final int scale;
+        private final char[] pattern; // date fields and literals
+        private final int[] widths; // digits of each date field, 0 for 1 or 2
+        private final ThreadLocal<Collator> collator; // null unless collated by locale
+
+        Column(String column, Type type, String argument) {
+            this.column = column;
+            this.type = type;
+            this.argument = argument;
+            int scale = 0;
+            char[] pattern = null;
+            int[] widths = null;
+            ThreadLocal<Collator> collator = null;
+            switch (type) {
+            case DECIMAL:
+                scale = argument == null ? DEFAULT_SCALE : Integer.parseInt(argument);
+                if (scale > 18)
+                    throw new IllegalArgumentException("Decimal scale must be at most 18: " + argument);
+                break;
+            case DATE:
+                String p = argument == null ? DEFAULT_DATE_PATTERN : argument.toUpperCase(Locale.ROOT);
+                StringBuilder fields = new StringBuilder();
+                List<Integer> w = new ArrayList<>();
+                for (int i = 0; i < p.length();) {
+                    char c = p.charAt(i);
+                    int j = i;
+                    while (j < p.length() && p.charAt(j) == c)
+                        j++;
+                    if (c == MONTH || c == DAY) {
+                        if (j - i > 2)
+                            throw new IllegalArgumentException("Bad date pattern " + argument);
+                        fields.append(c);
+                        w.add(j - i == 2 ? 2 : 0);
+                    } else if (c == YEAR) {
+                        if (j - i != 2 && j - i != 4)
+                            throw new IllegalArgumentException("Bad date pattern " + argument);
+                        fields.append(c);
+                        w.add(j - i);
+                    } else {
+                        for (; i < j; i++) {
+                            fields.append(c);
+                            w.add(-1);
+                        }
+                    }
+                    i = j;
+                }
+                if (fields.indexOf("" + YEAR) < 0 || fields.indexOf("" + MONTH) < 0 || fields.indexOf("" + DAY) < 0)
+                    throw new IllegalArgumentException("Date pattern needs a year, month and day: " + argument);
+                pattern = fields.toString().toCharArray();
+                widths = w.stream().mapToInt(Integer::intValue).toArray();
+                break;
+            case STRING:
+                if (argument != null && !argument.equalsIgnoreCase(CASE_INSENSITIVE)) {
+                    Locale locale = Locale.forLanguageTag(argument);
+                    if (locale.getLanguage().isEmpty())
+                        throw new IllegalArgumentException("Unknown collation " + argument);
+                    Collator base = Collator.getInstance(locale);
+                    collator = ThreadLocal.withInitial(() -> (Collator) base.clone());
+                }
+                break;
+            default:
+                break;
+            }
+            this.scale = scale;
+            this.pattern = pattern;
+            this.widths = widths;
+            this.collator = collator;
+        }
+
+        /**
+         * The field of the tokenizer's current record as this type: a TypedValue, a String if the type can not
+         * parse it (or for string without a collation), "" if it is empty.
+         */
+        Object value(CsvTokenizer tokenizer, int field) {
+            int start = tokenizer.start(field);
+            int end = tokenizer.end(field);
+            if (start == end)
+                return "";
+            long key;
+            switch (type) {
+            case DATE:
+                key = parseDate(tokenizer, start, end);
+                break;
+            case DECIMAL:
+                key = parseDecimal(tokenizer, start, end);
+                break;
+            case LONG:
+                key = parseLong(tokenizer, start, end);
+                break;
+            default:
+                String s = tokenizer.getString(field);
+                if (argument == null)
+                    return s;
+                return new TypedValue(collator != null ? collationKey(s) : foldCase(s), s);
+            }
+            String s = tokenizer.getString(field);
+            return key == INVALID ? s : new TypedValue(key, s);
+        }
+
+        private long parseDate(CsvTokenizer t, int start, int end) {
+            int year = -1;
+            int month = -1;
+            int day = -1;
+            int p = start;
+            for (int i = 0; i < pattern.length; i++) {
+                if (widths[i] < 0) {
+                    if (p == end || t.byteAt(p) != pattern[i])
+                        return INVALID;
+                    p++;
+                    continue;
+                }
+                int min = widths[i] == 0 ? 1 : widths[i];
+                int max = widths[i] == 0 ? 2 : widths[i];
+                int value = 0;
+                int digits = 0;
+                while (digits < max && p < end && isDigit(t.byteAt(p))) {
+                    value = value * 10 + t.byteAt(p++) - '0';
+                    digits++;
+                }
+                if (digits < min)
+                    return INVALID;
+                if (pattern[i] == YEAR)
+                    year = max == 2 ? 2000 + value : value;
+                else if (pattern[i] == MONTH)
+                    month = value;
+                else
+                    day = value;
+            }
+            if (p != end || month < 1 || month > 12 || day < 1 || day > monthLength(year, month))
+                return INVALID;
+            return epochDay(year, month, day);
+        }
+
+        private long parseDecimal(CsvTokenizer t, int start, int end) {
+            int p = start;
+            boolean negative = false;
+            if (t.byteAt(p) == '-' || t.byteAt(p) == '+')
+                negative = t.byteAt(p++) == '-';
+            long value = 0;
+            int digits = 0;
+            int fraction = -1; // digits after the point, -1 before it
+            for (; p < end; p++) {
+                byte c = t.byteAt(p);
+                if (c == '.' && fraction < 0) {
+                    fraction = 0;
+                    continue;
+                }
+                if (!isDigit(c))
+                    return INVALID;
+                digits++;
+                if (fraction >= scale)
+                    continue; // ignored
+                if (fraction >= 0)
+                    fraction++;
+                if (value > (Long.MAX_VALUE - (c - '0')) / 10)
+                    return INVALID;
+                value = value * 10 + c - '0';
+            }
+            if (digits == 0)
+                return INVALID;
+            int shift = scale - Math.max(fraction, 0);
+            if (value > Long.MAX_VALUE / POWERS_OF_TEN[shift])
+                return INVALID;
+            value *= POWERS_OF_TEN[shift];
+            return negative ? -value : value;
+        }
+
+        private String collationKey(String s) {
+            byte[] bytes = collator.get().getCollationKey(s).toByteArray();
+            char[] chars = new char[bytes.length];
+            for (int i = 0; i < bytes.length; i++)
+                chars[i] = (char) (bytes[i] & 0xFF);
+            return new String(chars);
+        }
+
+        @Override
+        public String toString() {
+            return column + ":" + type.name().toLowerCase(Locale.ROOT) + (argument != null ? "(" + argument + ")" : "");
+        }
+    }
+
+    private final List<Column> columns;
+
+    private Schema(List<Column> columns) {
+        this.columns = columns;
+    }
+
+    /**
+     * Parse an inline schema, entries separated by commas.
+     *
+     * @throws IllegalArgumentException if an entry is malformed
+     */
+    public static Schema parse(String spec) {
+        List<Column> columns = new ArrayList<>();
+        for (String entry : spec.split(","))
+            if (!entry.isBlank())
+                columns.add(entry(entry.trim()));
+        return new Schema(columns);
+    }
+
+    /**
+     * Read a schema file, one entry per line.
+     */
+    public static Schema read(Path path) throws IOException {
+        List<Column> columns = new ArrayList<>();
+        for (String line : Files.readAllLines(path, StandardCharsets.UTF_8)) {
+            int comment = line.indexOf('#');
+            if (comment >= 0)
+                line = line.substring(0, comment);
+            if (!line.isBlank())
+                columns.add(entry(line.trim()));
+        }
+        return new Schema(columns);
+    }
+
+    // column:type or column:type(argument)
+    private static Column entry(String entry) {
+        int open = entry.indexOf('(');
+        int colon = entry.lastIndexOf(':', open < 0 ? entry.length() : open);
+        if (colon <= 0)
+            throw new IllegalArgumentException("Schema entry is not column:type: " + entry);
+        String type = entry.substring(colon + 1).trim();
+        String argument = null;
+        open = type.indexOf('(');
+        if (open >= 0) {
+            if (!type.endsWith(")"))
+                throw new IllegalArgumentException("Schema entry is not column:type(argument): " + entry);
+            argument = type.substring(open + 1, type.length() - 1).trim();
+            type = type.substring(0, open).trim();
+        }
+        try {
+            return new Column(entry.substring(0, colon).trim(), Type.valueOf(type.toUpperCase(Locale.ROOT)),
+                    argument);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Bad schema entry " + entry + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * The type of each column of a file with the given header, null for the columns the schema does not list.
+     *
+     * @throws IllegalArgumentException if a column of the schema is not in the header
+     */
+    public Column[] resolve(String[] names) {
+        Column[] types = new Column[names.length];
+        for (Column c : columns) {
+            int index = columnIndex(c.column, names);
+            if (index < 0)
+                throw new IllegalArgumentException("Schema column " + c.column + " is not in the header");
+            types[index] = c;
+        }
+        return types;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder s = new StringBuilder();
+        for (Column c : columns)
+            s.append(s.length() > 0 ? "," : "").append(c);
+        return s.toString();
+    }
+
+    /**
+     * The index of a column given by its number or its name in the header, -1 if the header has no such column.
+     */
+    static int columnIndex(String column, String[] names) {
+        long number = column.isEmpty() ? -1 : 0;
+        for (int i = 0; i < column.length() && number >= 0; i++) {
+            char c = column.charAt(i);
+            // Capped, a number past the header is not in it however long
+            number = c >= '0' && c <= '9' ? Math.min(number * 10 + c - '0', Integer.MAX_VALUE) : -1;
+        }
+        if (number >= 0)
+            return number < names.length ? (int) number : -1;
+        for (int i = 0; i < names.length; i++)
+            if (names[i].equals(column))
+                return i;
+        return -1;
+    }
+
+    private static boolean isDigit(byte c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static long parseLong(CsvTokenizer t, int start, int end) {
+        int p = start;
+        boolean negative = false;
+        if (t.byteAt(p) == '-' || t.byteAt(p) == '+')
+            negative = t.byteAt(p++) == '-';
+        if (p == end)
+            return INVALID;
+        long value = 0;
+        for (; p < end; p++) {
+            byte c = t.byteAt(p);
+            if (!isDigit(c) || value > (Long.MAX_VALUE - (c - '0')) / 10)
+                return INVALID;
+            value = value * 10 + c - '0';
+        }
+        return negative ? -value : value;
+    }
+
+    private static String foldCase(String s) {
+        char[] chars = s.toCharArray();
+        for (int i = 0; i < chars.length; i++)
+            chars[i] = Character.toLowerCase(Character.toUpperCase(chars[i]));
+        return new String(chars);
+    }
+
+    private static boolean isLeapYear(int year) {
+        return (year & 3) == 0 && (year % 100 != 0 || year % 400 == 0);
+    }
+
+    private static int monthLength(int year, int month) {
+        switch (month) {
+        case 2:
+            return isLeapYear(year) ? 29 : 28;
+        case 4:
+        case 6:
+        case 9:
+        case 11:
+            return 30;
+        default:
+            return 31;
+        }
+    }
+
+    /**
+     * Days since 1970-01-01, as LocalDate.toEpochDay() for years 0 to 9999.
+     */
+    static long epochDay(int year, int month, int day) {
+        long total = 365L * year + (year + 3) / 4 - (year + 99) / 100 + (year + 399) / 400;
+        total += (367 * month - 362) / 12 + day - 1;
+        if (month > 2)
+            total -= isLeapYear(year) ? 1 : 2;
+        return total - DAYS_0000_TO_1970;
+    }
+}
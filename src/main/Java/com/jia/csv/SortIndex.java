@@ -0,0 +1,188 @@
+package com.jia.csv;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/**
+ * The rows of a CSV file in sorted order, saved next to the file so that a later sort only has to parse the rows
+ * appended since.
+ *
+ * Each row is kept as its offset and length in the file and its SortKey encoding. The keys make merging new rows
+ * in a byte comparison, the old rows are never parsed again. The index covers the file up to the end of its last
+ * complete line, and checks that prefix by its length, a CRC32 of its first and last 64KB and the line break at
+ * its end. That catches a file that was rewritten or truncated, not an edit in the middle of a large file.
+ *
+ * Format: magic, version, sort spec, covered length, checksum, row count, then offset, length, key length and
+ * key per row.
+ */
+final class SortIndex {
+    private static final int MAGIC = 0x43535649; // CSVI
+    private static final int VERSION = 1;
+    private static final int CHECKSUM_BLOCK = 64 * 1024;
+
+    final String spec;
+    final long length; // bytes of the file covered
+    final long checksum;
+    private long[] offsets;
+    private int[] lengths;
+    private byte[][] keys;
+    private int size;
+
+    SortIndex(String spec, long length, long checksum, int capacity) {
+        this.spec = spec;
+        this.length = length;
+        this.checksum = checksum;
+        this.offsets = new long[Math.max(capacity, 16)];
+        this.lengths = new int[offsets.length];
+        this.keys = new byte[offsets.length][];
+    }
+
+    int size() {
+        return size;
+    }
+
+    long offset(int row) {
+        return offsets[row];
+    }
+
+    int length(int row) {
+        return lengths[row];
+    }
+
+    byte[] key(int row) {
+        return keys[row];
+    }
+
+    void add(long offset, int length, byte[] key) {
+        if (size == offsets.length) {
+            offsets = Arrays.copyOf(offsets, size << 1);
+            lengths = Arrays.copyOf(lengths, size << 1);
+            keys = Arrays.copyOf(keys, size << 1);
+        }
+        offsets[size] = offset;
+        lengths[size] = length;
+        keys[size] = key;
+        size++;
+    }
+
+    /**
+     * Merge rows sorted by key into this index's rows, into a new index covering length bytes. On equal keys the
+     * rows of this index come first, they are earlier in the file, so the result is the same as a stable sort of
+     * the whole file.
+     */
+    SortIndex merge(SortIndex rows, long length, long checksum) {
+        SortIndex merged = new SortIndex(spec, length, checksum, size + rows.size);
+        int i = 0;
+        int j = 0;
+        while (i < size && j < rows.size) {
+            if (Arrays.compareUnsigned(rows.keys[j], keys[i]) < 0) {
+                merged.add(rows.offsets[j], rows.lengths[j], rows.keys[j]);
+                j++;
+            } else {
+                merged.add(offsets[i], lengths[i], keys[i]);
+                i++;
+            }
+        }
+        for (; i < size; i++)
+            merged.add(offsets[i], lengths[i], keys[i]);
+        for (; j < rows.size; j++)
+            merged.add(rows.offsets[j], rows.lengths[j], rows.keys[j]);
+        return merged;
+    }
+
+    /**
+     * The checksum of the first length bytes of csv.
+     */
+    static long checksum(FileChannel csv, long length) throws IOException {
+        CRC32 crc = new CRC32();
+        update(crc, csv, 0, Math.min(length, CHECKSUM_BLOCK));
+        if (length > CHECKSUM_BLOCK) {
+            long start = Math.max(CHECKSUM_BLOCK, length - CHECKSUM_BLOCK);
+            update(crc, csv, start, length - start);
+        }
+        return crc.getValue();
+    }
+
+    private static void update(CRC32 crc, FileChannel csv, long position, long length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate((int) length);
+        while (buffer.hasRemaining()) {
+            if (csv.read(buffer, position + buffer.position()) < 0)
+                throw new EOFException("File shorter than " + (position + length) + " bytes");
+        }
+        crc.update(buffer.flip());
+    }
+
+    /**
+     * The index saved at path, or null if there is none, or it is for another sort spec or does not match csv.
+     */
+    static SortIndex read(Path path, String spec, FileChannel csv) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION || !in.readUTF().equals(spec))
+                return null;
+            long length = in.readLong();
+            long checksum = in.readLong();
+            if (length > csv.size() || !endsLine(csv, length) || checksum(csv, length) != checksum)
+                return null;
+            int size = in.readInt();
+            SortIndex index = new SortIndex(spec, length, checksum, size);
+            for (int i = 0; i < size; i++) {
+                long offset = in.readLong();
+                int rowLength = in.readInt();
+                byte[] key = new byte[in.readInt()];
+                in.readFully(key);
+                index.add(offset, rowLength, key);
+            }
+            return index;
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (EOFException e) {
+            return null; // cut short, rebuild it
+        }
+    }
+
+    private static boolean endsLine(FileChannel csv, long length) throws IOException {
+        if (length == 0)
+            return true;
+        ByteBuffer last = ByteBuffer.allocate(1);
+        return csv.read(last, length - 1) == 1 && last.get(0) == CsvTokenizer.LF;
+    }
+
+    /**
+     * Save the index to path. It is written to a temp file first, so a failed write leaves the old index.
+     */
+    void write(Path path) throws IOException {
+        Path temp = Files.createTempFile(path.toAbsolutePath().getParent(), path.getFileName().toString(), ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeUTF(spec);
+                out.writeLong(length);
+                out.writeLong(checksum);
+                out.writeInt(size);
+                for (int i = 0; i < size; i++) {
+                    out.writeLong(offsets[i]);
+                    out.writeInt(lengths[i]);
+                    out.writeInt(keys[i].length);
+                    out.write(keys[i]);
+                }
+            }
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package com.jia.csv;
+
+import java.util.Arrays;
+
+/**
+ * Order of parsed values, and its encoding as binary comparable keys.
+ *
+ * Values of a column are ordered: empty ("" or a missing column) first, then numbers (Integer and Double compared
+ * by value), then strings. Within a type this is the natural order. Mixing types in a column is well defined
+ * instead of failing with a ClassCastException. A TypedValue of a Schema is a number or a string by its key.
+ *
+ * encode() writes the sort columns of a record so that comparing the bytes as unsigned gives the same result as
+ * the column comparators. Per column:
+ * - empty: tag 1
+ * - number: tag 2, then the IEEE bits of the double with the sign bit flipped (all bits for negative numbers). A
+ *   typed number has its long key with the sign bit flipped instead, exact for any long.
+ * - string: tag 3, then each UTF-16 char as two bytes, char 0 as 00 00 FF, and 00 00 00 as terminator
+ * Descending columns have all their bytes inverted. The encoding of a column is never a prefix of another, so
+ * concatenated columns compare column by column.
+ */
+public final class SortKey {
+    private static final int EMPTY_TAG = 1;
+    private static final int NUMBER_TAG = 2;
+    private static final int STRING_TAG = 3;
+
+    private final int[] columns;
+    private final boolean[] descending;
+
+    public SortKey(int[] columns, boolean[] descending) {
+        this.columns = columns.clone();
+        this.descending = descending.clone();
+    }
+
+    public static Object valueAt(Object[] record, int column) {
+        return column < record.length ? record[column] : "";
+    }
+
+    public static int compareValues(Object v0, Object v1) {
+        int t0 = tag(v0);
+        int t1 = tag(v1);
+        if (t0 != t1)
+            return Integer.compare(t0, t1);
+        switch (t0) {
+        case NUMBER_TAG:
+            if (v0 instanceof Integer && v1 instanceof Integer)
+                return Integer.compare((Integer) v0, (Integer) v1);
+            if (v0 instanceof TypedValue && v1 instanceof TypedValue)
+                return Long.compare(((TypedValue) v0).number(), ((TypedValue) v1).number());
+            return Double.compare(doubleValue(v0), doubleValue(v1));
+        case STRING_TAG:
+            return sortString(v0).compareTo(sortString(v1));
+        default:
+            return 0;
+        }
+    }
+
+    // A typed number compares with other numbers by its key
+    private static double doubleValue(Object number) {
+        return number instanceof TypedValue ? ((TypedValue) number).number() : ((Number) number).doubleValue();
+    }
+
+    /**
+     * The string a string value sorts by: its collation key if it is a TypedValue.
+     */
+    static String sortString(Object value) {
+        return value instanceof TypedValue ? ((TypedValue) value).collationKey() : (String) value;
+    }
+
+    private static int tag(Object value) {
+        if (value instanceof Number)
+            return NUMBER_TAG;
+        if (value instanceof TypedValue)
+            return ((TypedValue) value).isNumber() ? NUMBER_TAG : STRING_TAG;
+        if (value == null || value instanceof String && ((String) value).isEmpty())
+            return EMPTY_TAG;
+        if (value instanceof String)
+            return STRING_TAG;
+        throw new IllegalArgumentException("Unsupported value type " + value.getClass().getName());
+    }
+
+    public byte[] encode(Object[] record) {
+        Encoder out = new Encoder(columns.length * 16);
+        for (int i = 0; i < columns.length; i++) {
+            int start = out.length;
+            Object value = valueAt(record, columns[i]);
+            int tag = tag(value);
+            out.write(tag);
+            if (tag == NUMBER_TAG) {
+                long bits;
+                if (value instanceof TypedValue) {
+                    bits = ((TypedValue) value).number() ^ Long.MIN_VALUE;
+                } else {
+                    bits = Double.doubleToLongBits(((Number) value).doubleValue());
+                    bits ^= (bits >> 63) | Long.MIN_VALUE;
+                }
+                for (int shift = 56; shift >= 0; shift -= 8)
+                    out.write((int) (bits >>> shift));
+            } else if (tag == STRING_TAG) {
+                String s = sortString(value);
+                for (int j = 0; j < s.length(); j++) {
+                    char c = s.charAt(j);
+                    out.write(c >>> 8);
+                    out.write(c);
+                    if (c == 0)
+                        out.write(0xFF);
+                }
+                out.write(0);
+                out.write(0);
+                out.write(0);
+            }
+            if (descending[i])
+                out.invert(start);
+        }
+        return Arrays.copyOf(out.bytes, out.length);
+    }
+
+    private static final class Encoder {
+        byte[] bytes;
+        int length;
+
+        Encoder(int capacity) {
+            bytes = new byte[capacity];
+        }
+
+        void write(int b) {
+            if (length == bytes.length)
+                bytes = Arrays.copyOf(bytes, length << 1);
+            bytes[length++] = (byte) b;
+        }
+
+        void invert(int start) {
+            for (int i = start; i < length; i++)
+                bytes[i] = (byte) ~bytes[i];
+        }
+    }
+}
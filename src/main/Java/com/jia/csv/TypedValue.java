@@ -0,0 +1,72 @@
+package com.jia.csv;
+
+/**
+ * A value parsed as its Schema type: the text of the field, written to the output as it was, and a key that sorts
+ * in the type's order.
+ *
+ * Dates, decimals and longs have a long key (epoch day, unscaled value, the value) and sort among the numbers.
+ * Collated strings have a string key (folded case, or a Collator's key one char per byte) and sort among the
+ * strings. A column of a schema only holds typed values of its own kind, besides "" and the fields its type can
+ * not parse, which stay strings.
+ */
+public final class TypedValue implements Comparable<TypedValue> {
+    private final long number;
+    private final String collationKey; // null for a number
+    private final String text;
+
+    TypedValue(long number, String text) {
+        this.number = number;
+        this.collationKey = null;
+        this.text = text;
+    }
+
+    TypedValue(String collationKey, String text) {
+        this.number = 0;
+        this.collationKey = collationKey;
+        this.text = text;
+    }
+
+    public boolean isNumber() {
+        return collationKey == null;
+    }
+
+    /**
+     * The sort key of a date, decimal or long.
+     */
+    public long number() {
+        return number;
+    }
+
+    /**
+     * The sort key of a collated string, null for a number.
+     */
+    public String collationKey() {
+        return collationKey;
+    }
+
+    public String text() {
+        return text;
+    }
+
+    @Override
+    public int compareTo(TypedValue o) {
+        if (isNumber() != o.isNumber())
+            return isNumber() ? -1 : 1;
+        return isNumber() ? Long.compare(number, o.number) : collationKey.compareTo(o.collationKey);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof TypedValue && compareTo((TypedValue) o) == 0 && text.equals(((TypedValue) o).text);
+    }
+
+    @Override
+    public int hashCode() {
+        return text.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return text;
+    }
+}
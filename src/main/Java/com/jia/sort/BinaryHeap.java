@@ -0,0 +1,96 @@
+package com.jia.sort;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.NoSuchElementException;
+
+/**
+ * Array backed binary min-heap ordered by a Comparator.
+ * Used for k-way merging of sorted runs. For a max-heap, pass a reversed Comparator.
+ */
+public class BinaryHeap<T> {
+
+    private Object[] heap;
+    private int size;
+    private final Comparator<? super T> c;
+
+    public BinaryHeap(int capacity, Comparator<? super T> c) {
+        this.heap = new Object[Math.max(capacity, 1)];
+        this.c = c;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void add(T e) {
+        if (size == heap.length)
+            heap = Arrays.copyOf(heap, size << 1);
+        siftUp(size++, e);
+    }
+
+    @SuppressWarnings("unchecked")
+    public T peek() {
+        if (size == 0)
+            throw new NoSuchElementException();
+        return (T) heap[0];
+    }
+
+    @SuppressWarnings("unchecked")
+    public T poll() {
+        if (size == 0)
+            throw new NoSuchElementException();
+        T top = (T) heap[0];
+        T last = (T) heap[--size];
+        heap[size] = null;
+        if (size > 0)
+            siftDown(0, last);
+        return top;
+    }
+
+    /**
+     * Replace the smallest element with e and restore the heap order. Cheaper than poll() followed by add().
+     */
+    @SuppressWarnings("unchecked")
+    public T replaceTop(T e) {
+        if (size == 0)
+            throw new NoSuchElementException();
+        T top = (T) heap[0];
+        siftDown(0, e);
+        return top;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void siftUp(int k, T e) {
+        while (k > 0) {
+            int parent = (k - 1) >>> 1;
+            Object p = heap[parent];
+            if (c.compare(e, (T) p) >= 0)
+                break;
+            heap[k] = p;
+            k = parent;
+        }
+        heap[k] = e;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void siftDown(int k, T e) {
+        int half = size >>> 1;
+        while (k < half) {
+            int child = (k << 1) + 1;
+            Object o = heap[child];
+            int right = child + 1;
+            if (right < size && c.compare((T) o, (T) heap[right]) > 0)
+                o = heap[child = right];
+            if (c.compare(e, (T) o) <= 0)
+                break;
+            heap[k] = o;
+            k = child;
+        }
+        heap[k] = e;
+    }
+}
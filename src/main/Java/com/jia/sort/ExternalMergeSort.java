@@ -0,0 +1,354 @@
+package com.jia.sort;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
+import java.util.function.ToLongFunction;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * External merge sort for inputs larger than the heap.
+ *
+ * Elements are buffered in memory until the estimated size reaches the memory budget. Each buffer is sorted with
+ * MergeSort and spilled to a temp file as a sorted run. The runs are then merged with a k-way heap merge. If there
+ * are more runs than the fan-in allows, groups of runs are merged into larger runs until they can be merged in a
+ * single pass.
+ *
+ * Ties between runs are broken by run order, and runs are cut from consecutive input, so the sort is stable.
+ *
+ * Runs can be deflated (setCompressRuns()), trading CPU for less disk I/O when the disk is slower than the
+ * compression, as with repetitive CSV values on network or spinning disks.
+ *
+ * With setDistinct() only the first of the elements that compare equal is kept. Duplicates are dropped as each run
+ * is spilled and as runs are merged, so they are neither written to the runs nor read back.
+ */
+public class ExternalMergeSort<T> {
+
+    /**
+     * Writes and reads one element of a spilled run.
+     */
+    public interface Codec<T> {
+        void write(DataOutputStream out, T e) throws IOException;
+
+        T read(DataInputStream in) throws IOException;
+    }
+
+    public static final int DEFAULT_MAX_FAN_IN = 64;
+    private static final int MIN_IO_BUFFER = 4 * 1024;
+    private static final int MAX_IO_BUFFER = 1024 * 1024;
+
+    private final Comparator<? super T> c;
+    private final Codec<T> codec;
+    private final ToLongFunction<? super T> sizer;
+    private final long memoryBudget;
+    private final boolean threaded;
+    private File tempDir; // null for the system default
+    private int maxFanIn = DEFAULT_MAX_FAN_IN;
+    private SortMetrics metrics;
+    private ForkJoinPool pool = ForkJoinPool.commonPool();
+    private boolean compressRuns;
+    private boolean distinct;
+
+    private int spilledRuns; // for reporting/testing only
+
+    /**
+     * @param c            sort order
+     * @param codec        serializes elements to and from the run files
+     * @param sizer        estimated heap bytes held by one element
+     * @param memoryBudget heap bytes the in-memory buffer may use before it is spilled
+     * @param threaded     sort each run with the threaded merge sort
+     */
+    public ExternalMergeSort(Comparator<? super T> c, Codec<T> codec, ToLongFunction<? super T> sizer,
+            long memoryBudget, boolean threaded) {
+        if (memoryBudget <= 0)
+            throw new IllegalArgumentException("Memory budget must be positive: " + memoryBudget);
+        this.c = c;
+        this.codec = codec;
+        this.sizer = sizer;
+        this.memoryBudget = memoryBudget;
+        this.threaded = threaded;
+    }
+
+    public void setTempDir(File tempDir) {
+        this.tempDir = tempDir;
+    }
+
+    public void setMaxFanIn(int maxFanIn) {
+        if (maxFanIn < 2)
+            throw new IllegalArgumentException("Fan-in must be at least 2: " + maxFanIn);
+        this.maxFanIn = maxFanIn;
+    }
+
+    /**
+     * Collect the counters of the in-memory run sorts, see MergeSort.setMetrics().
+     */
+    public void setMetrics(SortMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Pool for the threaded run sorts, null for the common pool.
+     */
+    public void setPool(ForkJoinPool pool) {
+        this.pool = pool != null ? pool : ForkJoinPool.commonPool();
+    }
+
+    /**
+     * Deflate the run files at the fastest level.
+     */
+    public void setCompressRuns(boolean compressRuns) {
+        this.compressRuns = compressRuns;
+    }
+
+    /**
+     * Only pass on the first of equal elements, in input order, and drop the others.
+     */
+    public void setDistinct(boolean distinct) {
+        this.distinct = distinct;
+    }
+
+    public int getSpilledRuns() {
+        return spilledRuns;
+    }
+
+    /**
+     * Sort all elements of input and pass them to output in order.
+     */
+    public void sort(Iterator<? extends T> input, Consumer<? super T> output) throws IOException {
+        MergeSort sorter = new MergeSort(pool);
+        sorter.setMetrics(metrics);
+        List<Run> runs = new ArrayList<>();
+        List<File> files = new ArrayList<>(); // every temp file, deleted at the end whatever happens
+        List<T> buffer = new ArrayList<>();
+        long used = 0;
+        spilledRuns = 0;
+
+        try {
+            while (input.hasNext()) {
+                T e = input.next();
+                buffer.add(e);
+                used += sizer.applyAsLong(e);
+                if (used >= memoryBudget) {
+                    sorter.mergeSort(buffer, c, threaded);
+                    runs.add(spill(buffer, files));
+                    buffer = new ArrayList<>();
+                    used = 0;
+                }
+            }
+
+            // Everything fit in memory, no need to touch the disk
+            if (runs.isEmpty()) {
+                sorter.mergeSort(buffer, c, threaded);
+                buffer.forEach(new Distinct(output));
+                return;
+            }
+
+            if (!buffer.isEmpty()) {
+                sorter.mergeSort(buffer, c, threaded);
+                runs.add(spill(buffer, files));
+            }
+            buffer = null;
+
+            // Reduce the number of runs until they can be merged in one pass
+            while (runs.size() > maxFanIn) {
+                List<Run> merged = new ArrayList<>();
+                for (int i = 0; i < runs.size(); i += maxFanIn) {
+                    List<Run> group = runs.subList(i, Math.min(i + maxFanIn, runs.size()));
+                    if (group.size() == 1) {
+                        merged.add(group.get(0));
+                        continue;
+                    }
+                    File file = createTempFile(files);
+                    long count;
+                    try (DataOutputStream out = openOutput(file)) {
+                        count = merge(group, e -> write(out, e));
+                    }
+                    group.forEach(Run::delete);
+                    merged.add(new Run(file, count));
+                }
+                runs = merged;
+            }
+
+            merge(runs, output);
+        } finally {
+            files.forEach(File::delete);
+        }
+    }
+
+    private Run spill(List<T> sorted, List<File> files) throws IOException {
+        File file = createTempFile(files);
+        Distinct written;
+        try (DataOutputStream out = openOutput(file)) {
+            written = new Distinct(e -> write(out, e));
+            sorted.forEach(written);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        spilledRuns++;
+        return new Run(file, written.count);
+    }
+
+    /**
+     * K-way merge of the sorted runs. Returns the number of elements passed to output.
+     */
+    private long merge(List<Run> runs, Consumer<? super T> output) throws IOException {
+        List<RunReader> readers = new ArrayList<>(runs.size());
+        BinaryHeap<RunReader> heap = new BinaryHeap<>(runs.size(), (r0, r1) -> {
+            int n = c.compare(r0.current, r1.current);
+            return n != 0 ? n : Integer.compare(r0.index, r1.index);
+        });
+        Distinct merged = new Distinct(output);
+
+        try {
+            int bufferSize = ioBufferSize(runs.size() + 1);
+            for (int i = 0; i < runs.size(); i++) {
+                RunReader r = new RunReader(runs.get(i), i, bufferSize);
+                readers.add(r);
+                if (r.advance())
+                    heap.add(r);
+            }
+
+            while (!heap.isEmpty()) {
+                RunReader r = heap.peek();
+                merged.accept(r.current);
+                if (r.advance())
+                    heap.replaceTop(r);
+                else
+                    heap.poll();
+            }
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            for (RunReader r : readers)
+                r.close();
+        }
+        return merged.count;
+    }
+
+    private void write(DataOutputStream out, T e) {
+        try {
+            codec.write(out, e);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    private int ioBufferSize(int streams) {
+        long size = memoryBudget / streams;
+        return (int) Math.max(MIN_IO_BUFFER, Math.min(MAX_IO_BUFFER, size));
+    }
+
+    // A new temp file, added to files before anything is written to it
+    private File createTempFile(List<File> files) throws IOException {
+        File file = File.createTempFile("csvsort-run-", ".tmp", tempDir);
+        files.add(file);
+        return file;
+    }
+
+    private DataOutputStream openOutput(File file) throws IOException {
+        OutputStream out = new FileOutputStream(file);
+        if (compressRuns)
+            out = new RunDeflaterStream(out, ioBufferSize(2));
+        return new DataOutputStream(new BufferedOutputStream(out, ioBufferSize(2)));
+    }
+
+    private DataInputStream openInput(File file, int bufferSize) throws IOException {
+        InputStream in = new FileInputStream(file);
+        if (compressRuns)
+            in = new InflaterInputStream(new BufferedInputStream(in, bufferSize));
+        return new DataInputStream(new BufferedInputStream(in, bufferSize));
+    }
+
+    // Deflates at the fastest level, and frees the deflater on close
+    private static final class RunDeflaterStream extends DeflaterOutputStream {
+        RunDeflaterStream(OutputStream out, int bufferSize) {
+            super(out, new Deflater(Deflater.BEST_SPEED), bufferSize);
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                def.end();
+            }
+        }
+    }
+
+    // Passes the elements to output, without those equal to the one before if distinct
+    private class Distinct implements Consumer<T> {
+        final Consumer<? super T> output;
+        T last;
+        long count;
+
+        Distinct(Consumer<? super T> output) {
+            this.output = output;
+        }
+
+        @Override
+        public void accept(T e) {
+            if (distinct && count > 0 && c.compare(last, e) == 0)
+                return;
+            last = e;
+            count++;
+            output.accept(e);
+        }
+    }
+
+    private static class Run {
+        final File file;
+        final long count;
+
+        Run(File file, long count) {
+            this.file = file;
+            this.count = count;
+        }
+
+        void delete() {
+            file.delete();
+        }
+    }
+
+    private class RunReader {
+        final int index;
+        final DataInputStream in;
+        long remaining;
+        T current;
+
+        RunReader(Run run, int index, int bufferSize) throws IOException {
+            this.index = index;
+            this.remaining = run.count;
+            this.in = openInput(run.file, bufferSize);
+        }
+
+        boolean advance() throws IOException {
+            if (remaining == 0) {
+                current = null;
+                return false;
+            }
+            remaining--;
+            current = codec.read(in);
+            return true;
+        }
+
+        void close() throws IOException {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,9 @@
+package com.jia.sort;
+
+/**
+ * Compares two ints, typically row indexes into columnar data, without boxing.
+ */
+@FunctionalInterface
+public interface IntComparator {
+    int compare(int a, int b);
+}
@@ -0,0 +1,64 @@
+package com.jia.sort;
+
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Streaming k-way merge of sorted iterators into one sorted iterator, with a BinaryHeap of their next elements.
+ * Only one element per source is held at a time.
+ *
+ * Stable: on equal elements the one from the earlier source comes first, so merging the sorted parts of a list
+ * gives the same order as a stable sort of the whole list.
+ */
+public final class KWayMerge<T> implements Iterator<T> {
+
+    private static final class Source<T> {
+        final Iterator<? extends T> it;
+        final int index;
+        T current;
+
+        Source(Iterator<? extends T> it, int index) {
+            this.it = it;
+            this.index = index;
+        }
+    }
+
+    private final BinaryHeap<Source<T>> heap;
+
+    public KWayMerge(List<? extends Iterator<? extends T>> sources, Comparator<? super T> c) {
+        heap = new BinaryHeap<>(sources.size(), (s0, s1) -> {
+            int n = c.compare(s0.current, s1.current);
+            return n != 0 ? n : Integer.compare(s0.index, s1.index);
+        });
+        for (int i = 0; i < sources.size(); i++) {
+            Source<T> s = new Source<>(sources.get(i), i);
+            if (s.it.hasNext()) {
+                s.current = s.it.next();
+                heap.add(s);
+            }
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        return !heap.isEmpty();
+    }
+
+    @Override
+    public T next() {
+        if (heap.isEmpty())
+            throw new NoSuchElementException();
+        Source<T> s = heap.peek();
+        T e = s.current;
+        if (s.it.hasNext()) {
+            s.current = s.it.next();
+            heap.replaceTop(s);
+        } else {
+            s.current = null;
+            heap.poll();
+        }
+        return e;
+    }
+}
@@ -3,17 +3,70 @@ package com.jia.sort;
 import java.util.Comparator;
 import java.util.List;
 import java.util.ListIterator;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 /**
  * Merge sort a List. 
  * Optional threaded sort.
+ * 
+ * The threaded sort is a fork/join merge sort. Both the halves and the merge step are split into tasks until they
+ * are smaller than the sequential cutoff, so the work is spread across all workers of the pool by work-stealing.
+ * Or, with setSampleSort(), a SampleSort: no merges across the whole array, the same result.
  */
 public class MergeSort {
 
+    public static final int DEFAULT_SEQUENTIAL_CUTOFF = 8192;
+
+    private final ForkJoinPool pool;
+    private int sequentialCutoff = DEFAULT_SEQUENTIAL_CUTOFF;
+    private SortMetrics metrics;
+    private boolean adaptive;
+    private boolean sampleSort;
+
+    public MergeSort() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    /**
+     * @param pool runs the threaded sort
+     */
+    public MergeSort(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * Ranges at or below this length are sorted, or merged, sequentially by the threaded sort.
+     */
+    public void setSequentialCutoff(int sequentialCutoff) {
+        if (sequentialCutoff < 2)
+            throw new IllegalArgumentException("Sequential cutoff must be at least 2: " + sequentialCutoff);
+        this.sequentialCutoff = sequentialCutoff;
+    }
+
+    /**
+     * Sort with NaturalMergeSort, which finds runs that are already in order, instead of the fixed top-down split.
+     * The threaded sort still splits down to the sequential cutoff, then sorts each range that way. The result is
+     * the same, it is faster on nearly sorted input. Moves and presorted hits are not counted in the adaptive ranges.
+     */
+    public void setAdaptive(boolean adaptive) {
+        this.adaptive = adaptive;
+    }
+
+    /**
+     * Run threaded sorts as a SampleSort in the same pool.
+     */
+    public void setSampleSort(boolean sampleSort) {
+        this.sampleSort = sampleSort;
+    }
+
+    /**
+     * Collect comparisons, moves, forks and presorted hits into metrics. null, the default, collects nothing.
+     */
+    public void setMetrics(SortMetrics metrics) {
+        this.metrics = metrics;
+    }
+
     @SuppressWarnings("unchecked")
     public <T> void mergeSort(List<T> l, Comparator<? super T> c, boolean threaded) {
         Object[] a = l.toArray();
@@ -29,124 +82,198 @@ public class MergeSort {
 
     @SuppressWarnings("unchecked")
     private <T> void arraySort(T[] a, Comparator<? super T> c, boolean threaded) {
+        if (threaded && sampleSort) {
+            SampleSort sorter = new SampleSort(pool);
+            sorter.setMetrics(metrics);
+            sorter.setAdaptive(adaptive);
+            sorter.sort(a, c);
+            return;
+        }
+        if (metrics != null)
+            c = metrics.counting(c);
+        if (adaptive && !threaded) {
+            NaturalMergeSort.sort(a, c);
+            return;
+        }
         Object[] aux = a.clone();
         if (threaded) {
-            ThreadedMergeSort sort = new ThreadedMergeSort((T[])aux, a, 0, a.length, 0, c);
-            sort.run();
+            pool.invoke(
+                    new ThreadedMergeSort<T>((T[])aux, a, 0, a.length, 0, c, sequentialCutoff, metrics, adaptive));
         } else {
-            mergeSort((T[])aux, (T[])a, 0, a.length, 0, c);
+            mergeSort((T[])aux, (T[])a, 0, a.length, 0, c, metrics);
         }
     }
 
-    public class ThreadedMergeSort implements Runnable {
+    /**
+     * Sorts dest[low, high) the same way as mergeSort(), forking the two halves and the merge.
+     */
+    public static class ThreadedMergeSort<T> extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
 
-        public static final int MAX_THREADS = Runtime.getRuntime().availableProcessors();
-        static final ExecutorService executor = Executors.newFixedThreadPool(MAX_THREADS);
-
-        final Object[] src, dest;
+        final T[] src, dest;
         final int low, high, off;
-        final Comparator<Object> c;
+        final Comparator<? super T> c;
+        final int cutoff;
+        final SortMetrics metrics;
+        final boolean adaptive;
 
-        private final int minParitionSize;
+        public ThreadedMergeSort(T[] src, T[] dest, int low, int high, int off, Comparator<? super T> c, int cutoff) {
+            this(src, dest, low, high, off, c, cutoff, null, false);
+        }
 
-        @SuppressWarnings("unchecked")
-        public <T> ThreadedMergeSort(T[] src, T[] dest, int low, int high, int off, Comparator<? super T> c) {
-            this.minParitionSize = src.length / MAX_THREADS;
+        /**
+         * @param metrics  counts moves, forks and presorted hits, may be null
+         * @param adaptive sort the ranges at or below the cutoff with NaturalMergeSort
+         */
+        public ThreadedMergeSort(T[] src, T[] dest, int low, int high, int off, Comparator<? super T> c, int cutoff,
+                SortMetrics metrics, boolean adaptive) {
             this.src = src;
             this.dest = dest;
             this.low = low;
             this.high = high;
             this.off = off;
-            this.c = (Comparator<Object>) c;
-            System.out.println("In ThreadedMergeSort: MAX_THREADS=" + MAX_THREADS + "; minParitionSize="
-                    + minParitionSize + "; low=" + low + "; high=" + high + "; off=" + off);
-        }
-
-        public void run() {
-            try {
-                threadedMergeSort(src, dest, low, high, off, c);
-            } catch (Exception e) {
-                e.printStackTrace();
-                shutdownAndAwaitTermination();
-            }
+            this.c = c;
+            this.cutoff = cutoff;
+            this.metrics = metrics;
+            this.adaptive = adaptive;
         }
 
-        private <T> void threadedMergeSort(T[] src, T[] dest, int low, int high, int off, Comparator<? super T> c) {
-
+        @Override
+        protected void compute() {
             int length = high - low;
-
-            System.out.println(
-                    "In threadedMergeSort: length=" + length + "; low=" + low + "; high=" + high + "; off=" + off);
-
-            // Insertion sort on smallest arrays
-            if (length < 7) {
-                for (int i = low; i < high; i++)
-                    for (int j = i; j > low && c.compare(dest[j - 1], dest[j]) > 0; j--)
-                        swap(dest, j, j - 1);
+            if (length <= cutoff) {
+                // dest[low, high) still holds the unsorted elements, same as src
+                if (adaptive)
+                    NaturalMergeSort.sort(dest, low, high, c);
+                else
+                    mergeSort(src, dest, low, high, off, c, metrics);
                 return;
             }
 
             // Recursively sort halves of dest into src
             int destLow = low;
-            int destHigh = high;
-            low += off;
-            high += off;
+            int low = this.low + off;
+            int high = this.high + off;
             int mid = (low + high) >>> 1;
-            if (length > minParitionSize) {
-                ThreadedMergeSort sort = new ThreadedMergeSort(dest, src, low, mid, -off, c);
-                Future<?> future = executor.submit(sort);
-                threadedMergeSort(dest, src, mid, high, -off, c);
-
-                try {
-                    future.get(10, TimeUnit.SECONDS);
-                } catch (Exception e) {
-                    e.printStackTrace(); // intentionally continue despite error
-                }
-            } else {
-                mergeSort(dest, src, low, mid, -off, c);
-                mergeSort(dest, src, mid, high, -off, c);
-            }
+            if (metrics != null)
+                metrics.addForks(2);
+            invokeAll(new ThreadedMergeSort<T>(dest, src, low, mid, -off, c, cutoff, metrics, adaptive),
+                    new ThreadedMergeSort<T>(dest, src, mid, high, -off, c, cutoff, metrics, adaptive));
 
             // If list is already sorted, just copy from src to dest. This is an
             // optimization that results in faster sorts for nearly ordered lists.
-            if (c.compare(src[mid - 1], src[mid]) <= 0) {
+            boolean presorted = c.compare(src[mid - 1], src[mid]) <= 0;
+            if (metrics != null)
+                metrics.presorted(presorted);
+            if (presorted) {
                 System.arraycopy(src, low, dest, destLow, length);
+                if (metrics != null)
+                    metrics.addMoves(length);
                 return;
             }
 
             // Merge sorted halves (now in src) into dest
-            for (int i = destLow, p = low, q = mid; i < destHigh; i++) {
-                if (q >= high || p < mid && c.compare(src[p], src[q]) <= 0)
-                    dest[i] = src[p++];
-                else
-                    dest[i] = src[q++];
-            }
+            new ParallelMerge<T>(src, low, mid, mid, high, dest, destLow, c, cutoff, metrics).compute();
         }
+    }
 
-        public static void shutdownAndAwaitTermination() {
-            executor.shutdown(); // Disable new tasks from being submitted
-            try {
-                // Wait a while for existing tasks to terminate
-                if (!executor.awaitTermination(60, TimeUnit.SECONDS)) {
-                    executor.shutdownNow(); // Cancel currently executing tasks
-                    // Wait a while for tasks to respond to being cancelled
-                    if (!executor.awaitTermination(60, TimeUnit.SECONDS))
-                        System.err.println("Pool did not terminate");
-                }
-            } catch (InterruptedException e) {
-                e.printStackTrace();
-                // (Re-)Cancel if current thread also interrupted
-                executor.shutdownNow();
-                // Preserve interrupt status
-                Thread.currentThread().interrupt();
+    /**
+     * Stable merge of the sorted runs src[p0, p1) and src[q0, q1) into dest starting at out.
+     * 
+     * The longer run is split at its middle element and the matching split point is binary searched in the other
+     * run, so both sides can be merged independently. Elements equal to the split element from the left run always
+     * end up before those from the right run, which keeps the merge stable.
+     */
+    static class ParallelMerge<T> extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        final T[] src, dest;
+        final int p0, p1, q0, q1, out;
+        final Comparator<? super T> c;
+        final int cutoff;
+        final SortMetrics metrics;
+
+        ParallelMerge(T[] src, int p0, int p1, int q0, int q1, T[] dest, int out, Comparator<? super T> c,
+                int cutoff, SortMetrics metrics) {
+            this.src = src;
+            this.p0 = p0;
+            this.p1 = p1;
+            this.q0 = q0;
+            this.q1 = q1;
+            this.dest = dest;
+            this.out = out;
+            this.c = c;
+            this.cutoff = cutoff;
+            this.metrics = metrics;
+        }
+
+        @Override
+        protected void compute() {
+            int leftLength = p1 - p0;
+            int rightLength = q1 - q0;
+            if (leftLength + rightLength <= cutoff || leftLength == 0 || rightLength == 0) {
+                merge(src, p0, p1, q0, q1, dest, out, c);
+                if (metrics != null)
+                    metrics.addMoves(leftLength + rightLength);
+                return;
             }
+
+            int p, q;
+            if (leftLength >= rightLength) {
+                p = (p0 + p1) >>> 1;
+                q = lowerBound(src, q0, q1, src[p], c);
+            } else {
+                q = (q0 + q1) >>> 1;
+                p = upperBound(src, p0, p1, src[q], c);
+            }
+            int split = out + (p - p0) + (q - q0);
+            if (metrics != null)
+                metrics.addForks(2);
+            invokeAll(new ParallelMerge<T>(src, p0, p, q0, q, dest, out, c, cutoff, metrics),
+                    new ParallelMerge<T>(src, p, p1, q, q1, dest, split, c, cutoff, metrics));
+        }
+    }
+
+    private static <T> void merge(T[] src, int p, int p1, int q, int q1, T[] dest, int out, Comparator<? super T> c) {
+        while (p < p1 && q < q1)
+            dest[out++] = c.compare(src[p], src[q]) <= 0 ? src[p++] : src[q++];
+        if (p < p1)
+            System.arraycopy(src, p, dest, out, p1 - p);
+        else if (q < q1)
+            System.arraycopy(src, q, dest, out, q1 - q);
+    }
+
+    // First index in a[low, high) whose element is not less than key
+    private static <T> int lowerBound(T[] a, int low, int high, T key, Comparator<? super T> c) {
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (c.compare(a[mid], key) < 0)
+                low = mid + 1;
+            else
+                high = mid;
+        }
+        return low;
+    }
+
+    // First index in a[low, high) whose element is greater than key
+    private static <T> int upperBound(T[] a, int low, int high, T key, Comparator<? super T> c) {
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (c.compare(a[mid], key) <= 0)
+                low = mid + 1;
+            else
+                high = mid;
         }
+        return low;
     }
 
     public static <T> void mergeSort(T[] src, T[] dest, int low, int high, int off, Comparator<? super T> c) {
-        int length = high - low;
+        mergeSort(src, dest, low, high, off, c, null);
+    }
 
-        System.out.println("In mergeSort: length=" + length + "; low=" + low + "; high=" + high + "; off=" + off);
+    static <T> void mergeSort(T[] src, T[] dest, int low, int high, int off, Comparator<? super T> c,
+            SortMetrics metrics) {
+        int length = high - low;
 
         /*
          *  Insertion sort on smallest arrays
@@ -154,10 +281,14 @@ public class MergeSort {
          *  current is bigger.
          */
         if (length < 7) {
+            int swaps = 0;
             for (int i = low; i < high; i++)
                 for (int j = i; j > low && c.compare(dest[j - 1], dest[j]) > 0; j--) {
                     swap(dest, j, j - 1);
+                    swaps++;
                 }
+            if (metrics != null)
+                metrics.addMoves(2 * swaps);
             return;
         }
 
@@ -167,14 +298,19 @@ public class MergeSort {
         low += off;
         high += off;
         int mid = (low + high) >>> 1;
-        mergeSort(dest, src, low, mid, -off, c);
-        mergeSort(dest, src, mid, high, -off, c);
+        mergeSort(dest, src, low, mid, -off, c, metrics);
+        mergeSort(dest, src, mid, high, -off, c, metrics);
 
         /*
          *  If list is already sorted, just copy from src to dest. This is an
          *  optimization that results in faster sorts for nearly ordered lists.
          */
-        if (c.compare(src[mid - 1], src[mid]) <= 0) {
+        boolean presorted = c.compare(src[mid - 1], src[mid]) <= 0;
+        if (metrics != null) {
+            metrics.presorted(presorted);
+            metrics.addMoves(length); // copied or merged
+        }
+        if (presorted) {
             System.arraycopy(src, low, dest, destLow, length);
             return;
         }
@@ -193,6 +329,77 @@ public class MergeSort {
         }
     }
 
+    /**
+     * Merge sort an array of ints, such as row indexes, with a primitive comparator.
+     */
+    public static void mergeSort(int[] a, IntComparator c) {
+        mergeSort(a, c, null);
+    }
+
+    /**
+     * Same as mergeSort(int[], IntComparator), collecting comparisons, moves and presorted hits into metrics if it
+     * is not null.
+     */
+    public static void mergeSort(int[] a, IntComparator c, SortMetrics metrics) {
+        int[] aux = a.clone();
+        mergeSort(aux, a, 0, a.length, 0, metrics != null ? metrics.countingInts(c) : c, metrics);
+    }
+
+    /**
+     * Same algorithm as mergeSort(T[], T[], ...), specialized for int[] so no element is boxed.
+     */
+    public static void mergeSort(int[] src, int[] dest, int low, int high, int off, IntComparator c) {
+        mergeSort(src, dest, low, high, off, c, null);
+    }
+
+    private static void mergeSort(int[] src, int[] dest, int low, int high, int off, IntComparator c,
+            SortMetrics metrics) {
+        int length = high - low;
+
+        // Insertion sort on smallest arrays
+        if (length < 7) {
+            int swaps = 0;
+            for (int i = low; i < high; i++)
+                for (int j = i; j > low && c.compare(dest[j - 1], dest[j]) > 0; j--) {
+                    int t = dest[j];
+                    dest[j] = dest[j - 1];
+                    dest[j - 1] = t;
+                    swaps++;
+                }
+            if (metrics != null)
+                metrics.addMoves(2 * swaps);
+            return;
+        }
+
+        // Recursively sort halves of dest into src
+        int destLow = low;
+        int destHigh = high;
+        low += off;
+        high += off;
+        int mid = (low + high) >>> 1;
+        mergeSort(dest, src, low, mid, -off, c, metrics);
+        mergeSort(dest, src, mid, high, -off, c, metrics);
+
+        // If list is already sorted, just copy from src to dest.
+        boolean presorted = c.compare(src[mid - 1], src[mid]) <= 0;
+        if (metrics != null) {
+            metrics.presorted(presorted);
+            metrics.addMoves(length); // copied or merged
+        }
+        if (presorted) {
+            System.arraycopy(src, low, dest, destLow, length);
+            return;
+        }
+
+        // Merge sorted halves (now in src) into dest
+        for (int i = destLow, p = low, q = mid; i < destHigh; i++) {
+            if (q >= high || p < mid && c.compare(src[p], src[q]) <= 0)
+                dest[i] = src[p++];
+            else
+                dest[i] = src[q++];
+        }
+    }
+
     private static void swap(Object[] x, int a, int b) {
         Object t = x[a];
         x[a] = x[b];
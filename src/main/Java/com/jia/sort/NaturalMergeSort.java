@@ -0,0 +1,29 @@
+package com.jia.sort;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Adaptive, stable merge sort on natural runs, for nearly sorted input.
+ *
+ * Delegates to Arrays.sort() with a comparator, the JDK's TimSort: runs that are already in order are found and
+ * kept, strictly descending runs are reversed, and the runs are merged with galloping. On presorted or reverse
+ * sorted input the whole array is one run and the sort is a single O(n) scan. The result is the same as MergeSort's
+ * for any comparator that is a total order.
+ */
+public final class NaturalMergeSort {
+
+    private NaturalMergeSort() {
+    }
+
+    public static <T> void sort(T[] a, Comparator<? super T> c) {
+        Arrays.sort(a, c);
+    }
+
+    /**
+     * Sort a[low, high).
+     */
+    public static <T> void sort(T[] a, int low, int high, Comparator<? super T> c) {
+        Arrays.sort(a, low, high, c);
+    }
+}
@@ -0,0 +1,67 @@
+package com.jia.sort;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Sort a List by precomputed, binary comparable keys.
+ *
+ * Each element's key is a byte[] whose unsigned lexicographic order is the sort order, so one key comparison
+ * replaces a whole chain of comparators. The first 8 bytes are also kept as a long prefix: most comparisons are
+ * decided by comparing two longs, and only ties on the prefix compare the rest of the arrays.
+ */
+public final class NormalizedKeySort {
+
+    private NormalizedKeySort() {
+    }
+
+    /**
+     * Stable sort of l by the keys. Keys are computed once per element, in parallel if threaded.
+     */
+    public static <T> void sort(List<T> l, Function<? super T, byte[]> keys, MergeSort sorter, boolean threaded) {
+        List<Keyed<T>> keyed = (threaded ? l.parallelStream() : l.stream())
+                .map(e -> new Keyed<T>(e, keys.apply(e))).collect(Collectors.toCollection(ArrayList::new));
+
+        sorter.mergeSort(keyed, (k0, k1) -> k0.compareTo(k1), threaded);
+
+        ListIterator<T> i = l.listIterator();
+        for (Keyed<T> k : keyed) {
+            i.next();
+            i.set(k.value);
+        }
+    }
+
+    /**
+     * The first 8 bytes of key as a big-endian long, zero padded.
+     */
+    public static long prefix(byte[] key) {
+        long prefix = 0;
+        for (int i = 0; i < 8; i++)
+            prefix = prefix << 8 | (i < key.length ? key[i] & 0xFF : 0);
+        return prefix;
+    }
+
+    static final class Keyed<T> implements Comparable<Keyed<T>> {
+        final long prefix;
+        final byte[] key;
+        final T value;
+
+        Keyed(T value, byte[] key) {
+            this.value = value;
+            this.key = key;
+            this.prefix = prefix(key);
+        }
+
+        @Override
+        public int compareTo(Keyed<T> other) {
+            int n = Long.compareUnsigned(prefix, other.prefix);
+            if (n != 0)
+                return n;
+            return Arrays.compareUnsigned(key, other.key);
+        }
+    }
+}
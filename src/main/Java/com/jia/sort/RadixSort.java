@@ -0,0 +1,240 @@
+package com.jia.sort;
+
+import java.util.Arrays;
+
+/**
+ * Stable radix sorts of row indexes by precomputed keys. No comparisons, so they run in O(n) per key byte instead
+ * of O(n log n) comparator calls.
+ *
+ * - sort(int[], long[]): LSD radix sort by 64-bit keys compared as unsigned, one byte per pass. Passes where all
+ *   keys have the same byte are skipped, so small ints take no more than 4 passes. Use the sortable*() methods to
+ *   turn ints, longs and doubles into keys.
+ * - sort(int[], String[], boolean): MSD radix sort by strings, in String.compareTo() order. Each char is taken as
+ *   two bytes, so a pass has 257 buckets (the extra one for strings that end there). Small buckets are insertion
+ *   sorted. The buckets left to sort are kept on a stack instead of recursing, so long common prefixes take no
+ *   thread stack, and a byte all strings of a bucket share is skipped without moving them.
+ *
+ * Both are stable: rows with equal keys keep their order, so a multi-column sort can sort by each column from the
+ * last to the first.
+ */
+public final class RadixSort {
+
+    private static final int RADIX = 256;
+
+    // Buckets smaller than this are insertion sorted by the MSD sort
+    private static final int INSERTION_SORT_CUTOFF = 32;
+
+    private RadixSort() {
+    }
+
+    /**
+     * Key of an int, in the same order as the ints.
+     */
+    public static long sortableInt(int i) {
+        return i ^ Long.MIN_VALUE;
+    }
+
+    /**
+     * Key of a long, in the same order as the longs.
+     */
+    public static long sortableLong(long l) {
+        return l ^ Long.MIN_VALUE;
+    }
+
+    /**
+     * Key of a double, in Double.compare() order: -0.0 before 0.0, NaN last. Negative numbers have all bits flipped,
+     * positive numbers only the sign bit.
+     */
+    public static long sortableDouble(double d) {
+        long bits = Double.doubleToLongBits(d);
+        return bits < 0 ? ~bits : bits ^ Long.MIN_VALUE;
+    }
+
+    /**
+     * Sort rows by keys, ascending in unsigned order. keys[i] is the key of rows[i], both arrays are reordered.
+     */
+    public static void sort(int[] rows, long[] keys) {
+        int n = rows.length;
+        if (n < 2)
+            return;
+
+        // All histograms in one scan
+        int[] counts = new int[8 * RADIX];
+        for (long key : keys)
+            for (int b = 0; b < 8; b++)
+                counts[b * RADIX + (int) (key >>> (b << 3) & 0xFF)]++;
+
+        int[] rowsIn = rows;
+        long[] keysIn = keys;
+        int[] rowsOut = new int[n];
+        long[] keysOut = new long[n];
+        for (int b = 0; b < 8; b++) {
+            int shift = b << 3;
+            int offset = b * RADIX;
+            if (counts[offset + (int) (keysIn[0] >>> shift & 0xFF)] == n)
+                continue; // every key has the same byte
+
+            int sum = 0;
+            for (int i = 0; i < RADIX; i++) {
+                int count = counts[offset + i];
+                counts[offset + i] = sum;
+                sum += count;
+            }
+            for (int i = 0; i < n; i++) {
+                long key = keysIn[i];
+                int to = counts[offset + (int) (key >>> shift & 0xFF)]++;
+                rowsOut[to] = rowsIn[i];
+                keysOut[to] = key;
+            }
+
+            int[] r = rowsIn;
+            rowsIn = rowsOut;
+            rowsOut = r;
+            long[] k = keysIn;
+            keysIn = keysOut;
+            keysOut = k;
+        }
+        if (rowsIn != rows) {
+            System.arraycopy(rowsIn, 0, rows, 0, n);
+            System.arraycopy(keysIn, 0, keys, 0, n);
+        }
+    }
+
+    /**
+     * Sort rows by strings. keys[i] is the key of rows[i], both arrays are reordered.
+     *
+     * @param descending reverse String.compareTo() order, equal strings still keep their order
+     */
+    public static void sort(int[] rows, String[] keys, boolean descending) {
+        int n = rows.length;
+        if (n < 2)
+            return;
+        new StringSort(rows, keys, descending).sort();
+    }
+
+    private static final class StringSort {
+        private final int[] rows;
+        private final String[] keys;
+        private final boolean descending;
+        private final int[] rowsAux;
+        private final String[] keysAux;
+
+        StringSort(int[] rows, String[] keys, boolean descending) {
+            this.rows = rows;
+            this.keys = keys;
+            this.descending = descending;
+            this.rowsAux = new int[rows.length];
+            this.keysAux = new String[rows.length];
+        }
+
+        /**
+         * Bucket of a string at byte depth d: 0 if the string ended before d, otherwise the byte + 1. Descending
+         * mirrors the buckets.
+         */
+        private int bucket(String s, int d) {
+            int index = d >>> 1;
+            int b;
+            if (index >= s.length()) {
+                b = 0;
+            } else {
+                char c = s.charAt(index);
+                b = ((d & 1) == 0 ? c >>> 8 : c & 0xFF) + 1;
+            }
+            return descending ? RADIX - b : b;
+        }
+
+        /**
+         * Sort all rows. Each range on the stack is a low, high, d triple: [low, high) is left to sort, and all its
+         * strings share their first d bytes. The ranges are disjoint and hold two strings or more, so there are at
+         * most n / 2 of them.
+         */
+        void sort() {
+            int[] stack = new int[3 * 16];
+            int top = 0;
+            stack[top++] = 0;
+            stack[top++] = rows.length;
+            stack[top++] = 0;
+            int end = descending ? RADIX : 0; // bucket of the strings that ended
+            while (top > 0) {
+                int d = stack[--top];
+                int high = stack[--top];
+                int low = stack[--top];
+                if (high - low < INSERTION_SORT_CUTOFF) {
+                    insertionSort(low, high, d >>> 1);
+                    continue;
+                }
+
+                int[] counts = new int[RADIX + 2];
+                for (int i = low; i < high; i++)
+                    counts[bucket(keys[i], d) + 1]++;
+
+                // All strings in one bucket: nothing to move, go on with the next byte
+                int first = bucket(keys[low], d);
+                if (counts[first + 1] == high - low) {
+                    if (first != end)
+                        top = push(stack, top, low, high, d + 1); // where it was popped from
+                    continue;
+                }
+
+                for (int i = 0; i <= RADIX; i++)
+                    counts[i + 1] += counts[i];
+                for (int i = low; i < high; i++) {
+                    int to = counts[bucket(keys[i], d)]++;
+                    rowsAux[to] = rows[i];
+                    keysAux[to] = keys[i];
+                }
+                System.arraycopy(rowsAux, 0, rows, low, high - low);
+                System.arraycopy(keysAux, 0, keys, low, high - low);
+
+                // counts[b] is now the end of bucket b. Strings that ended are done, the others are sorted next.
+                int start = low;
+                for (int b = 0; b <= RADIX; b++) {
+                    int next = low + counts[b];
+                    if (b != end && next - start > 1) {
+                        stack = grown(stack, top);
+                        top = push(stack, top, start, next, d + 1);
+                    }
+                    start = next;
+                }
+            }
+        }
+
+        private static int push(int[] stack, int top, int low, int high, int d) {
+            stack[top++] = low;
+            stack[top++] = high;
+            stack[top++] = d;
+            return top;
+        }
+
+        // stack with room for one more range
+        private static int[] grown(int[] stack, int top) {
+            return top + 3 <= stack.length ? stack : Arrays.copyOf(stack, 2 * stack.length);
+        }
+
+        // Stable, the strings are known to be equal before char index from
+        private void insertionSort(int low, int high, int from) {
+            for (int i = low + 1; i < high; i++) {
+                int row = rows[i];
+                String key = keys[i];
+                int j = i;
+                for (; j > low && compare(keys[j - 1], key, from) > 0; j--) {
+                    rows[j] = rows[j - 1];
+                    keys[j] = keys[j - 1];
+                }
+                rows[j] = row;
+                keys[j] = key;
+            }
+        }
+
+        private int compare(String s0, String s1, int from) {
+            int length = Math.min(s0.length(), s1.length());
+            for (int i = from; i < length; i++) {
+                int n = s0.charAt(i) - s1.charAt(i);
+                if (n != 0)
+                    return descending ? -n : n;
+            }
+            int n = s0.length() - s1.length();
+            return descending ? -n : n;
+        }
+    }
+}
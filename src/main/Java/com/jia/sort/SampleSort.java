@@ -0,0 +1,196 @@
+package com.jia.sort;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+
+/**
+ * Parallel sample sort: splits the elements into buckets by value, sorts the buckets independently and is done,
+ * there is no merge of the whole array at the end.
+ *
+ * - A random sample of OVERSAMPLING elements per bucket is sorted, every OVERSAMPLING-th of them is a splitter.
+ * - Each element goes to the bucket between the two splitters around it, or to the bucket of a splitter it is equal
+ *   to. Those equal buckets need no sort, so many duplicates do not make one bucket larger than the others.
+ * - The elements are classified, then moved to their buckets, by chunks of the array in parallel. A bucket gets the
+ *   elements of the first chunk first, each chunk's in their order, so equal elements keep their order.
+ * - The buckets are merge sorted (MergeSort, stable) in parallel, as many as the pool takes.
+ *
+ * So the result is the same as MergeSort's. Small arrays, with fewer than two buckets of MIN_BUCKET_SIZE, are merge
+ * sorted sequentially.
+ */
+public class SampleSort {
+
+    public static final int OVERSAMPLING = 32;
+    public static final int MIN_BUCKET_SIZE = 1024;
+    public static final int BUCKETS_PER_THREAD = 4; // for work-stealing to even out the bucket sizes
+
+    private final ForkJoinPool pool;
+    private final int buckets;
+    private SortMetrics metrics;
+    private boolean adaptive;
+
+    public SampleSort() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    public SampleSort(ForkJoinPool pool) {
+        this(pool, BUCKETS_PER_THREAD * pool.getParallelism());
+    }
+
+    /**
+     * @param buckets at most this many buckets between splitters
+     */
+    public SampleSort(ForkJoinPool pool, int buckets) {
+        if (buckets < 1)
+            throw new IllegalArgumentException("Buckets must be at least 1: " + buckets);
+        this.pool = pool;
+        this.buckets = buckets;
+    }
+
+    /**
+     * Collect comparisons, moves and forks into metrics. null, the default, collects nothing.
+     */
+    public void setMetrics(SortMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Sort each bucket with NaturalMergeSort, as MergeSort.setAdaptive().
+     */
+    public void setAdaptive(boolean adaptive) {
+        this.adaptive = adaptive;
+    }
+
+    @SuppressWarnings("unchecked")
+    public <T> void sort(List<T> l, Comparator<? super T> c) {
+        Object[] a = l.toArray();
+
+        sort((T[]) a, c);
+
+        ListIterator<T> i = l.listIterator();
+        for (Object e : a) {
+            i.next();
+            i.set((T) e);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    public <T> void sort(T[] a, Comparator<? super T> c) {
+        if (metrics != null)
+            c = metrics.counting(c);
+        int n = a.length;
+        int k = Math.min(buckets, n / MIN_BUCKET_SIZE);
+        if (k < 2) {
+            sortRange(a.clone(), a, 0, n, c);
+            return;
+        }
+
+        Object[] splitters = splitters(a, k, c);
+        int bucketCount = 2 * splitters.length + 1;
+        int chunks = k;
+        int chunkSize = (n + chunks - 1) / chunks;
+
+        // Classify each chunk, counting its elements per bucket
+        int[] ids = new int[n];
+        int[][] counts = new int[chunks][bucketCount];
+        Comparator<? super T> comparator = c;
+        run(chunks, t -> {
+            int[] count = counts[t];
+            for (int i = t * chunkSize, end = Math.min(n, i + chunkSize); i < end; i++) {
+                int id = bucket(a[i], (T[]) splitters, comparator);
+                ids[i] = id;
+                count[id]++;
+            }
+        });
+
+        // Where each chunk's elements of each bucket go: by bucket, then by chunk
+        int[] starts = new int[bucketCount + 1];
+        int[][] offsets = new int[chunks][bucketCount];
+        for (int b = 0, pos = 0; b < bucketCount; b++) {
+            starts[b] = pos;
+            for (int t = 0; t < chunks; t++) {
+                offsets[t][b] = pos;
+                pos += counts[t][b];
+            }
+        }
+        starts[bucketCount] = n;
+
+        T[] aux = (T[]) new Object[n];
+        run(chunks, t -> {
+            int[] offset = offsets[t];
+            for (int i = t * chunkSize, end = Math.min(n, i + chunkSize); i < end; i++)
+                aux[offset[ids[i]]++] = a[i];
+        });
+
+        // Sort the buckets from aux back into a. Odd buckets hold elements equal to a splitter.
+        run(bucketCount, b -> {
+            int low = starts[b];
+            int high = starts[b + 1];
+            System.arraycopy(aux, low, a, low, high - low);
+            if ((b & 1) == 0)
+                sortRange(aux, a, low, high, comparator);
+        });
+        if (metrics != null) {
+            metrics.addForks(2L * chunks + bucketCount);
+            metrics.addMoves(2L * n);
+        }
+    }
+
+    // Sort dest[low, high), src holding the same elements
+    private <T> void sortRange(T[] src, T[] dest, int low, int high, Comparator<? super T> c) {
+        if (adaptive)
+            NaturalMergeSort.sort(dest, low, high, c);
+        else
+            MergeSort.mergeSort(src, dest, low, high, 0, c, metrics);
+    }
+
+    /**
+     * At most k - 1 distinct splitters in order, from a sorted random sample of a.
+     */
+    @SuppressWarnings("unchecked")
+    private <T> Object[] splitters(T[] a, int k, Comparator<? super T> c) {
+        int m = Math.min(a.length, k * OVERSAMPLING);
+        Object[] sample = new Object[m];
+        SplittableRandom random = new SplittableRandom(a.length);
+        for (int i = 0; i < m; i++)
+            sample[i] = a[random.nextInt(a.length)];
+        MergeSort.mergeSort((T[]) sample.clone(), (T[]) sample, 0, m, 0, c, null);
+
+        List<Object> splitters = new ArrayList<>(k - 1);
+        for (int i = 1; i < k; i++) {
+            T s = (T) sample[(int) ((long) i * m / k)];
+            if (splitters.isEmpty() || c.compare((T) splitters.get(splitters.size() - 1), s) < 0)
+                splitters.add(s);
+        }
+        return splitters.toArray();
+    }
+
+    /**
+     * The bucket of e: 2i for the elements between splitters i - 1 and i, 2i + 1 for those equal to splitter i.
+     */
+    private static <T> int bucket(T e, T[] splitters, Comparator<? super T> c) {
+        // First splitter greater than e
+        int low = 0;
+        int high = splitters.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (c.compare(e, splitters[mid]) < 0)
+                high = mid;
+            else
+                low = mid + 1;
+        }
+        if (low > 0 && c.compare(e, splitters[low - 1]) == 0)
+            return 2 * low - 1;
+        return 2 * low;
+    }
+
+    // Run body for 0 to tasks - 1 in the pool
+    private void run(int tasks, IntConsumer body) {
+        pool.submit(() -> IntStream.range(0, tasks).parallel().forEach(body)).join();
+    }
+}
@@ -0,0 +1,164 @@
+package com.jia.sort;
+
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Opt-in counters for a sort. Pass an instance to MergeSort.setMetrics() (or the CSVSorter) to collect them, with no
+ * metrics set nothing is counted or timed.
+ *
+ * The counters are LongAdders, so the fork/join workers of a threaded sort can update them without contention.
+ * Sequential code adds its counts in bulk, once per merge or insertion sort, rather than per element.
+ *
+ * - comparisons: calls to the comparator made by the merge sort
+ * - moves: elements written to the destination array by merges, copies and insertion sort swaps
+ * - forks: tasks created by the threaded sort and merge
+ * - presorted checks and hits: how often the "halves already in order" shortcut was tried and taken
+ * - phase times: wall clock nanoseconds spent reading, parsing, sorting and writing
+ */
+public class SortMetrics {
+
+    public enum Phase {
+        READ, PARSE, SORT, WRITE
+    }
+
+    private final LongAdder comparisons = new LongAdder();
+    private final LongAdder moves = new LongAdder();
+    private final LongAdder forks = new LongAdder();
+    private final LongAdder presortedChecks = new LongAdder();
+    private final LongAdder presortedHits = new LongAdder();
+    private final Map<Phase, LongAdder> phases = new EnumMap<>(Phase.class);
+
+    public SortMetrics() {
+        for (Phase phase : Phase.values())
+            phases.put(phase, new LongAdder());
+    }
+
+    /**
+     * c, counting each call.
+     */
+    public <T> Comparator<T> counting(Comparator<T> c) {
+        return (o1, o2) -> {
+            comparisons.increment();
+            return c.compare(o1, o2);
+        };
+    }
+
+    /**
+     * c, counting each call.
+     */
+    public IntComparator countingInts(IntComparator c) {
+        return (a, b) -> {
+            comparisons.increment();
+            return c.compare(a, b);
+        };
+    }
+
+    /**
+     * Comparisons counted by the caller, for sorts that do not compare through a comparator.
+     */
+    public void addComparisons(long n) {
+        comparisons.add(n);
+    }
+
+    public void addMoves(long n) {
+        moves.add(n);
+    }
+
+    public void addForks(long n) {
+        forks.add(n);
+    }
+
+    /**
+     * One presorted check, hit if the halves were already in order.
+     */
+    public void presorted(boolean hit) {
+        presortedChecks.increment();
+        if (hit)
+            presortedHits.increment();
+    }
+
+    public void addTime(Phase phase, long nanos) {
+        phases.get(phase).add(nanos);
+    }
+
+    public long comparisons() {
+        return comparisons.sum();
+    }
+
+    public long moves() {
+        return moves.sum();
+    }
+
+    public long forks() {
+        return forks.sum();
+    }
+
+    public long presortedChecks() {
+        return presortedChecks.sum();
+    }
+
+    public long presortedHits() {
+        return presortedHits.sum();
+    }
+
+    /**
+     * Fraction of the presorted checks that were hits, 0 if there was none.
+     */
+    public double presortedHitRate() {
+        long checks = presortedChecks();
+        return checks == 0 ? 0 : (double) presortedHits() / checks;
+    }
+
+    public long nanos(Phase phase) {
+        return phases.get(phase).sum();
+    }
+
+    /**
+     * Sum of all phase times.
+     */
+    public long totalNanos() {
+        long total = 0;
+        for (Phase phase : Phase.values())
+            total += nanos(phase);
+        return total;
+    }
+
+    public void reset() {
+        comparisons.reset();
+        moves.reset();
+        forks.reset();
+        presortedChecks.reset();
+        presortedHits.reset();
+        phases.values().forEach(LongAdder::reset);
+    }
+
+    /**
+     * The counters as a single line JSON object. Phase times are in milliseconds.
+     */
+    public String toJson() {
+        StringBuilder sb = new StringBuilder("{");
+        sb.append("\"comparisons\":").append(comparisons());
+        sb.append(",\"moves\":").append(moves());
+        sb.append(",\"forks\":").append(forks());
+        sb.append(",\"presortedChecks\":").append(presortedChecks());
+        sb.append(",\"presortedHits\":").append(presortedHits());
+        sb.append(",\"presortedHitRate\":").append(String.format(Locale.ROOT, "%.4f", presortedHitRate()));
+        sb.append(",\"phases\":{");
+        for (Phase phase : Phase.values()) {
+            if (phase.ordinal() > 0)
+                sb.append(',');
+            sb.append('"').append(phase.name().toLowerCase(Locale.ROOT)).append("\":")
+                    .append(String.format(Locale.ROOT, "%.3f", nanos(phase) / 1e6));
+        }
+        return sb.append("}}").toString();
+    }
+
+    @Override
+    public String toString() {
+        return toJson();
+    }
+}
@@ -0,0 +1,77 @@
+package com.jia.sort;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Keeps the first limit elements, in sort order, of a stream of elements without storing the rest.
+ *
+ * The elements kept are in a bounded max-heap, so each add() is O(log limit) and memory is O(limit). Ties are
+ * broken by arrival order, so result() is exactly the first limit elements a stable sort of all elements would
+ * return.
+ */
+public class TopK<T> {
+
+    private final int limit;
+    private final Comparator<? super T> c;
+    private final BinaryHeap<Entry<T>> heap;
+    private long count;
+
+    public TopK(int limit, Comparator<? super T> c) {
+        if (limit <= 0)
+            throw new IllegalArgumentException("Limit must be positive: " + limit);
+        this.limit = limit;
+        this.c = c;
+        Comparator<Entry<T>> order = (e0, e1) -> {
+            int n = c.compare(e0.value, e1.value);
+            return n != 0 ? n : Long.compare(e0.seq, e1.seq);
+        };
+        // Max-heap: the top is the last element kept, the first to be replaced
+        this.heap = new BinaryHeap<>(Math.min(limit, 1024), order.reversed());
+    }
+
+    public void add(T e) {
+        long seq = count++;
+        if (heap.size() < limit) {
+            heap.add(new Entry<>(e, seq));
+            return;
+        }
+        // A later element must be strictly smaller than the top to displace it
+        Entry<T> top = heap.peek();
+        if (c.compare(e, top.value) < 0) {
+            top.value = e;
+            top.seq = seq;
+            heap.replaceTop(top);
+        }
+    }
+
+    /**
+     * The number of elements added so far.
+     */
+    public long count() {
+        return count;
+    }
+
+    /**
+     * The elements kept, in sort order. Empties the heap.
+     */
+    @SuppressWarnings("unchecked")
+    public List<T> result() {
+        Object[] sorted = new Object[heap.size()];
+        for (int i = sorted.length - 1; i >= 0; i--)
+            sorted[i] = heap.poll().value;
+        return new ArrayList<>((List<T>) Arrays.asList(sorted));
+    }
+
+    private static final class Entry<T> {
+        T value;
+        long seq;
+
+        Entry(T value, long seq) {
+            this.value = value;
+            this.seq = seq;
+        }
+    }
+}
@@ -3,6 +3,22 @@ package com.jia.csv.test;
 import static org.junit.Assert.assertTrue;
 
 import com.jia.csv.CSVSorter;
+import com.jia.csv.CsvWriter;
+import com.jia.csv.RecordSink;
+import com.jia.sort.SortMetrics;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+import java.util.zip.GZIPOutputStream;
 
 import org.junit.Assert;
 import org.junit.Test;
@@ -70,5 +86,379 @@ public class CSVSorterUnitTest {
         Double actual = CSVSorter.parseDouble(String.valueOf(expected));
         Assert.assertEquals(expected, actual.doubleValue(), 0.001);
     }
-    
+
+    @Test
+    public void parseSize() {
+        Assert.assertEquals(Long.valueOf(512 * 1024), CSVSorter.parseSize("512k"));
+        Assert.assertEquals(Long.valueOf(2L << 30), CSVSorter.parseSize("2G"));
+        Assert.assertEquals(Long.valueOf(100), CSVSorter.parseSize("100"));
+        Assert.assertNull(CSVSorter.parseSize("0m"));
+        Assert.assertNull(CSVSorter.parseSize("12x"));
+        // Past Long.MAX_VALUE, before and after the unit
+        Assert.assertNull(CSVSorter.parseSize("99999999999999999999"));
+        Assert.assertNull(CSVSorter.parseSize("9007199254740992k"));
+        Assert.assertNull(CSVSorter.parseSize("10000000000g"));
+    }
+
+    private static byte[] sort(CSVSorter sorter, Path path, String[] sortOpts, int readMethod) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        sorter.setSink(new CsvWriter(bytes));
+        sorter.sort(path.toString(), sortOpts, readMethod, CSVSorter.NOT_THREADED);
+        return bytes.toByteArray();
+    }
+
+    private static List<String> values(CSVSorter sorter, Path path, String[] sortOpts) throws IOException {
+        List<String> records = new ArrayList<>();
+        sorter.setSink(new RecordSink() {
+            @Override
+            public void header(String[] names) {
+            }
+
+            @Override
+            public void record(Object[] values) {
+                records.add(Arrays.toString(values));
+            }
+
+            @Override
+            public void flush() {
+            }
+
+            @Override
+            public void close() {
+            }
+        });
+        sorter.sort(path.toString(), sortOpts, CSVSorter.SERIAL_READ, CSVSorter.NOT_THREADED);
+        return records;
+    }
+
+    // A small memory budget, so EXTERNAL_READ spills several runs
+    private static CSVSorter spillingSorter() {
+        CSVSorter sorter = new CSVSorter();
+        sorter.setMemoryBudget(50000);
+        return sorter;
+    }
+
+    @Test
+    public void numbersKeepTheirText() throws IOException {
+        StringBuilder csv = new StringBuilder("Id,Amount,Code\n");
+        String[] amounts = {"12345678.5", "0.0001", "1.50", "2.0", "12345678901234.251", "3"};
+        String[] codes = {"007", "0", "12", "0012", "3000000000", "1"};
+        for (int i = 0; i < 3000; i++)
+            csv.append(i).append(',').append(amounts[i % amounts.length]).append(',').append(codes[i % codes.length])
+                    .append('\n');
+        Path path = Files.createTempFile("numbers", ".csv");
+        try {
+            Files.write(path, csv.toString().getBytes());
+            for (int readMethod : new int[] {CSVSorter.SERIAL_READ, CSVSorter.PARALLEL_READ, CSVSorter.EXTERNAL_READ,
+                    CSVSorter.COLUMNAR_READ, CSVSorter.MAPPED_READ, CSVSorter.PIPELINED_READ})
+                Assert.assertEquals(csv.toString(),
+                        new String(sort(spillingSorter(), path, new String[] {"0a"}, readMethod)));
+        } finally {
+            Files.delete(path);
+        }
+    }
+
+    @Test
+    public void columnarSameAsRowSort() throws IOException {
+        Random random = new Random(3);
+        StringBuilder csv = new StringBuilder("Mixed,Large,Label\n");
+        for (int i = 0; i < 3000; i++) {
+            int kind = random.nextInt(6);
+            csv.append(kind == 0 ? "" : kind == 1 ? "x" + random.nextInt(20) : kind == 2 ? "" + random.nextInt(20)
+                    : kind == 3 ? random.nextInt(20) + ".50" : kind == 4 ? "\"" + random.nextInt(20) + "\""
+                    : "00" + random.nextInt(20)).append(',');
+            long large = (long) Math.pow(10, 8 + random.nextInt(10)) + random.nextInt(1000);
+            csv.append(random.nextInt(5) == 0 ? "0" + large : large).append(",L").append(random.nextInt(7)).append('\n');
+        }
+        Path path = Files.createTempFile("columnar", ".csv");
+        try {
+            Files.write(path, csv.toString().getBytes());
+            for (String[] sortOpts : new String[][] {{"0a"}, {"0d", "2a"}, {"1a"}, {"1d", "0a"}}) {
+                String expected = new String(sort(spillingSorter(), path, sortOpts, CSVSorter.SERIAL_READ));
+                for (int readMethod : new int[] {CSVSorter.COLUMNAR_READ, CSVSorter.PARALLEL_READ,
+                        CSVSorter.EXTERNAL_READ, CSVSorter.MAPPED_READ, CSVSorter.PIPELINED_READ})
+                    Assert.assertEquals(expected, new String(sort(spillingSorter(), path, sortOpts, readMethod)));
+            }
+        } finally {
+            Files.delete(path);
+        }
+    }
+
+    @Test
+    public void radixSortSameAsMergeSort() throws IOException {
+        Random random = new Random(6);
+        StringBuilder csv = new StringBuilder("Mixed,Amount,Label\n");
+        for (int i = 0; i < 3000; i++) {
+            int kind = random.nextInt(4);
+            csv.append(kind == 0 ? "" : kind == 1 ? "x" + random.nextInt(20) : kind == 2 ? random.nextInt(20)
+                    : random.nextInt(20) + ".5");
+            csv.append(',').append(random.nextInt(10) * 1.25).append(",L").append(random.nextInt(7)).append('\n');
+        }
+        Path path = Files.createTempFile("radix", ".csv");
+        try {
+            Files.write(path, csv.toString().getBytes());
+            for (boolean raw : new boolean[] {false, true}) {
+                CSVSorter merge = new CSVSorter();
+                merge.setRawOutput(raw);
+                merge.setRadixSort(false);
+                CSVSorter radix = new CSVSorter();
+                radix.setRawOutput(raw);
+                radix.setRadixSort(true);
+                for (String[] sortOpts : new String[][] {{"0a"}, {"0d", "1a"}, {"2d", "0a", "1d"}})
+                    Assert.assertArrayEquals(sort(merge, path, sortOpts, CSVSorter.SERIAL_READ),
+                            sort(radix, path, sortOpts, CSVSorter.SERIAL_READ));
+            }
+        } finally {
+            Files.delete(path);
+        }
+    }
+
+    @Test
+    public void rawOutputThreaded() throws IOException {
+        Random random = new Random(13);
+        Path path = Files.createTempFile("raw", ".csv");
+        try {
+            Files.write(path, ("Name,Amount,Note\n" + rows(random, 20000)).getBytes());
+            CSVSorter raw = new CSVSorter();
+            raw.setRawOutput(true);
+            SortMetrics metrics = new SortMetrics();
+            raw.setMetrics(metrics);
+            String[] sortOpts = {"1d", "0a"};
+            byte[] expected = sort(raw, path, sortOpts, CSVSorter.SERIAL_READ);
+            Assert.assertEquals(0, metrics.forks());
+
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            raw.setSink(new CsvWriter(bytes));
+            raw.sort(path.toString(), sortOpts, CSVSorter.SERIAL_READ, CSVSorter.THREADED);
+            Assert.assertArrayEquals(expected, bytes.toByteArray());
+            Assert.assertTrue(metrics.forks() > 0);
+        } finally {
+            Files.delete(path);
+        }
+    }
+
+    @Test
+    public void lazyParsingSameAsRaw() throws IOException {
+        Random random = new Random(7);
+        StringBuilder csv = new StringBuilder("Name,Amount,Note\n");
+        for (int i = 0; i < 3000; i++) {
+            csv.append(random.nextBoolean() ? "Doe" + random.nextInt(5) + ", John" : "\"Roe, Jane\"").append(',');
+            csv.append(random.nextInt(3) == 0 ? "" : random.nextInt(50) + "." + random.nextInt(10)).append(',');
+            csv.append(random.nextBoolean() ? "\"a, \"\"b\"\"\"" : "n" + random.nextInt(9)).append('\n');
+        }
+        Path path = Files.createTempFile("lazy", ".csv");
+        try {
+            Files.write(path, csv.toString().getBytes());
+            CSVSorter raw = new CSVSorter();
+            raw.setRawOutput(true);
+            CSVSorter lazy = new CSVSorter();
+            lazy.setLazyParsing(true);
+            for (String[] sortOpts : new String[][] {{}, {"1a"}, {"2d", "0a"}, {"0d", "1d", "2a"}}) {
+                byte[] expected = sort(raw, path, sortOpts, CSVSorter.SERIAL_READ);
+                Assert.assertArrayEquals(expected, sort(lazy, path, sortOpts, CSVSorter.SERIAL_READ));
+                Assert.assertArrayEquals(expected, sort(lazy, path, sortOpts, CSVSorter.PARALLEL_READ));
+                Assert.assertArrayEquals(expected, sort(lazy, path, sortOpts, CSVSorter.MAPPED_READ));
+                Assert.assertEquals(values(new CSVSorter(), path, sortOpts), values(lazy, path, sortOpts));
+            }
+        } finally {
+            Files.delete(path);
+        }
+    }
+
+    private static String rows(Random random, int count) {
+        StringBuilder csv = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            csv.append(random.nextBoolean() ? "Doe" + random.nextInt(5) + ", John" : "\"Roe, Jane\"").append(',');
+            csv.append(random.nextInt(3) == 0 ? "" : random.nextInt(50) + "." + random.nextInt(10)).append(",n");
+            csv.append(random.nextInt(9)).append('\n');
+        }
+        return csv.toString();
+    }
+
+    @Test
+    public void indexedSortMergesAppendedRows() throws IOException {
+        Random random = new Random(8);
+        Path path = Files.createTempFile("indexed", ".csv");
+        Path index = path.resolveSibling(path.getFileName() + CSVSorter.INDEX_SUFFIX);
+        String[] sortOpts = {"1d", "0a"};
+        CSVSorter raw = new CSVSorter();
+        raw.setRawOutput(true);
+        CSVSorter indexed = new CSVSorter();
+        indexed.setIndexed(true);
+        try {
+            Files.write(path, ("Name,Amount,Note\n" + rows(random, 2000)).getBytes());
+            Assert.assertArrayEquals(sort(raw, path, sortOpts, CSVSorter.SERIAL_READ),
+                    sort(indexed, path, sortOpts, CSVSorter.SERIAL_READ));
+            Assert.assertTrue(Files.exists(index));
+
+            // Appended rows, the last line without its line break yet
+            String tail = rows(random, 500);
+            Files.write(path, tail.substring(0, tail.length() - 1).getBytes(), StandardOpenOption.APPEND);
+            Assert.assertArrayEquals(sort(raw, path, sortOpts, CSVSorter.SERIAL_READ),
+                    sort(indexed, path, sortOpts, CSVSorter.SERIAL_READ));
+            Files.write(path, ("7\n" + rows(random, 300)).getBytes(), StandardOpenOption.APPEND);
+            Assert.assertArrayEquals(sort(raw, path, sortOpts, CSVSorter.SERIAL_READ),
+                    sort(indexed, path, sortOpts, CSVSorter.SERIAL_READ));
+            Assert.assertArrayEquals(sort(raw, path, sortOpts, CSVSorter.SERIAL_READ),
+                    sort(indexed, path, sortOpts, CSVSorter.SERIAL_READ));
+
+            // Other sort options, then a rewritten file, rebuild the index
+            Assert.assertArrayEquals(sort(raw, path, new String[] {"2a"}, CSVSorter.SERIAL_READ),
+                    sort(indexed, path, new String[] {"2a"}, CSVSorter.SERIAL_READ));
+            Files.write(path, ("Name,Amount,Note\n" + rows(random, 1000)).getBytes());
+            Assert.assertArrayEquals(sort(raw, path, sortOpts, CSVSorter.SERIAL_READ),
+                    sort(indexed, path, sortOpts, CSVSorter.SERIAL_READ));
+        } finally {
+            Files.delete(path);
+            Files.deleteIfExists(index);
+        }
+    }
+
+    @Test
+    public void offHeapSameAsRaw() throws IOException {
+        Random random = new Random(9);
+        Path path = Files.createTempFile("offheap", ".csv");
+        try {
+            Files.write(path, ("Name,Amount,Note\n" + rows(random, 5000)).getBytes());
+            CSVSorter raw = new CSVSorter();
+            raw.setRawOutput(true);
+            CSVSorter offHeap = new CSVSorter();
+            offHeap.setOffHeap(true);
+            for (String[] sortOpts : new String[][] {{}, {"0a"}, {"1d", "0a"}, {"2a", "1d", "0d"}}) {
+                Assert.assertArrayEquals(sort(raw, path, sortOpts, CSVSorter.SERIAL_READ),
+                        sort(offHeap, path, sortOpts, CSVSorter.SERIAL_READ));
+                Assert.assertEquals(values(new CSVSorter(), path, sortOpts), values(offHeap, path, sortOpts));
+            }
+        } finally {
+            Files.delete(path);
+        }
+    }
+
+    @Test
+    public void gzipInput() throws IOException {
+        Random random = new Random(10);
+        Path path = Files.createTempFile("plain", ".csv");
+        Path gzip = Files.createTempFile("compressed", ".csv.gz");
+        try {
+            byte[] csv = ("Name,Amount,Note\n" + rows(random, 20000)).getBytes();
+            Files.write(path, csv);
+            try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(gzip))) {
+                out.write(csv);
+            }
+            CSVSorter compressing = spillingSorter();
+            compressing.setCompressRuns(true);
+            String[] sortOpts = {"1d", "0a"};
+            for (int readMethod : new int[] {CSVSorter.SERIAL_READ, CSVSorter.PARALLEL_READ, CSVSorter.EXTERNAL_READ,
+                    CSVSorter.COLUMNAR_READ}) {
+                byte[] expected = sort(compressing, path, sortOpts, readMethod);
+                Assert.assertArrayEquals(expected, sort(compressing, gzip, sortOpts, readMethod));
+                if (readMethod == CSVSorter.PARALLEL_READ)
+                    Assert.assertArrayEquals(expected, sort(compressing, gzip, sortOpts, CSVSorter.MAPPED_READ));
+            }
+            // Lazy and off-heap sorts write the rows as they are in the file
+            CSVSorter raw = new CSVSorter();
+            raw.setRawOutput(true);
+            CSVSorter lazy = new CSVSorter();
+            lazy.setLazyParsing(true);
+            CSVSorter offHeap = new CSVSorter();
+            offHeap.setOffHeap(true);
+            byte[] expected = sort(raw, path, sortOpts, CSVSorter.SERIAL_READ);
+            Assert.assertArrayEquals(expected, sort(lazy, gzip, sortOpts, CSVSorter.SERIAL_READ));
+            Assert.assertArrayEquals(expected, sort(offHeap, gzip, sortOpts, CSVSorter.SERIAL_READ));
+        } finally {
+            Files.delete(path);
+            Files.delete(gzip);
+        }
+    }
+
+    @Test
+    public void sortFilesSameAsConcatenated() throws IOException {
+        Random random = new Random(11);
+        Path dir = Files.createTempDirectory("shards");
+        Path concatenated = Files.createTempFile("concatenated", ".csv");
+        List<String> shards = new ArrayList<>();
+        try {
+            StringBuilder all = new StringBuilder("Name,Amount,Note\n");
+            for (int i = 0; i < 5; i++) {
+                String rows = rows(random, i == 2 ? 0 : 500 + random.nextInt(3000));
+                all.append(rows);
+                Path shard = dir.resolve("part-" + i + ".csv" + (i == 3 ? ".gz" : ""));
+                try (OutputStream out = i == 3 ? new GZIPOutputStream(Files.newOutputStream(shard))
+                        : Files.newOutputStream(shard)) {
+                    out.write(("Name,Amount,Note\n" + rows).getBytes());
+                }
+                shards.add(shard.toString());
+            }
+            Files.write(concatenated, all.toString().getBytes());
+            // The sort index and schema files are not shards
+            Files.write(dir.resolve("part-0.csv.idx"), new byte[16]);
+            Files.write(dir.resolve("part-1.csv.schema"), "0:string\n".getBytes());
+            Assert.assertEquals(shards, CSVSorter.expandPath(dir.resolve("part-*").toString()));
+            Assert.assertEquals(shards, CSVSorter.expandPath(dir.toString()));
+
+            for (String[] sortOpts : new String[][] {{"1d", "0a"}, {"2a"}}) {
+                byte[] expected = sort(new CSVSorter(), concatenated, sortOpts, CSVSorter.SERIAL_READ);
+                for (int readMethod : new int[] {CSVSorter.SERIAL_READ, CSVSorter.EXTERNAL_READ}) {
+                    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                    CSVSorter sorter = new CSVSorter();
+                    sorter.setMemoryBudget(20000);
+                    sorter.setSink(new CsvWriter(bytes));
+                    sorter.sortFiles(shards, sortOpts, readMethod);
+                    Assert.assertArrayEquals(expected, bytes.toByteArray());
+                }
+            }
+
+            // A shard with other columns
+            Path other = dir.resolve("other.csv");
+            Files.write(other, "Name,Amount\nDoe,1\n".getBytes());
+            shards.add(other.toString());
+            for (int readMethod : new int[] {CSVSorter.SERIAL_READ, CSVSorter.EXTERNAL_READ}) {
+                CSVSorter sorter = new CSVSorter();
+                sorter.setSink(new CsvWriter(new ByteArrayOutputStream()));
+                try {
+                    sorter.sortFiles(shards, new String[] {"1a"}, readMethod);
+                    Assert.fail();
+                } catch (IllegalArgumentException e) {
+                    assertTrue(e.getMessage().contains("other.csv"));
+                }
+            }
+        } finally {
+            try (Stream<Path> files = Files.list(dir)) {
+                for (Path file : (Iterable<Path>) files::iterator)
+                    Files.delete(file);
+            }
+            Files.delete(dir);
+            Files.delete(concatenated);
+        }
+    }
+
+    @Test
+    public void pipelinedSameAsSerial() throws IOException {
+        Random random = new Random(12);
+        Path path = Files.createTempFile("pipelined", ".csv");
+        Path gzip = Files.createTempFile("pipelined", ".csv.gz");
+        try {
+            // Several runs of 64k rows
+            byte[] csv = ("Name,Amount,Note\n" + rows(random, 150000)).getBytes();
+            Files.write(path, csv);
+            try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(gzip))) {
+                out.write(csv);
+            }
+            CSVSorter sorter = new CSVSorter();
+            for (String[] sortOpts : new String[][] {{"1d", "0a"}, {"2a"}, {}}) {
+                byte[] expected = sort(sorter, path, sortOpts, CSVSorter.SERIAL_READ);
+                Assert.assertArrayEquals(expected, sort(sorter, path, sortOpts, CSVSorter.PIPELINED_READ));
+                Assert.assertArrayEquals(expected, sort(sorter, gzip, sortOpts, CSVSorter.PIPELINED_READ));
+            }
+
+            SortMetrics metrics = new SortMetrics();
+            sorter.setMetrics(metrics);
+            sort(sorter, path, new String[] {"1d", "0a"}, CSVSorter.PIPELINED_READ);
+            for (SortMetrics.Phase phase : SortMetrics.Phase.values())
+                Assert.assertTrue(phase.name(), metrics.nanos(phase) > 0);
+        } finally {
+            Files.delete(path);
+            Files.delete(gzip);
+        }
+    }
 }
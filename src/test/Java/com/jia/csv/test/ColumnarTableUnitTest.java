@@ -0,0 +1,131 @@
+package com.jia.csv.test;
+
+import com.jia.csv.CSVSorter;
+import com.jia.csv.ColumnarTable;
+import com.jia.csv.ColumnarTable.ColumnType;
+import com.jia.csv.SortKey;
+import com.jia.sort.MergeSort;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ColumnarTableUnitTest {
+
+    private static ColumnarTable table(String[]... rows) {
+        ColumnarTable table = new ColumnarTable(rows[0].length);
+        for (String[] row : rows)
+            table.addRow(row);
+        table.finish();
+        return table;
+    }
+
+    @Test
+    public void infersColumnTypes() {
+        ColumnarTable table = table(
+                new String[] {"1", "1", "1", "a"},
+                new String[] {"2", "9999999999", "1.5", "2"});
+        Assert.assertEquals(ColumnType.INT, table.type(0));
+        Assert.assertEquals(ColumnType.LONG, table.type(1));
+        Assert.assertEquals(ColumnType.DOUBLE, table.type(2));
+        Assert.assertEquals(ColumnType.STRING, table.type(3));
+        Assert.assertEquals(1L, table.get(0, 1));
+        Assert.assertEquals(1.0, table.get(0, 2));
+    }
+
+    @Test
+    public void widenedToStringKeepsValues() {
+        ColumnarTable table = table(new String[] {"12"}, new String[] {"abc"}, new String[] {" \"x\" "});
+        Assert.assertEquals(ColumnType.STRING, table.type(0));
+        Assert.assertEquals("12", table.get(0, 0));
+        Assert.assertEquals("abc", table.get(1, 0));
+        Assert.assertEquals("x", table.get(2, 0));
+    }
+
+    @Test
+    public void mixedColumnsSortNumbersBeforeStrings() {
+        ColumnarTable table = table(new String[] {"10"}, new String[] {"9"}, new String[] {"abc"}, new String[] {""},
+                new String[] {"2.50"}, new String[] {"\"\""});
+        Assert.assertEquals(ColumnType.STRING, table.type(0));
+        // As SortKey.compareValues(): empty, then numbers by value, then strings
+        Assert.assertArrayEquals(new int[] {3, 5, 4, 1, 0, 2}, table.sortedRows(new int[] {0}, new boolean[] {false}));
+        Assert.assertArrayEquals(new int[] {2, 0, 1, 4, 3, 5}, table.sortedRows(new int[] {0}, new boolean[] {true}));
+        Assert.assertEquals("9", table.get(1, 0));
+    }
+
+    @Test
+    public void sameOrderAsRowSort() {
+        Random random = new Random(3);
+        String[][] rows = new String[3000][];
+        for (int i = 0; i < rows.length; i++) {
+            int kind = random.nextInt(6);
+            String mixed = kind == 0 ? "" : kind == 1 ? "x" + random.nextInt(20) : kind == 2 ? "" + random.nextInt(20)
+                    : kind == 3 ? random.nextInt(20) + ".50" : kind == 4 ? "\"" + random.nextInt(20) + "\""
+                    : "00" + random.nextInt(20);
+            long large = (long) Math.pow(10, 8 + random.nextInt(10)) + random.nextInt(1000);
+            rows[i] = new String[] {mixed, (random.nextInt(5) == 0 ? "0" : "") + large};
+        }
+        ColumnarTable table = table(rows);
+        for (int column = 0; column < 2; column++) {
+            int c = column;
+            List<Integer> expected = new ArrayList<>();
+            for (int i = 0; i < rows.length; i++)
+                expected.add(i);
+            new MergeSort().mergeSort(expected, (r0, r1) -> SortKey.compareValues(CSVSorter.parseValue(rows[r0][c]),
+                    CSVSorter.parseValue(rows[r1][c])), false);
+            Assert.assertArrayEquals(expected.stream().mapToInt(Integer::intValue).toArray(),
+                    table.sortedRows(new int[] {c}, new boolean[] {false}));
+        }
+    }
+
+    @Test
+    public void emptyCellsSortFirst() {
+        ColumnarTable table = table(new String[] {"3"}, new String[] {""}, new String[] {"1"}, new String[0]);
+        Assert.assertNull(table.get(1, 0));
+        Assert.assertEquals("", table.row(3)[0]);
+        Assert.assertArrayEquals(new int[] {1, 3, 2, 0}, table.sortedRows(new int[] {0}, new boolean[] {false}));
+    }
+
+    @Test
+    public void sortsTwoColumnsStably() {
+        ColumnarTable table = table(
+                new String[] {"b", "1", "x"},
+                new String[] {"a", "2", "y"},
+                new String[] {"b", "2", "z"},
+                new String[] {"a", "2", "w"},
+                new String[] {"a", "1", "v"});
+        int[] rows = table.sortedRows(new int[] {0, 1}, new boolean[] {false, true});
+        Assert.assertArrayEquals(new int[] {1, 3, 4, 2, 0}, rows);
+    }
+
+    @Test
+    public void radixSortSameAsMergeSort() {
+        Random random = new Random(4);
+        ColumnarTable table = new ColumnarTable(4);
+        for (int i = 0; i < 5000; i++) {
+            String blank = random.nextInt(20) == 0 ? "" : null;
+            table.addRow(new String[] {
+                    blank != null ? blank : String.valueOf(random.nextInt(30)),
+                    blank != null ? blank : String.valueOf(random.nextInt(5) * 10000000000L),
+                    blank != null ? blank : random.nextInt(10) + "." + random.nextInt(3),
+                    blank != null ? blank : "s" + random.nextInt(40)});
+        }
+        int[][] sorts = {{0}, {1, 0}, {2, 3}, {3, 2, 1, 0}};
+        for (int[] columns : sorts) {
+            for (boolean desc : new boolean[] {false, true}) {
+                boolean[] descending = new boolean[columns.length];
+                descending[0] = desc;
+                descending[columns.length - 1] ^= true;
+
+                int[] expected = new int[table.size()];
+                for (int i = 0; i < expected.length; i++)
+                    expected[i] = i;
+                MergeSort.mergeSort(expected, table.comparator(columns, descending));
+                Assert.assertArrayEquals(expected, table.sortedRows(columns, descending));
+            }
+        }
+    }
+}
@@ -0,0 +1,277 @@
+package com.jia.csv.test;
+
+import com.jia.csv.CSVSorter;
+import com.jia.csv.CsvSortEngine;
+import com.jia.csv.CsvWriter;
+import com.jia.csv.RecordSink;
+import com.jia.sort.SortMetrics;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class CsvSortEngineUnitTest {
+
+    private static Path path;
+
+    @BeforeClass
+    public static void writeFile() throws IOException {
+        Random random = new Random(11);
+        StringBuilder csv = new StringBuilder("Id,Amount,Label\n");
+        for (int i = 0; i < 20000; i++)
+            csv.append(i).append(',').append(random.nextInt(1000) / 8.0).append(",L").append(random.nextInt(30))
+                    .append('\n');
+        path = Files.createTempFile("engine", ".csv");
+        Files.write(path, csv.toString().getBytes());
+    }
+
+    @AfterClass
+    public static void deleteFile() throws IOException {
+        Files.delete(path);
+    }
+
+    private static byte[] sortDirect(String[] sortOpts, int readMethod) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        CSVSorter sorter = new CSVSorter();
+        sorter.setSink(new CsvWriter(bytes));
+        sorter.sort(path.toString(), sortOpts, readMethod, CSVSorter.NOT_THREADED);
+        return bytes.toByteArray();
+    }
+
+    /**
+     * A sink whose header() waits for release, counting the records it gets.
+     */
+    private static class BlockingSink implements RecordSink {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger records = new AtomicInteger();
+
+        @Override
+        public void header(String[] names) {
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        @Override
+        public void record(Object[] values) {
+            records.incrementAndGet();
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private static CSVSorter sorter(RecordSink sink) {
+        CSVSorter sorter = new CSVSorter();
+        sorter.setSink(sink);
+        return sorter;
+    }
+
+    @Test
+    public void concurrentJobs() throws Exception {
+        String[][] sortOpts = {{"1a"}, {"2d", "1a"}, {"1d", "0d"}};
+        int[] readMethods = {CSVSorter.SERIAL_READ, CSVSorter.PARALLEL_READ, CSVSorter.MAPPED_READ,
+                CSVSorter.EXTERNAL_READ};
+        try (CsvSortEngine engine = new CsvSortEngine(3, 2, 4)) {
+            List<CompletableFuture<Void>> futures = new ArrayList<>();
+            List<ByteArrayOutputStream> outputs = new ArrayList<>();
+            for (String[] opts : sortOpts) {
+                for (int readMethod : readMethods) {
+                    for (boolean threaded : new boolean[] {false, true}) {
+                        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                        outputs.add(bytes);
+                        futures.add(engine.submit(sorter(new CsvWriter(bytes)), path.toString(), opts, readMethod,
+                                threaded));
+                    }
+                }
+            }
+            int i = 0;
+            for (String[] opts : sortOpts) {
+                for (int readMethod : readMethods) {
+                    byte[] expected = sortDirect(opts, readMethod);
+                    for (int j = 0; j < 2; j++, i++) {
+                        futures.get(i).get(1, TimeUnit.MINUTES);
+                        Assert.assertArrayEquals(expected, outputs.get(i).toByteArray());
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void submitBlocksWhenFull() throws Exception {
+        try (CsvSortEngine engine = new CsvSortEngine(1, 1, 1)) {
+            BlockingSink running = new BlockingSink();
+            CompletableFuture<Void> first = engine.submit(sorter(running), path.toString(), new String[] {"1a"},
+                    CSVSorter.SERIAL_READ, false);
+            running.started.await();
+            CompletableFuture<Void> second = engine.submit(sorter(new BlockingSink()), path.toString(),
+                    new String[] {"1a"}, CSVSorter.SERIAL_READ, false);
+            Assert.assertEquals(2, engine.activeJobs());
+
+            // The third job has to wait for a free place
+            CompletableFuture<CompletableFuture<Void>> third = CompletableFuture.supplyAsync(() -> {
+                try {
+                    return engine.submit(sorter(new CsvWriter(new ByteArrayOutputStream())), path.toString(),
+                            new String[] {"0d"}, CSVSorter.SERIAL_READ, false);
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+            Thread.sleep(200);
+            Assert.assertFalse(third.isDone());
+
+            second.cancel(false);
+            running.release.countDown();
+            first.get(1, TimeUnit.MINUTES);
+            third.get(1, TimeUnit.MINUTES).get(1, TimeUnit.MINUTES);
+            Assert.assertEquals(20000, running.records.get());
+            Assert.assertTrue(second.isCancelled());
+        }
+    }
+
+    @Test
+    public void cancelRunningJob() throws Exception {
+        try (CsvSortEngine engine = new CsvSortEngine(1, 1, 0)) {
+            BlockingSink sink = new BlockingSink();
+            CompletableFuture<Void> job = engine.submit(sorter(sink), path.toString(), new String[] {"1a"},
+                    CSVSorter.SERIAL_READ, false);
+            sink.started.await();
+            Assert.assertTrue(job.cancel(false));
+            sink.release.countDown();
+            try {
+                job.get();
+                Assert.fail();
+            } catch (CancellationException e) {
+                // expected
+            }
+
+            // The engine is free for the next job
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            engine.submit(sorter(new CsvWriter(bytes)), path.toString(), new String[] {"2a"}, CSVSorter.SERIAL_READ,
+                    true).get(1, TimeUnit.MINUTES);
+            Assert.assertArrayEquals(sortDirect(new String[] {"2a"}, CSVSorter.SERIAL_READ), bytes.toByteArray());
+            // The cancelled sort stopped before writing records
+            Assert.assertEquals(0, sink.records.get());
+        }
+    }
+
+    @Test
+    public void sorterOutlivesItsJobs() throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        CSVSorter sorter = sorter(new CsvWriter(bytes));
+        try (CsvSortEngine engine = new CsvSortEngine(1, 2, 0)) {
+            BlockingSink sink = new BlockingSink();
+            sorter.setSink(sink);
+            CompletableFuture<Void> job = engine.submit(sorter, path.toString(), new String[] {"1a"},
+                    CSVSorter.SERIAL_READ, true);
+            sink.started.await();
+            job.cancel(false);
+            sink.release.countDown();
+            try {
+                job.get();
+                Assert.fail();
+            } catch (CancellationException e) {
+                // expected
+            }
+        }
+        // Not cancelled any more, and back on its own pool: the engine's pools are shut down
+        sorter.setSink(new CsvWriter(bytes));
+        sorter.sort(path.toString(), new String[] {"1a", "0d"}, CSVSorter.PARALLEL_READ, CSVSorter.THREADED);
+        Assert.assertArrayEquals(sortDirect(new String[] {"1a", "0d"}, CSVSorter.SERIAL_READ), bytes.toByteArray());
+    }
+
+    @Test
+    public void cancelWhileSorting() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        CSVSorter sorter = new CSVSorter();
+        sorter.setSink(new CsvWriter(bytes));
+        // Cancel at the first comparison, once every record is parsed
+        sorter.setMetrics(new SortMetrics() {
+            @Override
+            public <T> Comparator<T> counting(Comparator<T> c) {
+                return (t0, t1) -> {
+                    sorter.cancel();
+                    return c.compare(t0, t1);
+                };
+            }
+        });
+        try {
+            sorter.sort(path.toString(), new String[] {"1a"}, CSVSorter.SERIAL_READ, CSVSorter.THREADED);
+            Assert.fail();
+        } catch (CancellationException e) {
+            // expected
+        }
+        Assert.assertEquals("Id,Amount,Label\n", bytes.toString());
+    }
+
+    @Test
+    public void cancelWhileSortingOffHeap() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        CSVSorter sorter = new CSVSorter();
+        sorter.setSink(new CsvWriter(bytes));
+        sorter.setOffHeap(true);
+        // Cancel at the first merge of the off-heap index, the next comparison stops the sort
+        SortMetrics metrics = new SortMetrics() {
+            @Override
+            public void presorted(boolean hit) {
+                sorter.cancel();
+                super.presorted(hit);
+            }
+        };
+        sorter.setMetrics(metrics);
+        try {
+            sorter.sort(path.toString(), new String[] {"1a"}, CSVSorter.SERIAL_READ, CSVSorter.NOT_THREADED);
+            Assert.fail();
+        } catch (CancellationException e) {
+            // expected
+        }
+        Assert.assertEquals(1, metrics.presortedChecks());
+        Assert.assertEquals("Id,Amount,Label\n", bytes.toString());
+    }
+
+    @Test
+    public void failedJobAndClose() throws Exception {
+        CsvSortEngine engine = new CsvSortEngine(2, 2, 0);
+        CompletableFuture<Void> missing = engine.submit(sorter(new CsvWriter(new ByteArrayOutputStream())),
+                path + ".missing", new String[] {"0a"}, CSVSorter.SERIAL_READ, false);
+        try {
+            missing.get(1, TimeUnit.MINUTES);
+            Assert.fail();
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof IOException);
+        }
+        engine.close();
+        try {
+            engine.submit(sorter(null), path.toString(), new String[] {"0a"}, CSVSorter.SERIAL_READ, false);
+            Assert.fail();
+        } catch (IllegalStateException e) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package com.jia.csv.test;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.jia.csv.ColumnarTable.ColumnType;
+import com.jia.csv.CsvReader;
+import com.jia.csv.CsvTokenizer;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class CsvTokenizerUnitTest {
+
+    private static CsvTokenizer tokenize(String record) {
+        ByteBuffer bytes = ByteBuffer.wrap(record.getBytes(UTF_8));
+        CsvTokenizer tokenizer = new CsvTokenizer();
+        Assert.assertEquals(bytes.limit(), tokenizer.tokenize(bytes, 0, bytes.limit(), true));
+        return tokenizer;
+    }
+
+    @Test
+    public void splitsAndTrims() {
+        CsvTokenizer tokenizer = tokenize("a, b ,,c\r\n");
+        Assert.assertArrayEquals(new String[] {"a", "b", "", "c"}, tokenizer.getStrings());
+        Assert.assertTrue(tokenizer.isEmpty(2));
+    }
+
+    @Test
+    public void quotedFields() {
+        CsvTokenizer tokenizer = tokenize("\"Doe, John\", \"say \"\"hi\"\"\",\"line\nbreak\",\"\"\n");
+        Assert.assertArrayEquals(new String[] {"Doe, John", "say \"hi\"", "line\nbreak", ""},
+                tokenizer.getStrings());
+        Assert.assertFalse(tokenizer.isEmpty(3));
+    }
+
+    @Test
+    public void incompleteRecord() {
+        ByteBuffer bytes = ByteBuffer.wrap("a,\"b\nc".getBytes(UTF_8));
+        CsvTokenizer tokenizer = new CsvTokenizer();
+        Assert.assertEquals(-1, tokenizer.tokenize(bytes, 0, bytes.limit(), false));
+        Assert.assertEquals(bytes.limit(), tokenizer.tokenize(bytes, 0, bytes.limit(), true));
+    }
+
+    @Test
+    public void mergeNameFields() {
+        CsvTokenizer tokenizer = tokenize("Doe, John, 123 Main St., 1275");
+        tokenizer.mergeFields(0);
+        Assert.assertArrayEquals(new String[] {"Doe, John", "123 Main St.", "1275"}, tokenizer.getStrings());
+    }
+
+    @Test
+    public void parsesNumbersInPlace() {
+        CsvTokenizer tokenizer = tokenize("123,94.36666667,10.50,\"7\",3000000000,1.5.5,-1");
+        Assert.assertEquals(ColumnType.INT, tokenizer.classify(0));
+        Assert.assertEquals(123, tokenizer.getValue(0));
+        Assert.assertEquals(ColumnType.DOUBLE, tokenizer.classify(1));
+        Assert.assertEquals(94.36666667, tokenizer.parseDouble(1), 0);
+        Assert.assertEquals("10.50", tokenizer.getValue(2).toString()); // the text, its value would write 10.5
+        Assert.assertEquals(10.5, ((Number) tokenizer.getValue(2)).doubleValue(), 0);
+        Assert.assertEquals("7", tokenizer.getValue(3));
+        Assert.assertEquals(3000000000L, tokenizer.parseLong(4));
+        Assert.assertEquals(3e9, ((Number) tokenizer.getValue(4)).doubleValue(), 0);
+        Assert.assertEquals("3000000000", tokenizer.getValue(4).toString());
+        Assert.assertEquals("1.5.5", tokenizer.getValue(5));
+        Assert.assertEquals("-1", tokenizer.getValue(6));
+    }
+
+    @Test
+    public void readerRefillsAndSkipsBlankLines() throws IOException {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 100; i++)
+            sb.append(i).append(",\"quoted\nvalue ").append(i).append("\"\n\n");
+        List<String> values = new ArrayList<>();
+        try (CsvReader reader = new CsvReader(new ByteArrayInputStream(sb.toString().getBytes(UTF_8)), 16)) {
+            while (reader.next()) {
+                Assert.assertEquals(2, reader.tokenizer().fieldCount());
+                values.add(reader.tokenizer().getString(1));
+            }
+        }
+        Assert.assertEquals(100, values.size());
+        Assert.assertEquals("quoted\nvalue 99", values.get(99));
+    }
+
+    @Test
+    public void parseRemainingKeepsQuotedLineBreaks() throws IOException {
+        StringBuilder sb = new StringBuilder("Name,Note\n");
+        for (int i = 0; i < 1000; i++)
+            sb.append('n').append(i).append(',').append(i % 3 == 0 ? "\"line1\nline2, \"\"" + i + "\"\"\"" : "plain")
+                    .append("\n\n");
+        byte[] bytes = sb.toString().getBytes(UTF_8);
+        List<String> expected = new ArrayList<>();
+        try (CsvReader reader = new CsvReader(new ByteArrayInputStream(bytes))) {
+            reader.next();
+            while (reader.next())
+                expected.add(String.join("|", reader.tokenizer().getStrings()));
+        }
+        try (CsvReader reader = new CsvReader(new ByteArrayInputStream(bytes), 16)) {
+            reader.next();
+            List<String> actual = reader.parseRemaining(tokenizer -> String.join("|", tokenizer.getStrings()), 64);
+            Assert.assertEquals(1000, actual.size());
+            Assert.assertEquals(expected, actual);
+        }
+    }
+}
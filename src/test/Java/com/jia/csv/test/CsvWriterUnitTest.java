@@ -0,0 +1,79 @@
+package com.jia.csv.test;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.jia.csv.CsvReader;
+import com.jia.csv.CsvWriter;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class CsvWriterUnitTest {
+
+    @Test
+    public void quotesOnlyWhenNeeded() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (CsvWriter writer = new CsvWriter(bytes, 64, true)) {
+            writer.header(new String[] {"Name", "Amount"});
+            writer.record(new Object[] {"Doe, John", 1275, 94.5, "say \"hi\"", " padded", "", -42L, "caf\u00e9"});
+        }
+        Assert.assertEquals("Name,Amount\n\"Doe, John\",1275,94.5,\"say \"\"hi\"\"\",\" padded\",,-42,caf\u00e9\n",
+                bytes.toString(UTF_8));
+    }
+
+    @Test
+    public void roundTripsThroughTheReader() throws IOException {
+        Object[] record = {"line\nbreak", 7, "a,b", "\"quoted\""};
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (CsvWriter writer = new CsvWriter(bytes, 64, true)) {
+            for (int i = 0; i < 100; i++) // more than the buffer
+                writer.record(record);
+        }
+
+        try (CsvReader reader = new CsvReader(new ByteArrayInputStream(bytes.toByteArray()))) {
+            int count = 0;
+            while (reader.next()) {
+                Assert.assertArrayEquals(record, new Object[] {reader.tokenizer().getValue(0),
+                        reader.tokenizer().getValue(1), reader.tokenizer().getValue(2), reader.tokenizer().getValue(3)});
+                count++;
+            }
+            Assert.assertEquals(100, count);
+        }
+    }
+
+    @Test
+    public void numbersKeepTheirText() throws IOException {
+        String csv = "12345678.5,0.0001,1.50,007,12345678901234,0,42,2.0,x\n";
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (CsvReader reader = new CsvReader(new ByteArrayInputStream(csv.getBytes(UTF_8)));
+                CsvWriter writer = new CsvWriter(bytes, 64, true)) {
+            Assert.assertTrue(reader.next());
+            Object[] values = new Object[reader.tokenizer().fieldCount()];
+            for (int i = 0; i < values.length; i++)
+                values[i] = reader.tokenizer().getValue(i);
+            Assert.assertEquals(Integer.valueOf(42), values[6]);
+            writer.record(values);
+        }
+        Assert.assertEquals(csv, bytes.toString(UTF_8));
+    }
+
+    @Test
+    public void rawOffsetsCoverTheRecord() throws IOException {
+        byte[] input = "a,b\r\n\"x,\ny\",1\n\n3,4".getBytes(UTF_8);
+        try (CsvReader reader = new CsvReader(new ByteArrayInputStream(input), 16)) {
+            Assert.assertTrue(reader.next());
+            Assert.assertEquals(0, reader.recordOffset());
+            Assert.assertEquals("a,b", new String(reader.recordBytes(), UTF_8));
+            Assert.assertTrue(reader.next());
+            Assert.assertEquals(5, reader.recordOffset());
+            Assert.assertEquals("\"x,\ny\",1", new String(reader.recordBytes(), UTF_8));
+            Assert.assertTrue(reader.next());
+            Assert.assertEquals("3,4", new String(input, (int) reader.recordOffset(), reader.recordLength(), UTF_8));
+            Assert.assertFalse(reader.next());
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package com.jia.csv.test;
+
+import com.jia.csv.Aggregate;
+import com.jia.csv.CSVSorter;
+import com.jia.csv.CsvWriter;
+import com.jia.csv.Schema;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class GroupingSinkUnitTest {
+
+    private static final String CSV = "Name,Date of Sale,Invoice Amount,Id\n"
+            + "doe,3/19/2021,1275.10,7\n"
+            + "smith,12/1/2021,-750.5,3\n"
+            + "Doe,5/12/2020,0.2,9\n"
+            + "smith,2/28/2021,,1\n"
+            + "doe,1/2/2019,12345678901234.251,2\n"
+            + "jones,5/5/2021,n/a,4\n";
+
+    private static String sort(Path path, String[] sortOpts, int readMethod, boolean distinct,
+            List<Aggregate> aggregates, Schema schema) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        CSVSorter sorter = new CSVSorter();
+        sorter.setDistinct(distinct);
+        sorter.setAggregates(aggregates);
+        sorter.setSchema(schema);
+        sorter.setMemoryBudget(2000);
+        sorter.setSink(new CsvWriter(bytes));
+        sorter.sort(path.toString(), sortOpts, readMethod, CSVSorter.NOT_THREADED);
+        return bytes.toString();
+    }
+
+    @Test
+    public void aggregates() throws IOException {
+        Path path = Files.createTempFile("group", ".csv");
+        try {
+            Files.write(path, CSV.getBytes());
+            List<Aggregate> aggregates = Aggregate.parse("count, sum(Invoice Amount), min(3), max(1), first(Id)");
+            Assert.assertEquals("Name,count,sum(Invoice Amount),min(Id),max(Date of Sale),first(Id)\n"
+                    + "Doe,1,0.2,9,5/12/2020,9\n"
+                    + "doe,2,12345678902509.351,2,3/19/2021,7\n"
+                    + "jones,1,,4,5/5/2021,4\n"
+                    + "smith,2,-750.5,1,2/28/2021,3\n",
+                    sort(path, new String[] {"0a"}, CSVSorter.SERIAL_READ, false, aggregates, null));
+
+            // Equal keys as the schema compares them
+            Assert.assertEquals("Name,count\ndoe,3\njones,1\nsmith,2\n", sort(path, new String[] {"0a"},
+                    CSVSorter.SERIAL_READ, false, Aggregate.parse("count"), Schema.parse("0:string(ci)")));
+
+            // No sort columns: one group
+            Assert.assertEquals("count,sum(Id)\n6,26\n",
+                    sort(path, new String[0], CSVSorter.SERIAL_READ, false, Aggregate.parse("count,sum(3)"), null));
+        } finally {
+            Files.delete(path);
+        }
+    }
+
+    @Test
+    public void distinct() throws IOException {
+        Path path = Files.createTempFile("group", ".csv");
+        try {
+            Files.write(path, CSV.getBytes());
+            Assert.assertEquals("Name,Date of Sale,Invoice Amount,Id\n"
+                    + "Doe,5/12/2020,0.2,9\n"
+                    + "doe,3/19/2021,1275.10,7\n"
+                    + "jones,5/5/2021,n/a,4\n"
+                    + "smith,12/1/2021,-750.5,3\n",
+                    sort(path, new String[] {"0a"}, CSVSorter.SERIAL_READ, true, null, null));
+        } finally {
+            Files.delete(path);
+        }
+    }
+
+    @Test
+    public void limitAppliesToGroups() throws IOException {
+        Path path = Files.createTempFile("group", ".csv");
+        try {
+            Files.write(path, CSV.getBytes());
+            for (int readMethod : new int[] {CSVSorter.SERIAL_READ, CSVSorter.PARALLEL_READ, CSVSorter.EXTERNAL_READ,
+                    CSVSorter.MAPPED_READ, CSVSorter.PIPELINED_READ}) {
+                for (List<Aggregate> aggregates : List.of(List.<Aggregate>of(), Aggregate.parse("count"))) {
+                    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                    CSVSorter sorter = new CSVSorter();
+                    sorter.setDistinct(true);
+                    sorter.setAggregates(aggregates);
+                    sorter.setSchema(Schema.parse("0:string(ci)"));
+                    sorter.setLimit(2);
+                    sorter.setSink(new CsvWriter(bytes));
+                    sorter.sort(path.toString(), new String[] {"0a"}, readMethod, CSVSorter.NOT_THREADED);
+                    Assert.assertEquals(aggregates.isEmpty()
+                            ? "Name,Date of Sale,Invoice Amount,Id\ndoe,3/19/2021,1275.10,7\n"
+                                    + "jones,5/5/2021,n/a,4\n"
+                            : "Name,count\ndoe,3\njones,1\n", bytes.toString());
+                }
+            }
+        } finally {
+            Files.delete(path);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void distinctNeedsSortColumns() throws IOException {
+        Path path = Files.createTempFile("group", ".csv");
+        try {
+            Files.write(path, CSV.getBytes());
+            sort(path, new String[0], CSVSorter.SERIAL_READ, true, null, null);
+        } finally {
+            Files.delete(path);
+        }
+    }
+
+    @Test
+    public void sameForEveryReadMethod() throws IOException {
+        Random random = new Random(21);
+        StringBuilder csv = new StringBuilder("Name,Region,Invoice Amount,Id\n");
+        String[] names = {"doe", "smith", "jones", "brown", "adams"};
+        for (int i = 0; i < 3000; i++) {
+            csv.append(names[random.nextInt(names.length)]).append(',');
+            csv.append(random.nextInt(8)).append(',');
+            csv.append(random.nextInt(100000)).append('.').append(random.nextInt(100)).append(',');
+            csv.append(i).append('\n');
+        }
+        Path path = Files.createTempFile("group", ".csv");
+        try {
+            Files.write(path, csv.toString().getBytes());
+            String[] sortOpts = {"0a", "1d"};
+            for (List<Aggregate> aggregates : List.of(List.<Aggregate>of(),
+                    Aggregate.parse("count,sum(2),min(2),max(3),first(3)"))) {
+                String expected = sort(path, sortOpts, CSVSorter.SERIAL_READ, true, aggregates, null);
+                Assert.assertEquals(names.length * 8 + 1, expected.split("\n").length);
+                for (int readMethod : new int[] {CSVSorter.PARALLEL_READ, CSVSorter.EXTERNAL_READ,
+                        CSVSorter.COLUMNAR_READ, CSVSorter.MAPPED_READ, CSVSorter.PIPELINED_READ}) {
+                    Assert.assertEquals(expected, sort(path, sortOpts, readMethod, true, aggregates, null));
+                }
+            }
+        } finally {
+            Files.delete(path);
+        }
+    }
+
+    @Test
+    public void malformedAggregates() {
+        for (String spec : new String[] {"", "avg(1)", "sum", "count(1)", "max(2", "min()"}) {
+            try {
+                Aggregate.parse(spec);
+                Assert.fail(spec);
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+        Assert.assertEquals("[count, sum(Invoice Amount), first(0)]",
+                Aggregate.parse("count(), sum(Invoice Amount),,first(0)").toString());
+    }
+}
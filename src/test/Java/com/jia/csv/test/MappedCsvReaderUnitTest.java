@@ -0,0 +1,108 @@
+package com.jia.csv.test;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.jia.csv.CsvReader;
+import com.jia.csv.MappedCsvReader;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class MappedCsvReaderUnitTest {
+
+    private static List<String> readSerially(Path path) throws IOException {
+        List<String> records = new ArrayList<>();
+        try (CsvReader reader = new CsvReader(new FileInputStream(path.toFile()))) {
+            reader.next(); // header
+            while (reader.next())
+                records.add(Arrays.toString(reader.tokenizer().getStrings()));
+        }
+        return records;
+    }
+
+    @Test
+    public void chunksAlignOnQuotedRecords() throws IOException {
+        StringBuilder sb = new StringBuilder("id,text,amount\r\n");
+        for (int i = 0; i < 500; i++) {
+            sb.append(i).append(',');
+            if (i % 3 == 0)
+                sb.append("\"multi\nline, \"\"quoted\"\"\n").append(i).append('"');
+            else
+                sb.append("plain ").append(i);
+            sb.append(',').append(i * 1.5).append(i % 7 == 0 ? "\r\n\n" : "\n");
+        }
+        Path path = Files.createTempFile("mapped", ".csv");
+        try {
+            Files.write(path, sb.toString().getBytes(UTF_8));
+            List<String> expected = readSerially(path);
+
+            for (int chunkSize : new int[] {16, 64, 1000, 1 << 20}) {
+                try (MappedCsvReader reader = new MappedCsvReader(path)) {
+                    reader.setChunkSize(chunkSize);
+                    Assert.assertArrayEquals(new String[] {"id", "text", "amount"}, reader.header());
+                    List<String> actual = reader.parse(t -> Arrays.toString(t.getStrings()));
+                    Assert.assertEquals(500, actual.size());
+                    Assert.assertEquals(expected, actual);
+                }
+            }
+        } finally {
+            Files.delete(path);
+        }
+    }
+
+    @Test
+    public void strayQuotesInUnquotedFields() throws IOException {
+        // A quote inside an unquoted field is data, it must not flip the quote state of the chunks after it
+        StringBuilder sb = new StringBuilder("id,text,amount\n");
+        for (int i = 0; i < 200; i++) {
+            sb.append(i).append(',');
+            if (i == 3)
+                sb.append("5\" pipe");
+            else if (i % 10 == 0)
+                sb.append("\"multi\nline \"\"").append(i).append("\"\"\"x\"");
+            else
+                sb.append("plain ").append(i).append(i % 4 == 0 ? "\"" : "");
+            sb.append(',').append(i).append('\n');
+        }
+        Path path = Files.createTempFile("mapped", ".csv");
+        try {
+            Files.write(path, sb.toString().getBytes(UTF_8));
+            List<String> expected = readSerially(path);
+            Assert.assertEquals(200, expected.size());
+
+            for (int chunkSize : new int[] {7, 64, 1000}) {
+                try (MappedCsvReader reader = new MappedCsvReader(path)) {
+                    reader.setChunkSize(chunkSize);
+                    Assert.assertEquals(expected, reader.parse(t -> Arrays.toString(t.getStrings())));
+                }
+                // The streamed blocks of a parallel read end at record boundaries the same way
+                try (CsvReader reader = new CsvReader(new FileInputStream(path.toFile()))) {
+                    reader.next(); // header
+                    Assert.assertEquals(expected,
+                            reader.parseRemaining(t -> Arrays.toString(t.getStrings()), chunkSize));
+                }
+            }
+        } finally {
+            Files.delete(path);
+        }
+    }
+
+    @Test
+    public void emptyFile() throws IOException {
+        Path path = Files.createTempFile("mapped", ".csv");
+        try (MappedCsvReader reader = new MappedCsvReader(path)) {
+            Assert.assertEquals(0, reader.header().length);
+            Assert.assertTrue(reader.parse(t -> t.fieldCount()).isEmpty());
+        } finally {
+            Files.delete(path);
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package com.jia.csv.test;
+
+import com.jia.csv.PipelinedInputStream;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class PipelinedInputStreamUnitTest {
+
+    private static byte[] randomBytes(int length) {
+        byte[] bytes = new byte[length];
+        new Random(4).nextBytes(bytes);
+        return bytes;
+    }
+
+    @Test
+    public void readsEverythingInOrder() throws IOException {
+        byte[] data = randomBytes(100003);
+        Random random = new Random(5);
+        for (int blockSize : new int[] {1, 7, 4096, 200000}) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            try (InputStream in = new PipelinedInputStream(new ByteArrayInputStream(data), blockSize, 2)) {
+                byte[] buffer = new byte[1000];
+                while (true) {
+                    // Mix single byte and bulk reads
+                    if (random.nextInt(10) == 0) {
+                        int b = in.read();
+                        if (b < 0)
+                            break;
+                        out.write(b);
+                    } else {
+                        int n = in.read(buffer, 0, 1 + random.nextInt(buffer.length));
+                        if (n < 0)
+                            break;
+                        out.write(buffer, 0, n);
+                    }
+                }
+                Assert.assertEquals(-1, in.read());
+            }
+            Assert.assertArrayEquals(data, out.toByteArray());
+        }
+    }
+
+    @Test
+    public void readErrorAfterData() throws IOException {
+        byte[] data = randomBytes(5000);
+        InputStream failing = new InputStream() {
+            @Override
+            public int read() throws IOException {
+                throw new IOException("broken");
+            }
+        };
+        try (InputStream in = new PipelinedInputStream(
+                new SequenceInputStream(new ByteArrayInputStream(data), failing), 1024, 2)) {
+            Assert.assertArrayEquals(data, in.readNBytes(data.length));
+            try {
+                in.read();
+                Assert.fail();
+            } catch (IOException e) {
+                Assert.assertEquals("broken", e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package com.jia.csv.test;
+
+import com.jia.csv.PipelinedSink;
+import com.jia.csv.RecordSink;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class PipelinedSinkUnitTest {
+
+    // Collects what it is passed, fails at record number failAt
+    private static class ListSink implements RecordSink {
+        final List<String> lines = new ArrayList<>();
+        final int failAt;
+        int flushes;
+        boolean closed;
+
+        ListSink(int failAt) {
+            this.failAt = failAt;
+        }
+
+        @Override
+        public void header(String[] names) {
+            lines.add(String.join(",", names));
+        }
+
+        @Override
+        public void record(Object[] values) throws IOException {
+            if (lines.size() == failAt)
+                throw new IOException("broken");
+            lines.add(values[0].toString());
+        }
+
+        @Override
+        public void flush() {
+            flushes++;
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+    }
+
+    @Test
+    public void passesEverythingInOrder() throws IOException {
+        for (int batchSize : new int[] {1, 7, 4096}) {
+            ListSink target = new ListSink(-1);
+            List<String> expected = new ArrayList<>();
+            try (PipelinedSink sink = new PipelinedSink(target, batchSize, 2, false)) {
+                for (int sort = 0; sort < 2; sort++) {
+                    sink.header(new String[] {"Name", "Amount"});
+                    expected.add("Name,Amount");
+                    for (int i = 0; i < 10000; i++) {
+                        sink.record(new Object[] {i});
+                        expected.add(String.valueOf(i));
+                    }
+                    sink.flush();
+                    Assert.assertEquals(expected, target.lines);
+                }
+            }
+            Assert.assertEquals(3, target.flushes);
+            Assert.assertFalse(target.closed);
+        }
+        ListSink target = new ListSink(-1);
+        new PipelinedSink(target).close();
+        Assert.assertTrue(target.closed);
+    }
+
+    @Test
+    public void writeErrorAtFlush() throws IOException {
+        ListSink target = new ListSink(100);
+        PipelinedSink sink = new PipelinedSink(target, 1000, 2, true);
+        for (int i = 0; i < 500; i++)
+            sink.record(new Object[] {i});
+        try {
+            sink.flush();
+            Assert.fail();
+        } catch (IOException e) {
+            Assert.assertEquals("broken", e.getMessage());
+        }
+        Assert.assertEquals(100, target.lines.size());
+        try {
+            sink.close();
+            Assert.fail();
+        } catch (IOException e) {
+            Assert.assertEquals("broken", e.getMessage());
+        }
+        Assert.assertTrue(target.closed);
+    }
+}
@@ -0,0 +1,125 @@
+package com.jia.csv.test;
+
+import com.jia.csv.CSVSorter;
+import com.jia.csv.CsvWriter;
+import com.jia.csv.Schema;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class SchemaUnitTest {
+
+    private static final String SCHEMA = "Date of Sale:date(M/D/YYYY),2:decimal(2),Id:long,Name:string(ci)";
+
+    private static String[] sort(Path path, String[] sortOpts, int readMethod, boolean lazy, boolean keys)
+            throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        CSVSorter sorter = new CSVSorter();
+        sorter.setSchema(Schema.parse(SCHEMA));
+        sorter.setLazyParsing(lazy);
+        sorter.setNormalizedKeys(keys);
+        sorter.setMemoryBudget(20000);
+        sorter.setSink(new CsvWriter(bytes));
+        sorter.sort(path.toString(), sortOpts, readMethod, CSVSorter.NOT_THREADED);
+        return bytes.toString().split("\n");
+    }
+
+    // The column of the sorted rows, without the header
+    private static String[] column(String[] rows, int column) {
+        return Arrays.stream(rows, 1, rows.length).map(row -> row.split(",", -1)[column]).toArray(String[]::new);
+    }
+
+    @Test
+    public void typedOrder() throws IOException {
+        Path path = Files.createTempFile("schema", ".csv");
+        try {
+            Files.write(path, ("Name,Date of Sale,Invoice Amount,Id\n"
+                    + "doe,3/19/2021,1275,12345678901234567\n"
+                    + "Smith,12/1/2021,-750.5,-3\n"
+                    + "jones,5/12/2020,12345678901234.25,12345678901234568\n"
+                    + "Brown,2/29/2021,+0.75,0\n"
+                    + "adams,,12345678901234.251,9\n").getBytes());
+
+            // 2/29/2021 is not a date, it sorts after the dates as a string
+            Assert.assertArrayEquals(new String[] {"", "5/12/2020", "3/19/2021", "12/1/2021", "2/29/2021"},
+                    column(sort(path, new String[] {"1a"}, CSVSorter.SERIAL_READ, false, false), 1));
+            // Equal at scale 2, then by name
+            Assert.assertArrayEquals(new String[] {"-750.5", "+0.75", "1275", "12345678901234.251",
+                    "12345678901234.25"},
+                    column(sort(path, new String[] {"2a", "0a"}, CSVSorter.SERIAL_READ, false, false), 2));
+            Assert.assertArrayEquals(new String[] {"12345678901234568", "12345678901234567", "9", "0", "-3"},
+                    column(sort(path, new String[] {"3d"}, CSVSorter.SERIAL_READ, false, false), 3));
+            Assert.assertArrayEquals(new String[] {"adams", "Brown", "doe", "jones", "Smith"},
+                    column(sort(path, new String[] {"0a"}, CSVSorter.SERIAL_READ, false, false), 0));
+        } finally {
+            Files.delete(path);
+        }
+    }
+
+    @Test
+    public void sameForEveryReadMethod() throws IOException {
+        Random random = new Random(13);
+        StringBuilder csv = new StringBuilder("Name,Date of Sale,Invoice Amount,Id\n");
+        String[] names = {"doe", "Doe", "DOE", "smith", "Jones", "\u00e9clair"};
+        for (int i = 0; i < 3000; i++) {
+            csv.append(names[random.nextInt(names.length)]).append(',');
+            csv.append(1 + random.nextInt(12)).append('/').append(1 + random.nextInt(28)).append('/')
+                    .append(2019 + random.nextInt(4)).append(',');
+            csv.append(random.nextBoolean() ? "-" : "").append(random.nextInt(100000)).append('.')
+                    .append(random.nextInt(100)).append(',');
+            csv.append(random.nextLong() >> random.nextInt(60)).append('\n');
+        }
+        Path path = Files.createTempFile("schema", ".csv");
+        try {
+            Files.write(path, csv.toString().getBytes());
+            for (String[] sortOpts : new String[][] {{"1d", "0a"}, {"2a"}, {"0a", "3d"}}) {
+                String[] expected = sort(path, sortOpts, CSVSorter.SERIAL_READ, false, false);
+                for (int readMethod : new int[] {CSVSorter.PARALLEL_READ, CSVSorter.EXTERNAL_READ,
+                        CSVSorter.COLUMNAR_READ, CSVSorter.MAPPED_READ}) {
+                    Assert.assertArrayEquals(expected, sort(path, sortOpts, readMethod, false, false));
+                }
+                Assert.assertArrayEquals(expected, sort(path, sortOpts, CSVSorter.SERIAL_READ, true, false));
+                Assert.assertArrayEquals(expected, sort(path, sortOpts, CSVSorter.SERIAL_READ, false, true));
+            }
+        } finally {
+            Files.delete(path);
+        }
+    }
+
+    @Test
+    public void malformedSchema() {
+        for (String spec : new String[] {"date", "1:time", "1:date(YYYY-MM)", "1:decimal(x)", "2:decimal(19",
+                "0:string(-)"}) {
+            try {
+                Schema.parse(spec);
+                Assert.fail(spec);
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+        Assert.assertEquals("3:date(M/D/YYYY),Amount:decimal(2),0:string", Schema.parse(
+                " 3:date(M/D/YYYY), Amount:decimal(2),,0:string").toString());
+    }
+
+    @Test
+    public void columnsNotInHeader() {
+        String[] names = {"Name", "Date of Sale", "Invoice Amount", "Id"};
+        Assert.assertEquals("2:decimal(2)", Schema.parse("2:decimal(2)").resolve(names)[2].toString());
+        // Past the header, past an int, and a digit other than 0-9 that is no column name
+        for (String spec : new String[] {"4:long", "99999999999:long", "\u0663:long"}) {
+            try {
+                Schema.parse(spec).resolve(names);
+                Assert.fail(spec);
+            } catch (IllegalArgumentException e) {
+                Assert.assertTrue(e.getMessage(), e.getMessage().endsWith("is not in the header"));
+            }
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package com.jia.csv.test;
+
+import com.jia.csv.SortKey;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class SortKeyUnitTest {
+
+    private static final Object[] VALUES = {"", "a", "ab", "a\0", "a\0b", "b", "\uffff", "Z", 0, 1, -1, 7, 1275,
+            Integer.MAX_VALUE, Integer.MIN_VALUE, 0.5, -0.5, 1275.0, 1e300, -1e300};
+
+    @Test
+    public void keyOrderMatchesValueOrder() {
+        Random random = new Random(3);
+        SortKey ascending = new SortKey(new int[] {0, 1}, new boolean[] {false, false});
+        SortKey mixed = new SortKey(new int[] {1, 0}, new boolean[] {true, false});
+        for (int i = 0; i < 20000; i++) {
+            Object[] r0 = {pick(random), pick(random)};
+            Object[] r1 = {pick(random), pick(random)};
+
+            int expected = SortKey.compareValues(r0[0], r1[0]);
+            if (expected == 0)
+                expected = SortKey.compareValues(r0[1], r1[1]);
+            assertSameSign(expected, Arrays.compareUnsigned(ascending.encode(r0), ascending.encode(r1)));
+
+            expected = -SortKey.compareValues(r0[1], r1[1]);
+            if (expected == 0)
+                expected = SortKey.compareValues(r0[0], r1[0]);
+            assertSameSign(expected, Arrays.compareUnsigned(mixed.encode(r0), mixed.encode(r1)));
+        }
+    }
+
+    @Test
+    public void emptyThenNumbersThenStrings() {
+        Assert.assertTrue(SortKey.compareValues("", -1) < 0);
+        Assert.assertTrue(SortKey.compareValues(1e300, "0") < 0);
+        Assert.assertEquals(0, SortKey.compareValues(1275, 1275.0));
+        Assert.assertEquals("", SortKey.valueAt(new Object[] {1}, 3));
+    }
+
+    private static Object pick(Random random) {
+        return VALUES[random.nextInt(VALUES.length)];
+    }
+
+    private static void assertSameSign(int expected, int actual) {
+        Assert.assertEquals(Integer.signum(expected), Integer.signum(actual));
+    }
+}
@@ -0,0 +1,151 @@
+package com.jia.sort.test;
+
+import static com.jia.sort.test.KeyedRecords.BY_KEY;
+
+import com.jia.sort.ExternalMergeSort;
+import com.jia.sort.MergeSort;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ExternalMergeSortUnitTest {
+
+    private static final ExternalMergeSort.Codec<int[]> CODEC = new ExternalMergeSort.Codec<int[]>() {
+        @Override
+        public void write(DataOutputStream out, int[] e) throws IOException {
+            out.writeInt(e[0]);
+            out.writeInt(e[1]);
+        }
+
+        @Override
+        public int[] read(DataInputStream in) throws IOException {
+            return new int[] {in.readInt(), in.readInt()};
+        }
+    };
+
+    private static void assertSameOrder(List<int[]> expected, List<int[]> actual) {
+        Assert.assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++)
+            Assert.assertArrayEquals(expected.get(i), actual.get(i));
+    }
+
+    @Test
+    public void fitsInMemory() throws IOException {
+        List<int[]> records = KeyedRecords.random(100, 10, 42);
+        List<int[]> expected = new ArrayList<>(records);
+        new MergeSort().mergeSort(expected, BY_KEY, false);
+
+        ExternalMergeSort<int[]> sort = new ExternalMergeSort<>(BY_KEY, CODEC, e -> 1, 1000, false);
+        List<int[]> actual = new ArrayList<>();
+        sort.sort(records.iterator(), actual::add);
+
+        Assert.assertEquals(0, sort.getSpilledRuns());
+        assertSameOrder(expected, actual);
+    }
+
+    @Test
+    public void spillsAndMergesStably() throws IOException {
+        List<int[]> records = KeyedRecords.random(5000, 50, 42);
+        List<int[]> expected = new ArrayList<>(records);
+        new MergeSort().mergeSort(expected, BY_KEY, false);
+
+        ExternalMergeSort<int[]> sort = new ExternalMergeSort<>(BY_KEY, CODEC, e -> 1, 100, false);
+        List<int[]> actual = new ArrayList<>();
+        sort.sort(records.iterator(), actual::add);
+
+        Assert.assertEquals(50, sort.getSpilledRuns());
+        assertSameOrder(expected, actual);
+    }
+
+    @Test
+    public void multiPassMerge() throws IOException {
+        List<int[]> records = KeyedRecords.random(5000, 50, 42);
+        List<int[]> expected = new ArrayList<>(records);
+        new MergeSort().mergeSort(expected, BY_KEY, false);
+
+        ExternalMergeSort<int[]> sort = new ExternalMergeSort<>(BY_KEY, CODEC, e -> 1, 37, false);
+        sort.setMaxFanIn(3);
+        List<int[]> actual = new ArrayList<>();
+        sort.sort(records.iterator(), actual::add);
+
+        assertSameOrder(expected, actual);
+    }
+
+    @Test
+    public void compressedRuns() throws IOException {
+        List<int[]> records = KeyedRecords.random(5000, 50, 42);
+        List<int[]> expected = new ArrayList<>(records);
+        new MergeSort().mergeSort(expected, BY_KEY, false);
+
+        ExternalMergeSort<int[]> sort = new ExternalMergeSort<>(BY_KEY, CODEC, e -> 1, 37, false);
+        sort.setMaxFanIn(3);
+        sort.setCompressRuns(true);
+        List<int[]> actual = new ArrayList<>();
+        sort.sort(records.iterator(), actual::add);
+
+        assertSameOrder(expected, actual);
+    }
+
+    @Test
+    public void distinctKeepsFirstOfEqual() throws IOException {
+        List<int[]> records = KeyedRecords.random(5000, 50, 42);
+        List<int[]> expected = new ArrayList<>(records);
+        new MergeSort().mergeSort(expected, BY_KEY, false);
+        for (int i = expected.size() - 1; i > 0; i--)
+            if (expected.get(i)[0] == expected.get(i - 1)[0])
+                expected.remove(i);
+
+        for (long memoryBudget : new long[] {10000, 37}) {
+            ExternalMergeSort<int[]> sort = new ExternalMergeSort<>(BY_KEY, CODEC, e -> 1, memoryBudget, false);
+            sort.setMaxFanIn(3);
+            sort.setDistinct(true);
+            List<int[]> actual = new ArrayList<>();
+            sort.sort(records.iterator(), actual::add);
+
+            assertSameOrder(expected, actual);
+        }
+    }
+
+    @Test
+    public void deletesRunsOnFailure() throws IOException {
+        List<int[]> records = KeyedRecords.random(5000, 50, 42);
+        File dir = Files.createTempDirectory("runs").toFile();
+        // Fails in the first intermediate merge, after all records were spilled
+        int[] writes = {0};
+        ExternalMergeSort.Codec<int[]> failing = new ExternalMergeSort.Codec<int[]>() {
+            @Override
+            public void write(DataOutputStream out, int[] e) throws IOException {
+                if (++writes[0] == records.size() + 100)
+                    throw new IOException("disk full");
+                CODEC.write(out, e);
+            }
+
+            @Override
+            public int[] read(DataInputStream in) throws IOException {
+                return CODEC.read(in);
+            }
+        };
+        try {
+            ExternalMergeSort<int[]> sort = new ExternalMergeSort<>(BY_KEY, failing, e -> 1, 37, false);
+            sort.setMaxFanIn(3);
+            sort.setTempDir(dir);
+            try {
+                sort.sort(records.iterator(), e -> { });
+                Assert.fail();
+            } catch (IOException e) {
+                Assert.assertEquals("disk full", e.getMessage());
+            }
+            Assert.assertEquals(0, dir.list().length);
+        } finally {
+            dir.delete();
+        }
+    }
+}
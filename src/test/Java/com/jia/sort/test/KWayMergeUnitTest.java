@@ -0,0 +1,43 @@
+package com.jia.sort.test;
+
+import static com.jia.sort.test.KeyedRecords.BY_KEY;
+
+import com.jia.sort.KWayMerge;
+import com.jia.sort.MergeSort;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class KWayMergeUnitTest {
+
+    @Test
+    public void sameAsStableSort() {
+        Random random = new Random(12);
+        for (int parts : new int[] {1, 2, 7, 40}) {
+            List<int[]> records = KeyedRecords.random(5000, 100, parts);
+
+            // Consecutive parts of random sizes, some of them empty
+            List<Iterator<int[]>> sorted = new ArrayList<>();
+            for (int i = 0, from = 0; i < parts; i++) {
+                int to = i == parts - 1 ? records.size() : from + random.nextInt(2 * records.size() / parts + 1);
+                to = Math.min(to, records.size());
+                List<int[]> part = new ArrayList<>(records.subList(from, to));
+                new MergeSort().mergeSort(part, BY_KEY, false);
+                sorted.add(part.iterator());
+                from = to;
+            }
+
+            List<int[]> expected = new ArrayList<>(records);
+            new MergeSort().mergeSort(expected, BY_KEY, false);
+            KWayMerge<int[]> merged = new KWayMerge<>(sorted, BY_KEY);
+            for (int[] e : expected)
+                Assert.assertArrayEquals(e, merged.next());
+            Assert.assertFalse(merged.hasNext());
+        }
+    }
+}
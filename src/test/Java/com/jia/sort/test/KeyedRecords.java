@@ -0,0 +1,29 @@
+package com.jia.sort.test;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Records of the sort tests: {key, sequence number}.
+ */
+final class KeyedRecords {
+
+    // Sort on the key only, the sequence number checks stability
+    static final Comparator<int[]> BY_KEY = (a, b) -> Integer.compare(a[0], b[0]);
+
+    private KeyedRecords() {
+    }
+
+    /**
+     * count records with random keys in [0, keys), numbered in order.
+     */
+    static List<int[]> random(int count, int keys, long seed) {
+        Random random = new Random(seed);
+        List<int[]> records = new ArrayList<>();
+        for (int i = 0; i < count; i++)
+            records.add(new int[] {random.nextInt(keys), i});
+        return records;
+    }
+}
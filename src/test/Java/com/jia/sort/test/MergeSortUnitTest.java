@@ -0,0 +1,96 @@
+package com.jia.sort.test;
+
+import static com.jia.sort.test.KeyedRecords.BY_KEY;
+
+import com.jia.sort.MergeSort;
+import com.jia.sort.SortMetrics;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class MergeSortUnitTest {
+
+    private static void assertSortedAndStable(List<int[]> records) {
+        for (int i = 1; i < records.size(); i++) {
+            int[] prev = records.get(i - 1);
+            int[] cur = records.get(i);
+            Assert.assertTrue(prev[0] < cur[0] || prev[0] == cur[0] && prev[1] < cur[1]);
+        }
+    }
+
+    @Test
+    public void serialSort() {
+        List<int[]> records = KeyedRecords.random(1000, 20, 7);
+        new MergeSort().mergeSort(records, BY_KEY, false);
+        assertSortedAndStable(records);
+    }
+
+    @Test
+    public void threadedSortSplitsDownToCutoff() {
+        List<int[]> records = KeyedRecords.random(50000, 100, 7);
+        MergeSort sorter = new MergeSort();
+        sorter.setSequentialCutoff(16);
+        sorter.mergeSort(records, BY_KEY, true);
+        Assert.assertEquals(50000, records.size());
+        assertSortedAndStable(records);
+    }
+
+    @Test
+    public void threadedSortManyDuplicates() {
+        List<int[]> records = KeyedRecords.random(20000, 2, 7);
+        MergeSort sorter = new MergeSort();
+        sorter.setSequentialCutoff(8);
+        sorter.mergeSort(records, BY_KEY, true);
+        assertSortedAndStable(records);
+    }
+
+    @Test
+    public void threadedSortPresorted() {
+        List<int[]> records = KeyedRecords.random(20000, 1000, 7);
+        MergeSort sorter = new MergeSort();
+        sorter.mergeSort(records, BY_KEY, false);
+        List<int[]> presorted = new ArrayList<>(records);
+        sorter.setSequentialCutoff(8);
+        sorter.mergeSort(records, BY_KEY, true);
+        assertSortedAndStable(records);
+        for (int i = 0; i < records.size(); i++)
+            Assert.assertSame(presorted.get(i), records.get(i));
+    }
+
+    @Test
+    public void threadedSortReversed() {
+        List<int[]> records = KeyedRecords.random(20000, 1000, 7);
+        MergeSort sorter = new MergeSort();
+        sorter.mergeSort(records, BY_KEY, false);
+        sorter.setSequentialCutoff(8);
+        sorter.mergeSort(records, BY_KEY.reversed(), true);
+        for (int i = 1; i < records.size(); i++)
+            Assert.assertTrue(records.get(i - 1)[0] >= records.get(i)[0]);
+    }
+
+    @Test
+    public void metricsCountWork() {
+        SortMetrics metrics = new SortMetrics();
+        MergeSort sorter = new MergeSort();
+        sorter.setMetrics(metrics);
+        sorter.setSequentialCutoff(16);
+
+        List<int[]> records = KeyedRecords.random(1000, 20, 7);
+        sorter.mergeSort(records, BY_KEY, true);
+        assertSortedAndStable(records);
+        Assert.assertTrue(metrics.comparisons() >= 999);
+        Assert.assertTrue(metrics.moves() >= 1000);
+        Assert.assertTrue(metrics.forks() > 0);
+
+        // Already sorted: every merge is skipped
+        metrics.reset();
+        sorter.mergeSort(records, BY_KEY, false);
+        Assert.assertEquals(0, metrics.forks());
+        Assert.assertTrue(metrics.presortedChecks() > 0);
+        Assert.assertEquals(1.0, metrics.presortedHitRate(), 0);
+        Assert.assertTrue(metrics.toJson().startsWith("{\"comparisons\":"));
+    }
+}
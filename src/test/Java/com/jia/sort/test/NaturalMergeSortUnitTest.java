@@ -0,0 +1,89 @@
+package com.jia.sort.test;
+
+import static com.jia.sort.test.KeyedRecords.BY_KEY;
+
+import com.jia.sort.MergeSort;
+import com.jia.sort.NaturalMergeSort;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class NaturalMergeSortUnitTest {
+
+    private static int[][] records(int[] keys) {
+        int[][] records = new int[keys.length][];
+        for (int i = 0; i < keys.length; i++)
+            records[i] = new int[] {keys[i], i};
+        return records;
+    }
+
+    private static void assertSameAsMergeSort(int[] keys) {
+        int[][] records = records(keys);
+        List<int[]> expected = new ArrayList<>(Arrays.asList(records));
+        new MergeSort().mergeSort(expected, BY_KEY, false);
+
+        NaturalMergeSort.sort(records, BY_KEY);
+        for (int i = 0; i < records.length; i++)
+            Assert.assertArrayEquals(expected.get(i), records[i]);
+    }
+
+    @Test
+    public void randomWithDuplicates() {
+        Random random = new Random(3);
+        for (int length : new int[] {0, 1, 2, 31, 32, 33, 1000, 100000}) {
+            for (int distinct : new int[] {2, 50, Integer.MAX_VALUE}) {
+                int[] keys = new int[length];
+                for (int i = 0; i < length; i++)
+                    keys[i] = random.nextInt(distinct);
+                assertSameAsMergeSort(keys);
+            }
+        }
+    }
+
+    @Test
+    public void runs() {
+        Random random = new Random(5);
+        int length = 50000;
+        int[] ascending = new int[length];
+        int[] descending = new int[length];
+        int[] sawtooth = new int[length];
+        int[] lateArrivals = new int[length];
+        int[] equal = new int[length];
+        for (int i = 0; i < length; i++) {
+            ascending[i] = i;
+            descending[i] = length - i / 3; // descending with equal neighbours
+            sawtooth[i] = i % (1 + i / 1000 % 300);
+            lateArrivals[i] = random.nextInt(100) == 0 ? i - random.nextInt(5000) : i;
+        }
+        assertSameAsMergeSort(ascending);
+        assertSameAsMergeSort(descending);
+        assertSameAsMergeSort(sawtooth);
+        assertSameAsMergeSort(lateArrivals);
+        assertSameAsMergeSort(equal);
+    }
+
+    @Test
+    public void adaptiveMergeSort() {
+        Random random = new Random(9);
+        List<int[]> records = new ArrayList<>();
+        for (int i = 0; i < 60000; i++)
+            records.add(new int[] {random.nextInt(10) == 0 ? random.nextInt(60000) : i, i});
+        List<int[]> expected = new ArrayList<>(records);
+        new MergeSort().mergeSort(expected, BY_KEY, false);
+
+        for (boolean threaded : new boolean[] {false, true}) {
+            List<int[]> actual = new ArrayList<>(records);
+            MergeSort sorter = new MergeSort();
+            sorter.setAdaptive(true);
+            sorter.setSequentialCutoff(1000);
+            sorter.mergeSort(actual, BY_KEY, threaded);
+            for (int i = 0; i < expected.size(); i++)
+                Assert.assertArrayEquals(expected.get(i), actual.get(i));
+        }
+    }
+}
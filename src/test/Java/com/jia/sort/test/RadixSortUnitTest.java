@@ -0,0 +1,111 @@
+package com.jia.sort.test;
+
+import com.jia.sort.MergeSort;
+import com.jia.sort.RadixSort;
+
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class RadixSortUnitTest {
+
+    private static int[] identity(int n) {
+        int[] rows = new int[n];
+        for (int i = 0; i < n; i++)
+            rows[i] = i;
+        return rows;
+    }
+
+    @Test
+    public void doublesInCompareOrder() {
+        Random random = new Random(1);
+        double[] special = {0.0, -0.0, Double.NaN, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY,
+                Double.MIN_VALUE, -Double.MAX_VALUE, 1e300, -1e-300};
+        double[] values = new double[20000];
+        for (int i = 0; i < values.length; i++)
+            values[i] = i < special.length ? special[i] : random.nextInt(100) == 0 ? special[random.nextInt(9)]
+                    : (random.nextDouble() - 0.5) * Math.pow(10, random.nextInt(20) - 10);
+
+        int[] expected = identity(values.length);
+        MergeSort.mergeSort(expected, (r0, r1) -> Double.compare(values[r0], values[r1]));
+
+        int[] rows = identity(values.length);
+        long[] keys = new long[values.length];
+        for (int i = 0; i < values.length; i++)
+            keys[i] = RadixSort.sortableDouble(values[i]);
+        RadixSort.sort(rows, keys);
+        Assert.assertArrayEquals(expected, rows);
+    }
+
+    @Test
+    public void intsAndLongsStable() {
+        Random random = new Random(2);
+        int[] ints = new int[10000];
+        for (int i = 0; i < ints.length; i++)
+            ints[i] = random.nextInt(50) - 25;
+
+        int[] expected = identity(ints.length);
+        MergeSort.mergeSort(expected, (r0, r1) -> Integer.compare(ints[r1], ints[r0]));
+
+        // Descending by inverted keys, ties keep their order
+        int[] rows = identity(ints.length);
+        long[] keys = new long[ints.length];
+        for (int i = 0; i < ints.length; i++)
+            keys[i] = ~RadixSort.sortableInt(ints[i]);
+        RadixSort.sort(rows, keys);
+        Assert.assertArrayEquals(expected, rows);
+
+        long[] longs = {Long.MAX_VALUE, Long.MIN_VALUE, -1, 0, 1, Integer.MIN_VALUE, 1L << 40};
+        rows = identity(longs.length);
+        keys = new long[longs.length];
+        for (int i = 0; i < longs.length; i++)
+            keys[i] = RadixSort.sortableLong(longs[i]);
+        RadixSort.sort(rows, keys);
+        Assert.assertArrayEquals(new int[] {1, 5, 2, 3, 4, 6, 0}, rows);
+    }
+
+    @Test
+    public void stringsInCompareToOrder() {
+        Random random = new Random(3);
+        String alphabet = "ab\u00e9\u4e2d\ud83d\ude00 ";
+        String[] strings = new String[20000];
+        for (int i = 0; i < strings.length; i++) {
+            StringBuilder sb = new StringBuilder("common prefix ".substring(0, random.nextInt(14)));
+            for (int j = random.nextInt(6); j > 0; j--)
+                sb.append(alphabet.charAt(random.nextInt(alphabet.length())));
+            strings[i] = sb.toString();
+        }
+
+        for (boolean descending : new boolean[] {false, true}) {
+            int[] expected = identity(strings.length);
+            MergeSort.mergeSort(expected, descending ? (r0, r1) -> strings[r1].compareTo(strings[r0])
+                    : (r0, r1) -> strings[r0].compareTo(strings[r1]));
+
+            int[] rows = identity(strings.length);
+            RadixSort.sort(rows, strings.clone(), descending);
+            Assert.assertArrayEquals(expected, rows);
+        }
+    }
+
+    @Test
+    public void longCommonPrefixes() {
+        Random random = new Random(4);
+        String prefix = "x".repeat(6000);
+        String[] strings = new String[1100];
+        for (int i = 0; i < strings.length; i++) {
+            int kind = random.nextInt(3);
+            strings[i] = kind == 0 ? prefix : kind == 1 ? prefix + random.nextInt(10) : prefix.substring(i % 50);
+        }
+
+        for (boolean descending : new boolean[] {false, true}) {
+            int[] expected = identity(strings.length);
+            MergeSort.mergeSort(expected, descending ? (r0, r1) -> strings[r1].compareTo(strings[r0])
+                    : (r0, r1) -> strings[r0].compareTo(strings[r1]));
+
+            int[] rows = identity(strings.length);
+            RadixSort.sort(rows, strings.clone(), descending);
+            Assert.assertArrayEquals(expected, rows);
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package com.jia.sort.test;
+
+import static com.jia.sort.test.KeyedRecords.BY_KEY;
+
+import com.jia.sort.MergeSort;
+import com.jia.sort.SampleSort;
+import com.jia.sort.SortMetrics;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class SampleSortUnitTest {
+
+    private static final ForkJoinPool POOL = new ForkJoinPool(4);
+
+    @AfterClass
+    public static void shutdown() {
+        POOL.shutdown();
+    }
+
+    // Random keys for kind 0, sorted for 1, reverse sorted for 2
+    private static List<int[]> records(int count, int keys, int kind) {
+        if (kind == 0)
+            return KeyedRecords.random(count, keys, 14);
+        List<int[]> records = new ArrayList<>();
+        for (int i = 0; i < count; i++)
+            records.add(new int[] {kind == 1 ? i : count - i, i});
+        return records;
+    }
+
+    private static void assertSameAsMergeSort(List<int[]> records, List<int[]> actual) {
+        List<int[]> expected = new ArrayList<>(records);
+        new MergeSort().mergeSort(expected, BY_KEY, false);
+        Assert.assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++)
+            Assert.assertArrayEquals(expected.get(i), actual.get(i));
+    }
+
+    @Test
+    public void sameAsStableMergeSort() {
+        for (int count : new int[] {0, 1, 100, 2047, 5000, 100000}) {
+            for (int keys : new int[] {1, 3, 1000, Integer.MAX_VALUE}) {
+                for (int kind = 0; kind < 3; kind++) {
+                    List<int[]> records = records(count, keys, kind);
+                    for (int buckets : new int[] {1, 2, 16}) {
+                        List<int[]> actual = new ArrayList<>(records);
+                        new SampleSort(POOL, buckets).sort(actual, BY_KEY);
+                        assertSameAsMergeSort(records, actual);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void threadedMergeSortOption() {
+        List<int[]> records = records(50000, 40, 0);
+        for (boolean adaptive : new boolean[] {false, true}) {
+            SortMetrics metrics = new SortMetrics();
+            MergeSort sorter = new MergeSort(POOL);
+            sorter.setSampleSort(true);
+            sorter.setAdaptive(adaptive);
+            sorter.setMetrics(metrics);
+            List<int[]> actual = new ArrayList<>(records);
+            sorter.mergeSort(actual, BY_KEY, true);
+            assertSameAsMergeSort(records, actual);
+            Assert.assertTrue(metrics.comparisons() > 0);
+            Assert.assertTrue(metrics.forks() > 0);
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package com.jia.sort.test;
+
+import static com.jia.sort.test.KeyedRecords.BY_KEY;
+
+import com.jia.sort.MergeSort;
+import com.jia.sort.TopK;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TopKUnitTest {
+
+    private static void assertPrefixOfFullSort(List<int[]> records, Comparator<int[]> c, int limit) {
+        List<int[]> expected = new ArrayList<>(records);
+        new MergeSort().mergeSort(expected, c, false);
+        expected = expected.subList(0, Math.min(limit, expected.size()));
+
+        TopK<int[]> top = new TopK<>(limit, c);
+        records.forEach(top::add);
+        List<int[]> actual = top.result();
+
+        Assert.assertEquals(records.size(), top.count());
+        Assert.assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++)
+            Assert.assertArrayEquals(expected.get(i), actual.get(i));
+    }
+
+    @Test
+    public void sameAsFullSortWithDuplicates() {
+        List<int[]> records = KeyedRecords.random(10000, 20, 11);
+        assertPrefixOfFullSort(records, BY_KEY, 1000);
+        assertPrefixOfFullSort(records, BY_KEY.reversed(), 1000);
+        assertPrefixOfFullSort(records, BY_KEY, 1);
+    }
+
+    @Test
+    public void limitLargerThanInput() {
+        assertPrefixOfFullSort(KeyedRecords.random(50, 5, 11), BY_KEY, 1000);
+    }
+}